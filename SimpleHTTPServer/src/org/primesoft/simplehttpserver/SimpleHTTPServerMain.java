@@ -53,6 +53,7 @@ import org.primesoft.simplehttpserver.api.IHttpServer;
 import org.primesoft.simplehttpserver.commands.GlobalCommands;
 import org.primesoft.simplehttpserver.commands.utils.CommandManager;
 import org.primesoft.simplehttpserver.configuration.ConfigProvider;
+import org.primesoft.simplehttpserver.implementation.NioHttpServer;
 import org.primesoft.simplehttpserver.implementation.SimpleApi;
 import org.primesoft.simplehttpserver.implementation.SunHttpServer;
 import org.primesoft.simplehttpserver.metrics.MetricsLite;
@@ -74,7 +75,10 @@ public class SimpleHTTPServerMain extends JavaPlugin {
 
     private static SimpleHTTPServerMain s_instance;
 
-    private MetricsLite m_metrics;
+    /**
+     * The MCStats metrics, set by the asynchronous start task
+     */
+    private volatile MetricsLite m_metrics;
 
     private CommandManager m_commandManager;
 
@@ -112,7 +116,7 @@ public class SimpleHTTPServerMain extends JavaPlugin {
     /**
      * Instance of the API
      */
-    private IApi m_api;
+    private SimpleApi m_api;
 
     /**
      * Get the instance of API
@@ -130,15 +134,13 @@ public class SimpleHTTPServerMain extends JavaPlugin {
         s_console = getServer().getConsoleSender();
         s_instance = this;
 
-        try {
-            MetricsLite metrics = new MetricsLite(this);
-            if (!metrics.isOptOut()) {
-                m_metrics = metrics;
-                m_metrics.start();
+        //MCStats loads its configuration from disk, do not block the start
+        getServer().getScheduler().runTaskAsynchronously(this, new Runnable() {
+            @Override
+            public void run() {
+                startMetrics();
             }
-        } catch (IOException e) {
-            ExceptionHelper.printException(e, "Error initializing MCStats");
-        }
+        });
 
         if (!ConfigProvider.load(this)) {
             log("Error loading config");
@@ -147,17 +149,34 @@ public class SimpleHTTPServerMain extends JavaPlugin {
         m_commandManager = new CommandManager(this);
         m_commandManager.initializeCommands(GlobalCommands.class);
 
-        m_api = new SimpleApi(new SunHttpServer());
+        IHttpServer server;
+        if ("nio".equalsIgnoreCase(ConfigProvider.getEngine())) {
+            server = new NioHttpServer();
+        } else {
+            server = new SunHttpServer();
+        }
+        m_api = new SimpleApi(this, server);
 
         log("Enabled");
     }
 
+    private void startMetrics() {
+        try {
+            MetricsLite metrics = new MetricsLite(this);
+            if (!metrics.isOptOut()) {
+                m_metrics = metrics;
+                m_metrics.start();
+            }
+        } catch (IOException e) {
+            ExceptionHelper.printException(e, "Error initializing MCStats");
+        }
+    }
+
     @Override
     public void onDisable() {
         super.onDisable();
-        IHttpServer server = (m_api != null) ? m_api.getServer() : null;
-        if (server != null) {
-            server.stopServer();
+        if (m_api != null) {
+            m_api.stop();
         }
 
         log("Disabled");
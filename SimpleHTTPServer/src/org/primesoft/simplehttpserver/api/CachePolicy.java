@@ -0,0 +1,181 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.api;
+
+/**
+ * The per context response cache policy. The rendered GET responses are
+ * stored and replayed to the GET and HEAD requests with the same key without
+ * calling the service. With coalescing enabled the identical GET requests
+ * that miss the cache wait for the single running render instead of calling
+ * the service again. The policy is immutable, for example:
+ * <pre>
+ * CachePolicy.expireAfter(5000).withCoalescing().withQuery()
+ * </pre>
+ *
+ * @author SBPrime
+ */
+public final class CachePolicy {
+
+    private static final String[] NO_HEADERS = new String[0];
+
+    /**
+     * Time to live of the cached response (in milliseconds, 0 to keep until
+     * invalidated)
+     */
+    private final long m_ttl;
+
+    /**
+     * Are the rendered responses stored (false to only coalesce)
+     */
+    private final boolean m_store;
+
+    /**
+     * Should the identical concurrent requests wait for a single render
+     */
+    private final boolean m_coalesce;
+
+    /**
+     * Is the query string part of the key
+     */
+    private final boolean m_includeQuery;
+
+    /**
+     * The request headers that are part of the key
+     */
+    private final String[] m_headers;
+
+    /**
+     * Cache the responses until the context cache is invalidated
+     *
+     * @return
+     */
+    public static CachePolicy untilInvalidated() {
+        return new CachePolicy(0, true, false, false, NO_HEADERS);
+    }
+
+    /**
+     * Cache the responses for the given time
+     *
+     * @param ttl time to live (in milliseconds)
+     * @return
+     */
+    public static CachePolicy expireAfter(long ttl) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+
+        return new CachePolicy(ttl, true, false, false, NO_HEADERS);
+    }
+
+    /**
+     * Do not store the responses, only the identical concurrent requests
+     * share a single render
+     *
+     * @return
+     */
+    public static CachePolicy coalesceOnly() {
+        return new CachePolicy(0, false, true, false, NO_HEADERS);
+    }
+
+    private CachePolicy(long ttl, boolean store, boolean coalesce, boolean includeQuery,
+            String[] headers) {
+        m_ttl = ttl;
+        m_store = store;
+        m_coalesce = coalesce;
+        m_includeQuery = includeQuery;
+        m_headers = headers;
+    }
+
+    /**
+     * The identical concurrent requests wait for a single render
+     *
+     * @return new policy
+     */
+    public CachePolicy withCoalescing() {
+        return new CachePolicy(m_ttl, m_store, true, m_includeQuery, m_headers);
+    }
+
+    /**
+     * Use the query string as part of the key
+     *
+     * @return new policy
+     */
+    public CachePolicy withQuery() {
+        return new CachePolicy(m_ttl, m_store, m_coalesce, true, m_headers);
+    }
+
+    /**
+     * Use the request headers as part of the key
+     *
+     * @param headers the header names
+     * @return new policy
+     */
+    public CachePolicy withHeaders(String... headers) {
+        return new CachePolicy(m_ttl, m_store, m_coalesce, m_includeQuery,
+                headers != null ? headers.clone() : NO_HEADERS);
+    }
+
+    /**
+     * Time to live of the cached response
+     *
+     * @return in milliseconds, 0 if kept until invalidated
+     */
+    public long getTtl() {
+        return m_ttl;
+    }
+
+    public boolean isStore() {
+        return m_store;
+    }
+
+    public boolean isCoalesce() {
+        return m_coalesce;
+    }
+
+    public boolean isIncludeQuery() {
+        return m_includeQuery;
+    }
+
+    public String[] getHeaders() {
+        return m_headers.clone();
+    }
+}
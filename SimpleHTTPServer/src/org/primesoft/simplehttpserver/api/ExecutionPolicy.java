@@ -0,0 +1,101 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.api;
+
+/**
+ * The per context execution policy (bulkhead). Requests above the
+ * concurrency and queue limits are rejected with 503 instead of taking
+ * workers from the other contexts.
+ *
+ * @author SBPrime
+ */
+public final class ExecutionPolicy {
+
+    /**
+     * Run the context on its own thread pool
+     */
+    private final boolean m_dedicated;
+
+    /**
+     * Maximum number of requests executed at the same time
+     */
+    private final int m_maxConcurrency;
+
+    /**
+     * Maximum number of requests waiting for execution
+     */
+    private final int m_queueDepth;
+
+    /**
+     * Create new execution policy
+     *
+     * @param dedicated use a dedicated thread pool (ignored when running on
+     * virtual threads)
+     * @param maxConcurrency maximum number of requests executed at the same
+     * time
+     * @param queueDepth maximum number of requests waiting for execution
+     */
+    public ExecutionPolicy(boolean dedicated, int maxConcurrency, int queueDepth) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        if (queueDepth < 0) {
+            throw new IllegalArgumentException("queueDepth must not be negative");
+        }
+
+        m_dedicated = dedicated;
+        m_maxConcurrency = maxConcurrency;
+        m_queueDepth = queueDepth;
+    }
+
+    public boolean isDedicated() {
+        return m_dedicated;
+    }
+
+    public int getMaxConcurrency() {
+        return m_maxConcurrency;
+    }
+
+    public int getQueueDepth() {
+        return m_queueDepth;
+    }
+}
@@ -54,9 +54,11 @@ public final class HttpStatusCodes {
     public static final int CREATED = 201;
     public static final int ACCEPTED = 202;
     public static final int NO_CONTENT = 204;
+    public static final int PARTIAL_CONTENT = 206;
 
     public static final int MOVED_PERMANENTLY = 301;
     public static final int SEE_OTHER = 303;
+    public static final int NOT_MODIFIED = 304;
     public static final int TEMPORARY_REDIRECT = 307;
 
     public static final int BAD_REQUEST = 400;
@@ -69,4 +71,11 @@ public final class HttpStatusCodes {
     public static final int CONFLICT = 409;
     public static final int GONE = 410;
     public static final int LENGTH_REQUIRED = 411;
+    public static final int REQUEST_ENTITY_TOO_LARGE = 413;
+    public static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+    public static final int REQUEST_HEADER_FIELDS_TOO_LARGE = 431;
+
+    public static final int INTERNAL_SERVER_ERROR = 500;
+    public static final int NOT_IMPLEMENTED = 501;
+    public static final int SERVICE_UNAVAILABLE = 503;
 }
@@ -41,6 +41,8 @@
  */
 package org.primesoft.simplehttpserver.api;
 
+import java.util.Collection;
+
 /**
  *
  * @author SBPrime
@@ -51,6 +53,14 @@ public interface IApi {
      * @return 
      */
     public IHttpServer getServer();
+
+    /**
+     * The server start. The server is started in the background, the
+     * services can be registered right away and are served once the server
+     * is started.
+     * @return 
+     */
+    public IReadyFuture getReady();
     
     
     /**
@@ -58,4 +68,54 @@ public interface IApi {
      * @return 
      */
     public String getExternalAddress();
+
+    /**
+     * Run the task on the server main thread and complete the request
+     * asynchronously. The service should return from handle right after
+     * calling this method, the response is send by the task.
+     *
+     * @param <T>
+     * @param request the request being handled
+     * @param task
+     */
+    public <T> void runOnMainThread(IHttpRequest request, IMainThreadTask<T> task);
+
+    /**
+     * Get the hosted resource pack. The pack hash is precomputed so it is
+     * safe to use on the main thread.
+     *
+     * @param name the pack file name
+     * @return the pack or null if not found or hosting is disabled
+     */
+    public IResourcePack getResourcePack(String name);
+
+    /**
+     * Get all the hosted resource packs
+     *
+     * @return
+     */
+    public Collection<IResourcePack> getResourcePacks();
+
+    /**
+     * Create a new request router, register it as a service to use it
+     *
+     * @return
+     */
+    public IRouter createRouter();
+
+    /**
+     * Drop the cached responses of a context service
+     *
+     * @param context
+     */
+    public void invalidateCache(String context);
+
+    /**
+     * Drop the cached responses of a host context service
+     *
+     * @param host the host name, null for the service registered for all
+     * the hosts
+     * @param context
+     */
+    public void invalidateCache(String host, String context);
 }
@@ -61,6 +61,13 @@ public interface IHeaders {
      */
     public List<String> get(String headerName);
     
+    /**
+     * Get the first value for header
+     * @param headerName
+     * @return the value or null if not set
+     */
+    public String getFirst(String headerName);
+    
     /**
      * Remove a header entry (cass sensitive)
      * @param headerName 
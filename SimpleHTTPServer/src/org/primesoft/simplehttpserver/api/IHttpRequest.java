@@ -45,6 +45,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 
 /**
  *
@@ -63,6 +65,13 @@ public interface IHttpRequest {
      */
     public String getMethod();
     
+    /**
+     * Get the path parameter captured by the router
+     * @param name the parameter name
+     * @return the value or null if not captured
+     */
+    public String getPathParameter(String name);
+    
     /**
      * The request header 
      * @return 
@@ -82,17 +91,88 @@ public interface IHttpRequest {
     public InputStream getRequestBody();
     
     /**
-     * The response body
+     * The response body, available after the response is send
+     * (sendResponse) so the body uses the selected encoding
      * @return 
+     * @throws IllegalStateException if the response was not send yet
      */
     public OutputStream getResponseBody();
     
     /**
      * Use this function to send the http response code
-     * and set the response size
+     * and set the response size. The response body written to
+     * getResponseBody is compressed when the Content-Type (set before
+     * calling this function) is configured as compressible and the client
+     * accepts it.
      * @param httpCode
      * @param bodySize
      * @throws IOException 
      */
     public void sendResponse(int httpCode, int bodySize) throws IOException;
+    
+    /**
+     * Select the content encoding for a response the service compresses
+     * itself (for example a pre-compressed file). The Content-Type needs to
+     * be set before calling this function, the Vary header is set when the
+     * response is compressible. The buffer and file responses are not
+     * compressed by the server.
+     * @param httpCode
+     * @param bodySize
+     * @return the accepted encoding (gzip or deflate), null if the response
+     * should not be compressed
+     */
+    public String selectEncoding(int httpCode, int bodySize);
+    
+    /**
+     * Send the http response code and the remaining content of the buffer
+     * as the response body. The buffer position is not modified, so a shared
+     * buffer can be send by many requests at once.
+     * @param httpCode
+     * @param body
+     * @throws IOException 
+     */
+    public void sendResponse(int httpCode, ByteBuffer body) throws IOException;
+    
+    /**
+     * Send the http response code and the buffer block as the response
+     * body. The block is retained until written, the caller keeps its own
+     * reference.
+     * @param httpCode
+     * @param body
+     * @throws IOException 
+     */
+    public void sendResponse(int httpCode, IBufferBlock body) throws IOException;
+    
+    /**
+     * Send the http response code and a part of the buffer block as the
+     * response body. The block is retained until written, the caller keeps
+     * its own reference.
+     * @param httpCode
+     * @param body
+     * @param offset the first byte to send
+     * @param length number of bytes to send
+     * @throws IOException 
+     */
+    public void sendResponse(int httpCode, IBufferBlock body, int offset, int length) throws IOException;
+    
+    /**
+     * Send the file as the response body. The Content-Length, Content-Type
+     * and Last-Modified headers are set automatically.
+     * @param file the file to send
+     * @param contentType the content type, null to not set the header
+     * @throws IOException 
+     */
+    public void sendFile(Path file, String contentType) throws IOException;
+    
+    /**
+     * Send a byte range of the file as the response body. A partial range
+     * is send as 206 (Partial Content) with the Content-Range header set,
+     * the whole file is send as 200.
+     * @param file the file to send
+     * @param contentType the content type, null to not set the header
+     * @param offset the first byte to send
+     * @param length number of bytes to send, -1 to send the rest of the file
+     * @throws IOException 
+     */
+    public void sendFile(Path file, String contentType, long offset, long length) throws IOException;
 }
@@ -41,6 +41,10 @@
  */
 package org.primesoft.simplehttpserver.api;
 
+import java.nio.ByteBuffer;
+import java.util.Map;
+import org.primesoft.simplehttpserver.metrics.ServerMetrics;
+
 /**
  *
  * @author SBPrime
@@ -59,6 +63,14 @@ public interface IHttpServer {
      * @return 
      */
     boolean restart(int port);
+
+    /**
+     * Apply the reloaded configuration. The running server is reconfigured
+     * in place, the listening socket is only replaced if the port changed.
+     * @param port
+     * @return 
+     */
+    boolean reload(int port);
     
     /**
      * Stop the server
@@ -73,10 +85,136 @@ public interface IHttpServer {
      * @param context 
      */
     void registerService(String context, IService service);
+
+    /**
+     * Register a context service that runs on its own bulkhead
+     * @param context
+     * @param service
+     * @param policy the context execution policy (null to use the shared
+     * executor)
+     */
+    void registerService(String context, IService service, ExecutionPolicy policy);
+    
+    /**
+     * Register a context service for the host name (virtual host). The
+     * host services are matched before the services registered for all
+     * the hosts.
+     * @param host the host name (case insensitive, without the port)
+     * @param context
+     * @param service
+     */
+    void registerService(String host, String context, IService service);
+    
+    /**
+     * Register a context service for the host name that runs on its own
+     * bulkhead
+     * @param host the host name (case insensitive, without the port)
+     * @param context
+     * @param service
+     * @param policy the context execution policy (null to use the shared
+     * executor)
+     */
+    void registerService(String host, String context, IService service, ExecutionPolicy policy);
+
+    /**
+     * Register a context service with a response cache
+     * @param context
+     * @param service
+     * @param cache the context cache policy (null to disable caching)
+     */
+    void registerCachedService(String context, IService service, CachePolicy cache);
+    
+    /**
+     * Register a context service for the host name
+     * @param host the host name (case insensitive, without the port), null
+     * for all the hosts
+     * @param context
+     * @param service
+     * @param policy the context execution policy (null to use the shared
+     * executor)
+     * @param cache the context cache policy (null to disable caching)
+     */
+    void registerService(String host, String context, IService service,
+            ExecutionPolicy policy, CachePolicy cache);
+    
+    /**
+     * Register a constant 200 response for the GET and HEAD requests. The
+     * response is answered by the server without a service, the filters
+     * and the response cache are not used. Use unregisterService to
+     * remove it.
+     * @param context
+     * @param body the response body (copied)
+     * @param contentType the content type, null to not set the header
+     * @param headers additional response headers, may be null
+     */
+    void registerStatic(String context, byte[] body, String contentType, Map<String, String> headers);
+    
+    /**
+     * Register a constant 200 response for the GET and HEAD requests
+     * @param context
+     * @param body the response body (the remaining bytes are copied)
+     * @param contentType the content type, null to not set the header
+     * @param headers additional response headers, may be null
+     */
+    void registerStatic(String context, ByteBuffer body, String contentType, Map<String, String> headers);
     
     /**
      * Unregister a context service
      * @param context
      */
     void unregisterService(String context);
+    
+    /**
+     * Unregister a host context service
+     * @param host
+     * @param context
+     */
+    void unregisterService(String host, String context);
+    
+    /**
+     * Drop the cached responses of a context service
+     * @param host the host name, null for the service registered for all
+     * the hosts
+     * @param context
+     */
+    void invalidateCache(String host, String context);
+    
+    /**
+     * Add a filter for all the services
+     * @param filter
+     * @param order the filter order (lower runs first)
+     */
+    void addFilter(IFilter filter, int order);
+    
+    /**
+     * Add a filter for the services registered at the context for all the
+     * hosts
+     * @param context
+     * @param filter
+     * @param order the filter order (lower runs first)
+     */
+    void addFilter(String context, IFilter filter, int order);
+    
+    /**
+     * Add a filter for the services registered for the host
+     * @param host the host name, null for the services registered for all
+     * the hosts
+     * @param context the service context, null for all the services of the
+     * host
+     * @param filter
+     * @param order the filter order (lower runs first)
+     */
+    void addFilter(String host, String context, IFilter filter, int order);
+    
+    /**
+     * Remove the filter (global and context)
+     * @param filter
+     */
+    void removeFilter(IFilter filter);
+    
+    /**
+     * Get the request metrics of the registered contexts
+     * @return 
+     */
+    ServerMetrics getMetrics();
 }
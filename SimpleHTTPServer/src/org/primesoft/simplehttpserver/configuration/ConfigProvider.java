@@ -41,6 +41,12 @@
  */
 package org.primesoft.simplehttpserver.configuration;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import org.bukkit.configuration.Configuration;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.plugin.java.JavaPlugin;
@@ -59,6 +65,173 @@ public class ConfigProvider {
     private static String m_external = null;
     private static boolean m_registerDefault;
 
+    /**
+     * Number of worker threads kept alive
+     */
+    private static int m_workerCoreThreads = 2;
+
+    /**
+     * Maximum number of worker threads
+     */
+    private static int m_workerMaxThreads = 8;
+
+    /**
+     * Number of requests that can wait for a free worker
+     */
+    private static int m_workerQueueSize = 64;
+
+    /**
+     * Idle time (in seconds) after which extra workers are stopped
+     */
+    private static int m_workerKeepAlive = 60;
+
+    /**
+     * Run each request on its own virtual thread
+     */
+    private static boolean m_workerVirtual = false;
+
+    /**
+     * Maximum number of main thread tasks executed per tick
+     */
+    private static int m_mainThreadBatchSize = 50;
+
+    /**
+     * Time budget (in milliseconds) for the main thread tasks per tick
+     */
+    private static int m_mainThreadTickBudget = 5;
+
+    /**
+     * The HTTP engine (sun or nio)
+     */
+    private static String m_engine = "sun";
+
+    /**
+     * Number of NIO event loop threads
+     */
+    private static int m_nioEventLoops = 2;
+
+    /**
+     * Size of the pooled NIO buffers
+     */
+    private static int m_nioBufferSize = 16384;
+
+    /**
+     * Maximum number of pooled NIO buffers
+     */
+    private static int m_nioPoolSize = 256;
+
+    /**
+     * Maximum request body size accepted by the NIO engine
+     */
+    private static long m_nioMaxBodySize = 1048576;
+
+    /**
+     * Idle keep-alive connection timeout (in seconds)
+     */
+    private static int m_nioIdleTimeout = 30;
+
+    /**
+     * Is the resource pack hosting enabled
+     */
+    private static boolean m_resourcePacksEnabled = false;
+
+    /**
+     * The resource pack service context
+     */
+    private static String m_resourcePacksContext = "/packs/";
+
+    /**
+     * The resource packs directory
+     */
+    private static File m_resourcePacksDirectory;
+
+    /**
+     * Is the Prometheus metrics endpoint enabled
+     */
+    private static boolean m_prometheusEnabled = false;
+
+    /**
+     * The Prometheus metrics endpoint context
+     */
+    private static String m_prometheusContext = "/metrics";
+
+    /**
+     * The time the requests in progress have to finish when the server
+     * stops (in seconds)
+     */
+    private static int m_drainTimeout = 10;
+
+    /**
+     * Is the access log enabled
+     */
+    private static boolean m_accessLogEnabled = false;
+
+    /**
+     * The access log file
+     */
+    private static File m_accessLogFile;
+
+    /**
+     * The access log size after which the file is rolled
+     */
+    private static long m_accessLogMaxSize = 10 * 1024 * 1024;
+
+    /**
+     * The number of kept rolled access log files
+     */
+    private static int m_accessLogMaxFiles = 5;
+
+    /**
+     * The number of access log entries waiting for the writer
+     */
+    private static int m_accessLogBufferSize = 8192;
+
+    /**
+     * The default compressed content types
+     */
+    private static final List<String> s_defaultCompressionTypes = Collections.unmodifiableList(Arrays.asList(
+            "text/", "application/json", "application/javascript", "application/xml", "image/svg+xml"));
+
+    /**
+     * Is the response compression enabled
+     */
+    private static boolean m_compressionEnabled = true;
+
+    /**
+     * The compression level (1-9)
+     */
+    private static int m_compressionLevel = 6;
+
+    /**
+     * Minimum size of the compressed response (in bytes)
+     */
+    private static int m_compressionMinSize = 1024;
+
+    /**
+     * The compressed content type prefixes
+     */
+    private static List<String> m_compressionContentTypes = s_defaultCompressionTypes;
+
+    /**
+     * Maximum number of pooled deflaters (per encoding)
+     */
+    private static int m_compressionPoolSize = 16;
+
+    /**
+     * The response cache budget (in bytes)
+     */
+    private static long m_cacheMaxSize = 16 * 1024 * 1024;
+
+    /**
+     * Maximum size of a cached response body (in bytes)
+     */
+    private static int m_cacheMaxEntrySize = 1024 * 1024;
+
+    /**
+     * The off-heap store budget (in bytes)
+     */
+    private static long m_offHeapMaxSize = 64 * 1024 * 1024;
+
     /**
      * Load configuration
      *
@@ -81,10 +254,203 @@ public class ConfigProvider {
         m_port = mainSection.getInt("port", 8080);
         m_external = mainSection.getString("externalAddress", null);
         m_registerDefault = mainSection.getBoolean("registerDefault", true);
+        m_engine = mainSection.getString("engine", "sun");
+        m_drainTimeout = Math.max(0, mainSection.getInt("drainTimeout", 10));
+
+        parseWorkersSection(mainSection.getConfigurationSection("workers"));
+        parseMainThreadSection(mainSection.getConfigurationSection("mainThread"));
+        parseNioSection(mainSection.getConfigurationSection("nio"));
+        parseResourcePacksSection(plugin.getDataFolder(),
+                mainSection.getConfigurationSection("resourcePacks"));
+        parseCompressionSection(mainSection.getConfigurationSection("compression"));
+        parseCacheSection(mainSection.getConfigurationSection("cache"));
+        parsePrometheusSection(mainSection.getConfigurationSection("prometheus"));
+        parseAccessLogSection(plugin.getDataFolder(),
+                mainSection.getConfigurationSection("accessLog"));
+        m_offHeapMaxSize = Math.max(0, mainSection.getLong("offHeapSize", 64 * 1024 * 1024));
 
         return true;
     }
 
+    /**
+     * Parse the worker pool configuration
+     *
+     * @param workersSection
+     */
+    private static void parseWorkersSection(ConfigurationSection workersSection) {
+        if (workersSection == null) {
+            m_workerCoreThreads = 2;
+            m_workerMaxThreads = 8;
+            m_workerQueueSize = 64;
+            m_workerKeepAlive = 60;
+            m_workerVirtual = false;
+            return;
+        }
+
+        m_workerCoreThreads = Math.max(0, workersSection.getInt("coreThreads", 2));
+        m_workerMaxThreads = Math.max(Math.max(1, m_workerCoreThreads), workersSection.getInt("maxThreads", 8));
+        m_workerQueueSize = Math.max(0, workersSection.getInt("queueSize", 64));
+        m_workerKeepAlive = Math.max(0, workersSection.getInt("keepAlive", 60));
+        m_workerVirtual = "virtual".equalsIgnoreCase(workersSection.getString("mode", "pool"));
+    }
+
+    /**
+     * Parse the main thread bridge configuration
+     *
+     * @param mainThreadSection
+     */
+    private static void parseMainThreadSection(ConfigurationSection mainThreadSection) {
+        if (mainThreadSection == null) {
+            m_mainThreadBatchSize = 50;
+            m_mainThreadTickBudget = 5;
+            return;
+        }
+
+        m_mainThreadBatchSize = Math.max(1, mainThreadSection.getInt("batchSize", 50));
+        m_mainThreadTickBudget = Math.max(1, mainThreadSection.getInt("tickBudget", 5));
+    }
+
+    /**
+     * Parse the NIO engine configuration
+     *
+     * @param nioSection
+     */
+    private static void parseNioSection(ConfigurationSection nioSection) {
+        if (nioSection == null) {
+            m_nioEventLoops = 2;
+            m_nioBufferSize = 16384;
+            m_nioPoolSize = 256;
+            m_nioMaxBodySize = 1048576;
+            m_nioIdleTimeout = 30;
+            return;
+        }
+
+        m_nioEventLoops = Math.max(1, nioSection.getInt("eventLoops", 2));
+        m_nioBufferSize = Math.min(1 << 24, Math.max(4096, nioSection.getInt("bufferSize", 16384)));
+        m_nioPoolSize = Math.max(0, nioSection.getInt("poolSize", 256));
+        m_nioMaxBodySize = Math.min(Integer.MAX_VALUE, Math.max(0, nioSection.getLong("maxBodySize", 1048576)));
+        m_nioIdleTimeout = Math.max(1, nioSection.getInt("idleTimeout", 30));
+    }
+
+    /**
+     * Parse the resource pack hosting configuration
+     *
+     * @param dataFolder the plugin data folder
+     * @param packsSection
+     */
+    private static void parseResourcePacksSection(File dataFolder, ConfigurationSection packsSection) {
+        String directory = "packs";
+        if (packsSection == null) {
+            m_resourcePacksEnabled = false;
+            m_resourcePacksContext = "/packs/";
+        } else {
+            m_resourcePacksEnabled = packsSection.getBoolean("enabled", false);
+            m_resourcePacksContext = packsSection.getString("context", "/packs/");
+            directory = packsSection.getString("directory", directory);
+        }
+
+        if (!m_resourcePacksContext.startsWith("/")) {
+            m_resourcePacksContext = "/" + m_resourcePacksContext;
+        }
+        if (!m_resourcePacksContext.endsWith("/")) {
+            m_resourcePacksContext = m_resourcePacksContext + "/";
+        }
+
+        File file = new File(directory);
+        m_resourcePacksDirectory = file.isAbsolute() ? file : new File(dataFolder, directory);
+    }
+
+    /**
+     * Parse the response compression configuration
+     *
+     * @param compressionSection
+     */
+    private static void parseCompressionSection(ConfigurationSection compressionSection) {
+        if (compressionSection == null) {
+            m_compressionEnabled = true;
+            m_compressionLevel = 6;
+            m_compressionMinSize = 1024;
+            m_compressionContentTypes = s_defaultCompressionTypes;
+            m_compressionPoolSize = 16;
+            return;
+        }
+
+        m_compressionEnabled = compressionSection.getBoolean("enabled", true);
+        m_compressionLevel = Math.min(9, Math.max(1, compressionSection.getInt("level", 6)));
+        m_compressionMinSize = Math.max(0, compressionSection.getInt("minSize", 1024));
+        m_compressionPoolSize = Math.max(0, compressionSection.getInt("poolSize", 16));
+
+        if (!compressionSection.contains("contentTypes")) {
+            m_compressionContentTypes = s_defaultCompressionTypes;
+        } else {
+            List<String> types = new ArrayList<String>();
+            for (String type : compressionSection.getStringList("contentTypes")) {
+                types.add(type.trim().toLowerCase(Locale.ENGLISH));
+            }
+            m_compressionContentTypes = Collections.unmodifiableList(types);
+        }
+    }
+
+    /**
+     * Parse the response cache configuration
+     *
+     * @param cacheSection
+     */
+    private static void parseCacheSection(ConfigurationSection cacheSection) {
+        if (cacheSection == null) {
+            m_cacheMaxSize = 16 * 1024 * 1024;
+            m_cacheMaxEntrySize = 1024 * 1024;
+            return;
+        }
+
+        m_cacheMaxSize = Math.max(0, cacheSection.getLong("maxSize", 16 * 1024 * 1024));
+        m_cacheMaxEntrySize = Math.max(0, cacheSection.getInt("maxEntrySize", 1024 * 1024));
+    }
+
+    /**
+     * Parse the Prometheus metrics endpoint configuration
+     *
+     * @param prometheusSection
+     */
+    private static void parsePrometheusSection(ConfigurationSection prometheusSection) {
+        if (prometheusSection == null) {
+            m_prometheusEnabled = false;
+            m_prometheusContext = "/metrics";
+            return;
+        }
+
+        m_prometheusEnabled = prometheusSection.getBoolean("enabled", false);
+        m_prometheusContext = prometheusSection.getString("context", "/metrics");
+        if (!m_prometheusContext.startsWith("/")) {
+            m_prometheusContext = "/" + m_prometheusContext;
+        }
+    }
+
+    /**
+     * Parse the access log configuration
+     *
+     * @param dataFolder the plugin data folder
+     * @param accessLogSection
+     */
+    private static void parseAccessLogSection(File dataFolder, ConfigurationSection accessLogSection) {
+        String fileName = "access.log";
+        if (accessLogSection == null) {
+            m_accessLogEnabled = false;
+            m_accessLogMaxSize = 10 * 1024 * 1024;
+            m_accessLogMaxFiles = 5;
+            m_accessLogBufferSize = 8192;
+        } else {
+            m_accessLogEnabled = accessLogSection.getBoolean("enabled", false);
+            fileName = accessLogSection.getString("file", fileName);
+            m_accessLogMaxSize = Math.max(0, accessLogSection.getLong("maxSize", 10 * 1024 * 1024));
+            m_accessLogMaxFiles = Math.max(0, accessLogSection.getInt("maxFiles", 5));
+            m_accessLogBufferSize = Math.max(16, accessLogSection.getInt("bufferSize", 8192));
+        }
+
+        File file = new File(fileName);
+        m_accessLogFile = file.isAbsolute() ? file : new File(dataFolder, fileName);
+    }
+
     public static int getPort() {
         return m_port;
     }
@@ -96,4 +462,132 @@ public class ConfigProvider {
     public static boolean getRegisterDefault() {
         return m_registerDefault;
     }
+
+    public static int getWorkerCoreThreads() {
+        return m_workerCoreThreads;
+    }
+
+    public static int getWorkerMaxThreads() {
+        return m_workerMaxThreads;
+    }
+
+    public static int getWorkerQueueSize() {
+        return m_workerQueueSize;
+    }
+
+    public static int getWorkerKeepAlive() {
+        return m_workerKeepAlive;
+    }
+
+    public static boolean getWorkerVirtual() {
+        return m_workerVirtual;
+    }
+
+    public static int getMainThreadBatchSize() {
+        return m_mainThreadBatchSize;
+    }
+
+    public static int getMainThreadTickBudget() {
+        return m_mainThreadTickBudget;
+    }
+
+    public static int getDrainTimeout() {
+        return m_drainTimeout;
+    }
+
+    public static String getEngine() {
+        return m_engine;
+    }
+
+    public static int getNioEventLoops() {
+        return m_nioEventLoops;
+    }
+
+    public static int getNioBufferSize() {
+        return m_nioBufferSize;
+    }
+
+    public static int getNioPoolSize() {
+        return m_nioPoolSize;
+    }
+
+    public static long getNioMaxBodySize() {
+        return m_nioMaxBodySize;
+    }
+
+    public static int getNioIdleTimeout() {
+        return m_nioIdleTimeout;
+    }
+
+    public static boolean getResourcePacksEnabled() {
+        return m_resourcePacksEnabled;
+    }
+
+    public static String getResourcePacksContext() {
+        return m_resourcePacksContext;
+    }
+
+    public static File getResourcePacksDirectory() {
+        return m_resourcePacksDirectory;
+    }
+
+    public static boolean getCompressionEnabled() {
+        return m_compressionEnabled;
+    }
+
+    public static int getCompressionLevel() {
+        return m_compressionLevel;
+    }
+
+    public static int getCompressionMinSize() {
+        return m_compressionMinSize;
+    }
+
+    public static List<String> getCompressionContentTypes() {
+        return m_compressionContentTypes;
+    }
+
+    public static int getCompressionPoolSize() {
+        return m_compressionPoolSize;
+    }
+
+    public static long getOffHeapMaxSize() {
+        return m_offHeapMaxSize;
+    }
+
+    public static long getCacheMaxSize() {
+        return m_cacheMaxSize;
+    }
+
+    public static boolean getPrometheusEnabled() {
+        return m_prometheusEnabled;
+    }
+
+    public static String getPrometheusContext() {
+        return m_prometheusContext;
+    }
+
+    public static boolean getAccessLogEnabled() {
+        return m_accessLogEnabled;
+    }
+
+    public static File getAccessLogFile() {
+        return m_accessLogFile;
+    }
+
+    public static long getAccessLogMaxSize() {
+        return m_accessLogMaxSize;
+    }
+
+    public static int getAccessLogMaxFiles() {
+        return m_accessLogMaxFiles;
+    }
+
+    public static int getAccessLogBufferSize() {
+        return m_accessLogBufferSize;
+    }
+
+    public static int getCacheMaxEntrySize() {
+        return m_cacheMaxEntrySize;
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import org.primesoft.simplehttpserver.api.CachePolicy;
+import org.primesoft.simplehttpserver.api.ExecutionPolicy;
+import org.primesoft.simplehttpserver.api.IFilter;
+import org.primesoft.simplehttpserver.api.IHttpServer;
+import org.primesoft.simplehttpserver.api.IService;
+import org.primesoft.simplehttpserver.metrics.ServerMetrics;
+import org.primesoft.simplehttpserver.utils.OffHeapStore;
+
+/**
+ * The server engines base, the services and the filters are kept in the
+ * service registry so they survive the server restarts
+ *
+ * @author SBPrime
+ */
+abstract class AbstractHttpServer implements IHttpServer {
+
+    /**
+     * The registered services
+     */
+    protected final ServiceRegistry m_registry = new ServiceRegistry();
+
+    @Override
+    public void registerService(String context, IService service) {
+        m_registry.register(null, context, service, null, null);
+    }
+
+    @Override
+    public void registerService(String context, IService service, ExecutionPolicy policy) {
+        m_registry.register(null, context, service, policy, null);
+    }
+
+    @Override
+    public void registerService(String host, String context, IService service) {
+        m_registry.register(host, context, service, null, null);
+    }
+
+    @Override
+    public void registerService(String host, String context, IService service, ExecutionPolicy policy) {
+        m_registry.register(host, context, service, policy, null);
+    }
+
+    @Override
+    public void registerCachedService(String context, IService service, CachePolicy cache) {
+        m_registry.register(null, context, service, null, cache);
+    }
+
+    @Override
+    public void registerService(String host, String context, IService service,
+            ExecutionPolicy policy, CachePolicy cache) {
+        m_registry.register(host, context, service, policy, cache);
+    }
+
+    @Override
+    public void registerStatic(String context, byte[] body, String contentType, Map<String, String> headers) {
+        m_registry.registerStatic(null, context, new StaticResponse(
+                OffHeapStore.getDefault().copyOf(body), contentType, headers));
+    }
+
+    @Override
+    public void registerStatic(String context, ByteBuffer body, String contentType, Map<String, String> headers) {
+        ByteBuffer data = body.duplicate();
+        OffHeapStore.Block block = OffHeapStore.getDefault().allocate(data.remaining());
+        block.getBuffer().put(data);
+
+        m_registry.registerStatic(null, context, new StaticResponse(block, contentType, headers));
+    }
+
+    @Override
+    public void unregisterService(String context) {
+        m_registry.unregister(null, context);
+    }
+
+    @Override
+    public void unregisterService(String host, String context) {
+        m_registry.unregister(host, context);
+    }
+
+    @Override
+    public void invalidateCache(String host, String context) {
+        m_registry.invalidateCache(host, context);
+    }
+
+    @Override
+    public void addFilter(IFilter filter, int order) {
+        m_registry.addFilter(null, null, filter, order);
+    }
+
+    @Override
+    public void addFilter(String context, IFilter filter, int order) {
+        m_registry.addFilter(null, context, filter, order);
+    }
+
+    @Override
+    public void addFilter(String host, String context, IFilter filter, int order) {
+        m_registry.addFilter(host, context, filter, order);
+    }
+
+    @Override
+    public void removeFilter(IFilter filter) {
+        m_registry.removeFilter(filter);
+    }
+
+    @Override
+    public ServerMetrics getMetrics() {
+        return m_registry.getMetrics();
+    }
+}
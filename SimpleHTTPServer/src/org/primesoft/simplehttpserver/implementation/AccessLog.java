@@ -0,0 +1,609 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import org.primesoft.simplehttpserver.SimpleHTTPServerMain;
+import org.primesoft.simplehttpserver.utils.ExceptionHelper;
+
+/**
+ * The request access log. The completed requests are put to a lock free
+ * ring of preallocated entries, a single background thread formats them
+ * and writes them in batches to a size rolled file. When the ring is full
+ * the entries are dropped and counted.
+ *
+ * The line format: time (UTC), remote address, method, uri, status,
+ * response body bytes, latency (microseconds).
+ *
+ * @author SBPrime
+ */
+public final class AccessLog {
+
+    /**
+     * The time the writer sleeps when the ring is empty (milliseconds)
+     */
+    private static final long FLUSH_INTERVAL = 50;
+
+    /**
+     * The minimum time between the dropped entries reports (milliseconds)
+     */
+    private static final long DROP_REPORT_INTERVAL = 60000;
+
+    /**
+     * The write buffer size
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The longest logged uri, longer uris are truncated
+     */
+    private static final int MAX_URI = 2048;
+
+    /**
+     * The longest logged line (uri and the other fields)
+     */
+    private static final int MAX_LINE = MAX_URI + 256;
+
+    /**
+     * Log a message
+     *
+     * @param msg
+     */
+    private static void log(String msg) {
+        SimpleHTTPServerMain.log(msg);
+    }
+
+    /**
+     * The access log shared by the server
+     */
+    private static final AccessLog s_default = new AccessLog();
+
+    public static AccessLog getDefault() {
+        return s_default;
+    }
+
+    /**
+     * The number of dropped entries
+     */
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    /**
+     * The running writer (null if the log is disabled), a writer that failed
+     * to write the file stays set until the log is restarted
+     */
+    private volatile Writer m_writer;
+
+    /**
+     * Start writing the access log, the running log is stopped
+     *
+     * @param file the log file
+     * @param maxSize the file size after which the file is rolled
+     * @param maxFiles the number of kept rolled files
+     * @param capacity the number of entries that can wait for the writer
+     * @throws IOException
+     */
+    public synchronized void start(Path file, long maxSize, int maxFiles, int capacity) throws IOException {
+        Writer running = m_writer;
+        if (running != null && !running.m_failed && running.m_file.equals(file.toAbsolutePath())
+                && running.m_maxSize == maxSize && running.m_maxFiles == maxFiles
+                && running.m_capacity == capacity) {
+            return;
+        }
+        stop();
+
+        Writer writer = new Writer(file, maxSize, maxFiles, capacity);
+        Thread thread = new Thread(writer, "SimpleHTTP access log");
+        thread.setDaemon(true);
+        writer.m_thread = thread;
+        thread.start();
+
+        m_writer = writer;
+    }
+
+    /**
+     * Write the pending entries and stop the log
+     */
+    public synchronized void stop() {
+        Writer writer = m_writer;
+        if (writer == null) {
+            return;
+        }
+
+        m_writer = null;
+        writer.m_running = false;
+        LockSupport.unpark(writer.m_thread);
+        try {
+            writer.m_thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Is the log running
+     *
+     * @return
+     */
+    public boolean isEnabled() {
+        Writer writer = m_writer;
+        return writer != null && !writer.m_failed;
+    }
+
+    /**
+     * The number of entries dropped because the writer could not keep up
+     *
+     * @return
+     */
+    public long getDropped() {
+        return m_dropped.get();
+    }
+
+    /**
+     * Log the completed request
+     *
+     * @param exchange
+     * @param status the response code
+     * @param bytes the response body size
+     * @param started the request start time (System.nanoTime)
+     */
+    public void record(HttpExchange exchange, int status, long bytes, long started) {
+        Writer writer = m_writer;
+        if (writer == null || writer.m_failed) {
+            return;
+        }
+
+        if (!writer.offer(System.currentTimeMillis(), exchange.getRemoteAddress(),
+                exchange.getRequestMethod(), exchange.getRequestURI(), status, bytes,
+                (System.nanoTime() - started) / 1000)) {
+            m_dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * The preallocated log entry
+     */
+    private static final class Entry {
+
+        private long m_time;
+
+        private InetSocketAddress m_remote;
+
+        private String m_method;
+
+        private URI m_uri;
+
+        private int m_status;
+
+        private long m_bytes;
+
+        private long m_latency;
+    }
+
+    /**
+     * The ring consumer, formats and writes the entries
+     */
+    private final class Writer implements Runnable {
+
+        /**
+         * The ring entries
+         */
+        private final Entry[] m_entries;
+
+        /**
+         * The entry sequences, the entry is free for the producer when the
+         * sequence equals the position and filled when it is position + 1
+         */
+        private final AtomicLongArray m_sequences;
+
+        private final int m_mask;
+
+        /**
+         * The next producer position
+         */
+        private final AtomicLong m_tail = new AtomicLong();
+
+        /**
+         * The next consumer position (writer thread only)
+         */
+        private long m_head;
+
+        private final Path m_file;
+
+        private final long m_maxSize;
+
+        private final int m_maxFiles;
+
+        /**
+         * The requested queue capacity
+         */
+        private final int m_capacity;
+
+        /**
+         * The formatted lines
+         */
+        private final ByteBuffer m_buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        /**
+         * The UTC time format (writer thread only)
+         */
+        private final SimpleDateFormat m_format;
+
+        private final Date m_date = new Date();
+
+        /**
+         * The second of the formatted time prefix
+         */
+        private long m_second = -1;
+
+        /**
+         * The formatted time up to the seconds
+         */
+        private String m_secondText;
+
+        private FileChannel m_channel;
+
+        /**
+         * The current file size
+         */
+        private long m_size;
+
+        private Thread m_thread;
+
+        private volatile boolean m_running = true;
+
+        /**
+         * The writer stopped because of a file error, the new entries are
+         * not queued
+         */
+        private volatile boolean m_failed;
+
+        /**
+         * The number of dropped entries already reported
+         */
+        private long m_reportedDrops;
+
+        private long m_lastDropReport;
+
+        Writer(Path file, long maxSize, int maxFiles, int capacity) throws IOException {
+            int size = Integer.highestOneBit(Math.max(16, capacity));
+            if (size < capacity) {
+                size <<= 1;
+            }
+
+            m_entries = new Entry[size];
+            m_sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                m_entries[i] = new Entry();
+                m_sequences.set(i, i);
+            }
+            m_mask = size - 1;
+            m_reportedDrops = m_dropped.get();
+
+            m_file = file.toAbsolutePath();
+            m_maxSize = maxSize;
+            m_maxFiles = maxFiles;
+            m_capacity = capacity;
+
+            m_format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+            m_format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+            open();
+        }
+
+        /**
+         * Put the entry to the ring (any thread)
+         *
+         * @return false if the ring is full
+         */
+        boolean offer(long time, InetSocketAddress remote, String method, URI uri,
+                int status, long bytes, long latency) {
+            long position = m_tail.get();
+            while (true) {
+                int index = (int) position & m_mask;
+                long diff = m_sequences.get(index) - position;
+                if (diff == 0) {
+                    if (m_tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                    position = m_tail.get();
+                } else if (diff < 0) {
+                    return false;
+                } else {
+                    position = m_tail.get();
+                }
+            }
+
+            int index = (int) position & m_mask;
+            Entry entry = m_entries[index];
+            entry.m_time = time;
+            entry.m_remote = remote;
+            entry.m_method = method;
+            entry.m_uri = uri;
+            entry.m_status = status;
+            entry.m_bytes = bytes;
+            entry.m_latency = latency;
+            m_sequences.lazySet(index, position + 1);
+
+            return true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean running = true;
+                while (running) {
+                    running = m_running;
+                    int count = drain();
+                    flush();
+                    reportDrops();
+
+                    if (count == 0 && running) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL));
+                    }
+                }
+            } catch (IOException ex) {
+                fail(ex);
+            } catch (RuntimeException ex) {
+                fail(ex);
+            } finally {
+                try {
+                    m_channel.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+
+        /**
+         * Stop accepting the entries, the writer is no longer running
+         *
+         * @param ex
+         */
+        private void fail(Exception ex) {
+            m_failed = true;
+            ExceptionHelper.printException(ex, "Unable to write the access log " + m_file);
+            log("Access log disabled, reload the server to resume logging.");
+        }
+
+        /**
+         * Format all the filled entries
+         *
+         * @return the number of formatted entries
+         * @throws IOException
+         */
+        private int drain() throws IOException {
+            int count = 0;
+            while (true) {
+                int index = (int) m_head & m_mask;
+                if (m_sequences.get(index) != m_head + 1) {
+                    return count;
+                }
+
+                Entry entry = m_entries[index];
+                if (m_buffer.remaining() < MAX_LINE) {
+                    flush();
+                }
+                format(entry);
+
+                entry.m_remote = null;
+                entry.m_method = null;
+                entry.m_uri = null;
+                m_sequences.lazySet(index, m_head + m_entries.length);
+                m_head++;
+                count++;
+            }
+        }
+
+        /**
+         * Format the entry to the buffer
+         *
+         * @param entry
+         */
+        private void format(Entry entry) {
+            long time = entry.m_time;
+            long second = time / 1000;
+            if (second != m_second) {
+                m_date.setTime(second * 1000);
+                m_secondText = m_format.format(m_date);
+                m_second = second;
+            }
+
+            put(m_secondText, Integer.MAX_VALUE);
+            put('.');
+            long millis = time % 1000;
+            put((char) ('0' + millis / 100));
+            put((char) ('0' + millis / 10 % 10));
+            put((char) ('0' + millis % 10));
+            put('Z');
+            put(' ');
+
+            InetSocketAddress remote = entry.m_remote;
+            InetAddress address = remote != null ? remote.getAddress() : null;
+            put(address != null ? address.getHostAddress() : "-", 64);
+            put(' ');
+            put(entry.m_method, 32);
+            put(' ');
+            put(entry.m_uri != null ? entry.m_uri.toString() : "-", MAX_URI);
+            put(' ');
+            put(entry.m_status);
+            put(' ');
+            put(entry.m_bytes);
+            put(' ');
+            put(entry.m_latency);
+            m_buffer.put((byte) '\n');
+        }
+
+        private void put(String text, int maxLength) {
+            int length = Math.min(text.length(), maxLength);
+            for (int i = 0; i < length; i++) {
+                put(text.charAt(i));
+            }
+        }
+
+        private void put(long value) {
+            if (value < 0) {
+                put('-');
+                value = -value;
+            }
+
+            long digit = 1;
+            while (digit <= value / 10) {
+                digit *= 10;
+            }
+            for (; digit > 0; digit /= 10) {
+                put((char) ('0' + value / digit % 10));
+            }
+        }
+
+        /**
+         * Put the character, the control and non ASCII characters are
+         * replaced so a request can not forge log lines
+         *
+         * @param c
+         */
+        private void put(char c) {
+            m_buffer.put(c >= ' ' && c < 0x7f ? (byte) c : (byte) '?');
+        }
+
+        /**
+         * Write the buffered lines and roll the file when it is too large
+         *
+         * @throws IOException
+         */
+        private void flush() throws IOException {
+            if (m_buffer.position() == 0) {
+                return;
+            }
+
+            m_buffer.flip();
+            while (m_buffer.hasRemaining()) {
+                m_size += m_channel.write(m_buffer);
+            }
+            m_buffer.clear();
+
+            if (m_maxSize > 0 && m_size >= m_maxSize) {
+                roll();
+            }
+        }
+
+        /**
+         * Open the log file for appending
+         *
+         * @throws IOException
+         */
+        private void open() throws IOException {
+            Path parent = m_file.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+
+            m_channel = FileChannel.open(m_file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            m_size = m_channel.size();
+        }
+
+        /**
+         * Rename the log file to file.1 (shifting the older files) and start
+         * a new file
+         *
+         * @throws IOException
+         */
+        private void roll() throws IOException {
+            m_channel.close();
+
+            if (m_maxFiles <= 0) {
+                Files.deleteIfExists(m_file);
+            } else {
+                Files.deleteIfExists(rolled(m_maxFiles));
+                for (int i = m_maxFiles - 1; i >= 1; i--) {
+                    Path source = rolled(i);
+                    if (Files.exists(source)) {
+                        Files.move(source, rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                Files.move(m_file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            open();
+        }
+
+        private Path rolled(int index) {
+            return m_file.resolveSibling(m_file.getFileName() + "." + index);
+        }
+
+        /**
+         * Report the dropped entries (at most once per minute)
+         */
+        private void reportDrops() {
+            long dropped = m_dropped.get();
+            if (dropped == m_reportedDrops) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - m_lastDropReport < DROP_REPORT_INTERVAL && m_running) {
+                return;
+            }
+
+            log("Access log: " + (dropped - m_reportedDrops) + " entries dropped, the writer can not keep up.");
+            m_reportedDrops = dropped;
+            m_lastDropReport = now;
+        }
+    }
+}
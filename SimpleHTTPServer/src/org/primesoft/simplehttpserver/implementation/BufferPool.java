@@ -0,0 +1,132 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of the byte buffers used by the engines
+ *
+ * @author SBPrime
+ */
+class BufferPool {
+
+    /**
+     * The pooled buffers
+     */
+    private final ConcurrentLinkedQueue<ByteBuffer> m_buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * Number of pooled buffers
+     */
+    private final AtomicInteger m_count = new AtomicInteger();
+
+    /**
+     * The buffer size
+     */
+    private final int m_bufferSize;
+
+    /**
+     * Maximum number of pooled buffers
+     */
+    private final int m_maxPooled;
+
+    /**
+     * Allocate direct buffers
+     */
+    private final boolean m_direct;
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this(bufferSize, maxPooled, true);
+    }
+
+    BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        m_bufferSize = bufferSize;
+        m_maxPooled = maxPooled;
+        m_direct = direct;
+    }
+
+    int getBufferSize() {
+        return m_bufferSize;
+    }
+
+    int getMaxPooled() {
+        return m_maxPooled;
+    }
+
+    /**
+     * Get a cleared buffer from the pool
+     *
+     * @return
+     */
+    ByteBuffer acquire() {
+        ByteBuffer result = m_buffers.poll();
+        if (result == null) {
+            return m_direct ? ByteBuffer.allocateDirect(m_bufferSize)
+                    : ByteBuffer.allocate(m_bufferSize);
+        }
+
+        m_count.decrementAndGet();
+        result.clear();
+        return result;
+    }
+
+    /**
+     * Return the buffer to the pool
+     *
+     * @param buffer
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != m_bufferSize) {
+            return;
+        }
+
+        if (m_count.incrementAndGet() > m_maxPooled) {
+            m_count.decrementAndGet();
+            return;
+        }
+
+        m_buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The context executor. Runs the requests either on a dedicated pool or on
+ * the shared executor. On the shared executor at most maxConcurrency
+ * requests run at the same time, the waiting requests are kept in the
+ * bulkhead queue so they do not take the shared workers.
+ *
+ * @author SBPrime
+ */
+class Bulkhead implements Executor {
+
+    /**
+     * The target executor
+     */
+    private final Executor m_executor;
+
+    /**
+     * The dedicated pool (null when using the shared executor)
+     */
+    private final ExecutorService m_pool;
+
+    /**
+     * Number of requests that can run on the shared executor (null when
+     * using the dedicated pool)
+     */
+    private final Semaphore m_permits;
+
+    /**
+     * The requests waiting for a permit (null when using the dedicated pool)
+     */
+    private final ConcurrentLinkedQueue<Runnable> m_queue;
+
+    /**
+     * Number of the waiting requests
+     */
+    private final AtomicInteger m_queued;
+
+    /**
+     * Maximum number of the waiting requests
+     */
+    private final int m_queueDepth;
+
+    /**
+     * Create a bulkhead that uses a dedicated pool
+     *
+     * @param pool
+     */
+    Bulkhead(ExecutorService pool) {
+        m_executor = pool;
+        m_pool = pool;
+        m_permits = null;
+        m_queue = null;
+        m_queued = null;
+        m_queueDepth = 0;
+    }
+
+    /**
+     * Create a bulkhead that limits the number of requests on the shared
+     * executor
+     *
+     * @param executor
+     * @param maxConcurrency maximum number of requests executed at the same
+     * time
+     * @param queueDepth maximum number of requests waiting for execution
+     */
+    Bulkhead(Executor executor, int maxConcurrency, int queueDepth) {
+        this(executor, new Semaphore(maxConcurrency), new ConcurrentLinkedQueue<Runnable>(),
+                new AtomicInteger(), queueDepth);
+    }
+
+    private Bulkhead(Executor executor, Semaphore permits, ConcurrentLinkedQueue<Runnable> queue,
+            AtomicInteger queued, int queueDepth) {
+        m_executor = executor;
+        m_pool = null;
+        m_permits = permits;
+        m_queue = queue;
+        m_queued = queued;
+        m_queueDepth = queueDepth;
+    }
+
+    /**
+     * Move the bulkhead to the new shared executor, the requests in progress
+     * keep their permits and the waiting requests stay queued
+     *
+     * @param executor
+     * @return the bulkhead that uses the executor (this if the bulkhead uses
+     * a dedicated pool)
+     */
+    Bulkhead withExecutor(Executor executor) {
+        if (m_pool != null || executor == m_executor) {
+            return this;
+        }
+
+        return new Bulkhead(executor, m_permits, m_queue, m_queued, m_queueDepth);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (m_permits == null) {
+            m_executor.execute(command);
+            return;
+        }
+
+        if (m_permits.tryAcquire()) {
+            try {
+                m_executor.execute(new Runner(command));
+            } catch (RejectedExecutionException ex) {
+                m_permits.release();
+                throw ex;
+            }
+            return;
+        }
+
+        if (m_queued.incrementAndGet() > m_queueDepth) {
+            m_queued.decrementAndGet();
+            throw new RejectedExecutionException("Bulkhead full");
+        }
+        m_queue.add(command);
+
+        //The running requests may have finished before the command was queued
+        if (!m_permits.tryAcquire()) {
+            return;
+        }
+
+        try {
+            m_executor.execute(new Runner(null));
+        } catch (RejectedExecutionException ex) {
+            m_permits.release();
+            if (m_queue.remove(command)) {
+                m_queued.decrementAndGet();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Take the next waiting request or release the permit
+     *
+     * @return null if no request is waiting (the permit is released)
+     */
+    private Runnable next() {
+        while (true) {
+            Runnable command = m_queue.poll();
+            if (command != null) {
+                m_queued.decrementAndGet();
+                return command;
+            }
+
+            m_permits.release();
+            if (m_queue.isEmpty() || !m_permits.tryAcquire()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Stop the dedicated pool
+     */
+    void shutdown() {
+        if (m_pool != null) {
+            m_pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs the request and the waiting requests while holding a permit. When
+     * a request throws the waiting requests are passed to a new runner.
+     */
+    private class Runner implements Runnable {
+
+        private final Runnable m_first;
+
+        Runner(Runnable first) {
+            m_first = first;
+        }
+
+        @Override
+        public void run() {
+            Runnable command = m_first != null ? m_first : next();
+            boolean finished = false;
+            try {
+                while (command != null) {
+                    command.run();
+                    command = next();
+                }
+                finished = true;
+            } finally {
+                if (!finished) {
+                    resume();
+                }
+            }
+        }
+    }
+
+    /**
+     * Continue with the waiting requests on a new worker after a request
+     * failed, the permit is kept
+     */
+    private void resume() {
+        try {
+            m_executor.execute(new Runner(null));
+        } catch (RejectedExecutionException ex) {
+            m_permits.release();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes a chunked request body as the data arrives (event loop). The
+ * chunk extensions and the trailer fields are ignored.
+ *
+ * @author SBPrime
+ */
+class ChunkedDecoder {
+
+    /**
+     * More data is needed
+     */
+    static final int MORE = 0;
+
+    /**
+     * The body is complete
+     */
+    static final int DONE = 1;
+
+    /**
+     * The chunked encoding is invalid
+     */
+    static final int MALFORMED = 2;
+
+    /**
+     * The body is larger than the maximum size
+     */
+    static final int TOO_LARGE = 3;
+
+    /**
+     * Maximum length of the chunk size and the trailer lines
+     */
+    private static final int MAX_LINE = 1024;
+
+    private static final int STATE_SIZE = 0;
+
+    private static final int STATE_DATA = 1;
+
+    private static final int STATE_DATA_END = 2;
+
+    private static final int STATE_TRAILER = 3;
+
+    /**
+     * Maximum body size
+     */
+    private final long m_maxSize;
+
+    /**
+     * The decoded body
+     */
+    private byte[] m_body = new byte[0];
+
+    /**
+     * Number of decoded body bytes
+     */
+    private int m_size;
+
+    /**
+     * The current state
+     */
+    private int m_state = STATE_SIZE;
+
+    /**
+     * Bytes left in the current chunk
+     */
+    private int m_chunkLeft;
+
+    /**
+     * The line being read
+     */
+    private final StringBuilder m_line = new StringBuilder();
+
+    ChunkedDecoder(long maxSize) {
+        m_maxSize = maxSize;
+    }
+
+    /**
+     * Decode the received data
+     *
+     * @param data the received data (read mode), the decoded bytes are
+     * consumed
+     * @return MORE, DONE, MALFORMED or TOO_LARGE
+     */
+    int decode(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            if (m_state == STATE_DATA) {
+                int count = Math.min(m_chunkLeft, data.remaining());
+                data.get(m_body, m_size, count);
+                m_size += count;
+                m_chunkLeft -= count;
+                if (m_chunkLeft == 0) {
+                    m_state = STATE_DATA_END;
+                }
+                continue;
+            }
+
+            String line = readLine(data);
+            if (line == null) {
+                return m_line.length() > MAX_LINE ? MALFORMED : MORE;
+            }
+
+            switch (m_state) {
+                case STATE_SIZE: {
+                    int result = startChunk(line);
+                    if (result != MORE) {
+                        return result;
+                    }
+                    break;
+                }
+                case STATE_DATA_END:
+                    if (!line.isEmpty()) {
+                        return MALFORMED;
+                    }
+                    m_state = STATE_SIZE;
+                    break;
+                default:
+                    if (line.isEmpty()) {
+                        return DONE;
+                    }
+                    break;
+            }
+        }
+
+        return MORE;
+    }
+
+    /**
+     * Get the decoded body
+     *
+     * @return
+     */
+    byte[] getBody() {
+        return m_size == m_body.length ? m_body : Arrays.copyOf(m_body, m_size);
+    }
+
+    /**
+     * Parse the chunk size line
+     *
+     * @param line
+     * @return MORE, MALFORMED or TOO_LARGE
+     */
+    private int startChunk(String line) {
+        int end = line.indexOf(';');
+        String hex = (end < 0 ? line : line.substring(0, end)).trim();
+        if (hex.isEmpty() || hex.length() > 8 || hex.charAt(0) == '+' || hex.charAt(0) == '-') {
+            return MALFORMED;
+        }
+
+        long chunkSize;
+        try {
+            chunkSize = Long.parseLong(hex, 16);
+        } catch (NumberFormatException ex) {
+            return MALFORMED;
+        }
+
+        if (chunkSize == 0) {
+            m_state = STATE_TRAILER;
+            return MORE;
+        }
+
+        long size = m_size + chunkSize;
+        if (size > m_maxSize || size > Integer.MAX_VALUE - 8) {
+            return TOO_LARGE;
+        }
+
+        if (size > m_body.length) {
+            m_body = Arrays.copyOf(m_body, (int) Math.min(m_maxSize,
+                    Math.max(size, Math.min(2L * m_body.length, Integer.MAX_VALUE - 8))));
+        }
+
+        m_chunkLeft = (int) chunkSize;
+        m_state = STATE_DATA;
+        return MORE;
+    }
+
+    /**
+     * Read a CRLF (or LF) terminated line
+     *
+     * @param data
+     * @return null if the line is not complete
+     */
+    private String readLine(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            char c = (char) (data.get() & 0xff);
+            if (c == '\n') {
+                int length = m_line.length();
+                if (length > 0 && m_line.charAt(length - 1) == '\r') {
+                    length--;
+                }
+
+                String result = m_line.substring(0, length);
+                m_line.setLength(0);
+                return result;
+            }
+
+            if (m_line.length() > MAX_LINE) {
+                return null;
+            }
+            m_line.append(c);
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the response body (gzip or deflate) using a pooled deflater
+ *
+ * @author SBPrime
+ */
+class CompressionOutputStream extends OutputStream {
+
+    private static final byte[] s_gzipHeader = new byte[]{
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    /**
+     * The compressed output buffer size
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream m_output;
+
+    private final DeflaterPool m_pool;
+
+    private final Deflater m_deflater;
+
+    /**
+     * The gzip checksum (null for deflate)
+     */
+    private final CRC32 m_crc;
+
+    private final byte[] m_buffer = new byte[BUFFER_SIZE];
+
+    private boolean m_headerSend;
+
+    private boolean m_closed;
+
+    /**
+     * @param output the response stream
+     * @param pool the pool the deflater is returned to
+     * @param deflater raw deflater for gzip, zlib deflater for deflate
+     * @param gzip use the gzip format
+     */
+    CompressionOutputStream(OutputStream output, DeflaterPool pool, Deflater deflater, boolean gzip) {
+        m_output = output;
+        m_pool = pool;
+        m_deflater = deflater;
+        m_crc = gzip ? new CRC32() : null;
+        m_headerSend = !gzip;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (m_closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return;
+        }
+
+        writeHeader();
+        if (m_crc != null) {
+            m_crc.update(b, off, len);
+        }
+
+        m_deflater.setInput(b, off, len);
+        while (!m_deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (m_closed) {
+            return;
+        }
+
+        writeHeader();
+        while (deflate(Deflater.SYNC_FLUSH) == BUFFER_SIZE) {
+        }
+        m_output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+
+        try {
+            writeHeader();
+            m_deflater.finish();
+            while (!m_deflater.finished()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+
+            if (m_crc != null) {
+                writeInt((int) m_crc.getValue());
+                writeInt((int) m_deflater.getBytesRead());
+            }
+        } finally {
+            m_pool.release(m_deflater);
+            m_output.close();
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        if (!m_headerSend) {
+            m_headerSend = true;
+            m_output.write(s_gzipHeader);
+        }
+    }
+
+    private int deflate(int flush) throws IOException {
+        int count = m_deflater.deflate(m_buffer, 0, BUFFER_SIZE, flush);
+        if (count > 0) {
+            m_output.write(m_buffer, 0, count);
+        }
+
+        return count;
+    }
+
+    /**
+     * Write the gzip trailer value (little endian)
+     *
+     * @param value
+     * @throws IOException
+     */
+    private void writeInt(int value) throws IOException {
+        m_buffer[0] = (byte) value;
+        m_buffer[1] = (byte) (value >> 8);
+        m_buffer[2] = (byte) (value >> 16);
+        m_buffer[3] = (byte) (value >> 24);
+        m_output.write(m_buffer, 0, 4);
+    }
+}
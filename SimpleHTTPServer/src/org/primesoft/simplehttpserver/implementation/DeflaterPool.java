@@ -0,0 +1,132 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of deflaters, reuses the native zlib state between the responses
+ *
+ * @author SBPrime
+ */
+class DeflaterPool {
+
+    /**
+     * The pooled deflaters
+     */
+    private final ConcurrentLinkedQueue<Deflater> m_deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+    /**
+     * Number of pooled deflaters
+     */
+    private final AtomicInteger m_count = new AtomicInteger();
+
+    /**
+     * Create raw deflate (no zlib wrapper) deflaters
+     */
+    private final boolean m_nowrap;
+
+    /**
+     * Maximum number of pooled deflaters
+     */
+    private volatile int m_maxPooled;
+
+    DeflaterPool(boolean nowrap, int maxPooled) {
+        m_nowrap = nowrap;
+        m_maxPooled = maxPooled;
+    }
+
+    /**
+     * Change the maximum number of pooled deflaters, the deflaters above the
+     * new limit are released
+     *
+     * @param maxPooled
+     */
+    void setMaxPooled(int maxPooled) {
+        m_maxPooled = maxPooled;
+        while (m_count.get() > maxPooled) {
+            Deflater deflater = m_deflaters.poll();
+            if (deflater == null) {
+                return;
+            }
+
+            m_count.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    /**
+     * Get a deflater from the pool
+     *
+     * @param level the compression level
+     * @return
+     */
+    Deflater acquire(int level) {
+        Deflater result = m_deflaters.poll();
+        if (result == null) {
+            return new Deflater(level, m_nowrap);
+        }
+
+        m_count.decrementAndGet();
+        result.setLevel(level);
+        return result;
+    }
+
+    /**
+     * Return the deflater to the pool, the deflater is released if the pool
+     * is full
+     *
+     * @param deflater
+     */
+    void release(Deflater deflater) {
+        if (m_count.incrementAndGet() > m_maxPooled) {
+            m_count.decrementAndGet();
+            deflater.end();
+            return;
+        }
+
+        deflater.reset();
+        m_deflaters.offer(deflater);
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.primesoft.simplehttpserver.SimpleHTTPServerMain;
+import org.primesoft.simplehttpserver.api.ExecutionPolicy;
+import org.primesoft.simplehttpserver.configuration.ConfigProvider;
+import org.primesoft.simplehttpserver.utils.ExceptionHelper;
+
+/**
+ * Creates the executors used to run the services
+ *
+ * @author SBPrime
+ */
+public final class ExecutorFactory {
+
+    /**
+     * Log a message
+     *
+     * @param msg
+     */
+    private static void log(String msg) {
+        SimpleHTTPServerMain.log(msg);
+    }
+
+    private ExecutorFactory() {
+    }
+
+    /**
+     * Create the services executor using the configured mode
+     *
+     * @return
+     */
+    public static ExecutorService createExecutor() {
+        if (ConfigProvider.getWorkerVirtual()) {
+            ExecutorService result = createVirtualExecutor();
+            if (result != null) {
+                log("Using virtual threads");
+                return result;
+            }
+
+            log("Virtual threads not available, using the worker pool");
+        }
+
+        return createWorkerPool();
+    }
+
+    /**
+     * Apply the reloaded configuration to the services executor. The worker
+     * pool is resized in place, a new executor is only created when the
+     * mode or the queue size changes.
+     *
+     * @param executor the current executor
+     * @return the executor to use (the current executor if reconfigured)
+     */
+    public static ExecutorService reconfigure(ExecutorService executor) {
+        boolean isPool = executor instanceof ThreadPoolExecutor;
+        if (ConfigProvider.getWorkerVirtual()) {
+            if (!isPool) {
+                return executor;
+            }
+
+            ExecutorService result = createVirtualExecutor();
+            if (result != null) {
+                log("Using virtual threads");
+                return result;
+            }
+        } else if (!isPool) {
+            return createWorkerPool();
+        }
+
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        BlockingQueue<Runnable> queue = pool.getQueue();
+        int queueSize = queue instanceof SynchronousQueue ? 0 : queue.size() + queue.remainingCapacity();
+        if (queueSize != ConfigProvider.getWorkerQueueSize()) {
+            return createWorkerPool();
+        }
+
+        int coreThreads = ConfigProvider.getWorkerCoreThreads();
+        int maxThreads = ConfigProvider.getWorkerMaxThreads();
+        if (maxThreads >= pool.getCorePoolSize()) {
+            pool.setMaximumPoolSize(maxThreads);
+            pool.setCorePoolSize(coreThreads);
+        } else {
+            pool.setCorePoolSize(coreThreads);
+            pool.setMaximumPoolSize(maxThreads);
+        }
+        pool.setKeepAliveTime(ConfigProvider.getWorkerKeepAlive(), TimeUnit.SECONDS);
+
+        return executor;
+    }
+
+    /**
+     * Create a virtual thread per task executor. The executor is created
+     * using reflection so the plugin still runs on the older runtimes.
+     *
+     * @return null if virtual threads are not supported
+     */
+    public static ExecutorService createVirtualExecutor() {
+        Method factory;
+        try {
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException ex) {
+            return null;
+        } catch (SecurityException ex) {
+            return null;
+        }
+
+        try {
+            return (ExecutorService) factory.invoke(null);
+        } catch (InvocationTargetException ex) {
+            //Preview feature not enabled (Java 19 and 20)
+            return null;
+        } catch (IllegalAccessException ex) {
+            ExceptionHelper.printException(ex, "Unable to create the virtual thread executor");
+            return null;
+        } catch (ClassCastException ex) {
+            ExceptionHelper.printException(ex, "Unable to create the virtual thread executor");
+            return null;
+        }
+    }
+
+    /**
+     * Create the worker pool using the current configuration. The pool starts
+     * new threads up to the maximum before it queues the requests. The pool
+     * uses the abort policy, a rejected request is answered with 503 by the
+     * service wrapper.
+     *
+     * @return
+     */
+    public static ExecutorService createWorkerPool() {
+        int queueSize = ConfigProvider.getWorkerQueueSize();
+        NamedThreadFactory threadFactory = new NamedThreadFactory("SimpleHTTP worker");
+        ThreadPoolExecutor result;
+        if (queueSize > 0) {
+            result = new WorkerPool(
+                    ConfigProvider.getWorkerCoreThreads(),
+                    ConfigProvider.getWorkerMaxThreads(),
+                    ConfigProvider.getWorkerKeepAlive(), queueSize, threadFactory);
+        } else {
+            result = new ThreadPoolExecutor(
+                    ConfigProvider.getWorkerCoreThreads(),
+                    ConfigProvider.getWorkerMaxThreads(),
+                    ConfigProvider.getWorkerKeepAlive(), TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), threadFactory,
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+
+        return result;
+    }
+
+    /**
+     * Create the context bulkhead
+     *
+     * @param context the context name (used for the thread names)
+     * @param policy the context execution policy
+     * @param shared the shared services executor
+     * @return
+     */
+    static Bulkhead createBulkhead(String context, ExecutionPolicy policy, Executor shared) {
+        int maxConcurrency = policy.getMaxConcurrency();
+        int queueDepth = policy.getQueueDepth();
+
+        if (!policy.isDedicated() || ConfigProvider.getWorkerVirtual()) {
+            return new Bulkhead(shared, maxConcurrency, queueDepth);
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                maxConcurrency, maxConcurrency,
+                ConfigProvider.getWorkerKeepAlive(), TimeUnit.SECONDS,
+                createQueue(queueDepth),
+                new NamedThreadFactory("SimpleHTTP " + context + " worker"),
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(ConfigProvider.getWorkerKeepAlive() > 0);
+
+        return new Bulkhead(pool);
+    }
+
+    /**
+     * Create the pool queue
+     *
+     * @param size
+     * @return
+     */
+    private static BlockingQueue<Runnable> createQueue(int size) {
+        if (size > 0) {
+            return new ArrayBlockingQueue<Runnable>(size);
+        }
+
+        return new SynchronousQueue<Runnable>();
+    }
+
+    /**
+     * Thread factory that creates named daemon threads
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final String m_prefix;
+
+        private final AtomicInteger m_counter = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            m_prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread result = new Thread(r, m_prefix + " #" + m_counter.incrementAndGet());
+            result.setDaemon(true);
+
+            return result;
+        }
+    }
+}
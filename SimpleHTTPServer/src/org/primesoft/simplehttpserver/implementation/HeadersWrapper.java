@@ -67,6 +67,11 @@ public class HeadersWrapper implements IHeaders {
         return m_headers.get(headerName);
     }
 
+    @Override
+    public String getFirst(String headerName) {
+        return m_headers.getFirst(headerName);
+    }
+
     @Override
     public void remove(String headerName) {
         m_headers.remove(headerName);
@@ -0,0 +1,269 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.Arrays;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+
+/**
+ * Immutable host name to route table snapshot. The routes registered without
+ * a host name are used for all hosts.
+ *
+ * @author SBPrime
+ */
+final class HostTable {
+
+    /**
+     * The table without any routes
+     */
+    static final HostTable EMPTY = new HostTable(RouteTable.EMPTY, new String[0], new RouteTable[0]);
+
+    /**
+     * The routes for all the hosts
+     */
+    private final RouteTable m_default;
+
+    /**
+     * The host names (lower case)
+     */
+    private final String[] m_hosts;
+
+    /**
+     * The host route tables
+     */
+    private final RouteTable[] m_tables;
+
+    /**
+     * The host lookup slots (open addressing)
+     */
+    private final String[] m_slotHosts;
+
+    /**
+     * The route tables in the lookup slots
+     */
+    private final RouteTable[] m_slotTables;
+
+    private HostTable(RouteTable defaultRoutes, String[] hosts, RouteTable[] tables) {
+        m_default = defaultRoutes;
+        m_hosts = hosts;
+        m_tables = tables;
+
+        int size = 2;
+        while (size < hosts.length * 2) {
+            size <<= 1;
+        }
+
+        m_slotHosts = new String[size];
+        m_slotTables = new RouteTable[size];
+        for (int i = 0; i < hosts.length; i++) {
+            int slot = hash(hosts[i], 0, hosts[i].length()) & (size - 1);
+            while (m_slotHosts[slot] != null) {
+                slot = (slot + 1) & (size - 1);
+            }
+
+            m_slotHosts[slot] = hosts[i];
+            m_slotTables[slot] = tables[i];
+        }
+    }
+
+    /**
+     * Get the routes registered for the host
+     *
+     * @param host the lower case host name, null for all the hosts
+     * @return
+     */
+    RouteTable get(String host) {
+        if (host == null) {
+            return m_default;
+        }
+
+        for (int i = 0; i < m_hosts.length; i++) {
+            if (m_hosts[i].equals(host)) {
+                return m_tables[i];
+            }
+        }
+
+        return RouteTable.EMPTY;
+    }
+
+    /**
+     * Create a table with the host routes replaced
+     *
+     * @param host the lower case host name, null for all the hosts
+     * @param routes
+     * @return
+     */
+    HostTable with(String host, RouteTable routes) {
+        if (host == null) {
+            return new HostTable(routes, m_hosts, m_tables);
+        }
+
+        int count = m_hosts.length;
+        for (int i = 0; i < count; i++) {
+            if (!m_hosts[i].equals(host)) {
+                continue;
+            }
+
+            String[] hosts;
+            RouteTable[] tables;
+            if (routes.isEmpty()) {
+                hosts = Arrays.copyOf(m_hosts, count - 1);
+                tables = Arrays.copyOf(m_tables, count - 1);
+                System.arraycopy(m_hosts, i + 1, hosts, i, count - i - 1);
+                System.arraycopy(m_tables, i + 1, tables, i, count - i - 1);
+            } else {
+                hosts = m_hosts;
+                tables = m_tables.clone();
+                tables[i] = routes;
+            }
+
+            return new HostTable(m_default, hosts, tables);
+        }
+
+        if (routes.isEmpty()) {
+            return this;
+        }
+
+        String[] hosts = Arrays.copyOf(m_hosts, count + 1);
+        RouteTable[] tables = Arrays.copyOf(m_tables, count + 1);
+        hosts[count] = host;
+        tables[count] = routes;
+
+        return new HostTable(m_default, hosts, tables);
+    }
+
+    /**
+     * Find the service for the request
+     *
+     * @param host the Host header value (may include the port)
+     * @param path the request path
+     * @return the service or null if not found
+     */
+    HttpHandler find(String host, String path) {
+        RouteTable routes = findHost(host);
+        if (routes != null) {
+            HttpHandler result = routes.find(path);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        return m_default.find(path);
+    }
+
+    /**
+     * Pass the exchange to the matching service, responds with 404 if no
+     * service matches
+     *
+     * @param exchange
+     * @throws IOException
+     */
+    void dispatch(HttpExchange exchange) throws IOException {
+        String host = exchange instanceof NioExchange ? ((NioExchange) exchange).getHost()
+                : exchange.getRequestHeaders().getFirst("Host");
+        HttpHandler handler = find(host, exchange.getRequestURI().getPath());
+        if (handler == null) {
+            exchange.sendResponseHeaders(HttpStatusCodes.NOT_FOUND, -1);
+            exchange.close();
+            return;
+        }
+
+        handler.handle(exchange);
+    }
+
+    /**
+     * Find the host routes, case insensitive and without allocating
+     *
+     * @param host the Host header value
+     * @return the routes or null if not found
+     */
+    private RouteTable findHost(String host) {
+        if (host == null || m_hosts.length == 0) {
+            return null;
+        }
+
+        int end;
+        if (host.startsWith("[")) {
+            end = host.indexOf(']') + 1;
+            if (end == 0) {
+                end = host.length();
+            }
+        } else {
+            end = host.indexOf(':');
+            if (end < 0) {
+                end = host.length();
+            }
+        }
+
+        int mask = m_slotHosts.length - 1;
+        int slot = hash(host, 0, end) & mask;
+        String name;
+        while ((name = m_slotHosts[slot]) != null) {
+            if (name.length() == end && name.regionMatches(true, 0, host, 0, end)) {
+                return m_slotTables[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * Case insensitive hash of the host name
+     *
+     * @param value
+     * @param start
+     * @param end
+     * @return
+     */
+    private static int hash(String value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            result = 31 * result + Character.toLowerCase(value.charAt(i));
+        }
+
+        return result ^ (result >>> 16);
+    }
+}
@@ -41,13 +41,25 @@
  */
 package org.primesoft.simplehttpserver.implementation;
 
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.api.IBufferBlock;
+import org.primesoft.simplehttpserver.api.IFilter;
 import org.primesoft.simplehttpserver.api.IHeaders;
 import org.primesoft.simplehttpserver.api.IHttpRequest;
+import org.primesoft.simplehttpserver.utils.HttpDates;
+import org.primesoft.simplehttpserver.utils.OffHeapStore;
 
 /**
  *
@@ -55,6 +67,24 @@ import org.primesoft.simplehttpserver.api.IHttpRequest;
  */
 public class HttpRequest implements IHttpRequest {
 
+    /**
+     * The buffers used to copy files to the response stream
+     */
+    private static final BufferPool s_copyBuffers = new BufferPool(256 * 1024, 16, false);
+
+    /**
+     * The HEAD response body, the written data is dropped
+     */
+    private static final OutputStream s_discard = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
     /**
      * The http request source
      */
@@ -80,13 +110,71 @@ public class HttpRequest implements IHttpRequest {
      */
     private final IHeaders m_responseHeader;
 
+    /**
+     * The wrapper that is processing the request
+     */
+    private final ServiceWrapper m_owner;
+
     /**
      * Indicates that the response was already send
      */
-    private boolean m_responseSend;
+    private volatile boolean m_responseSend;
 
-    public HttpRequest(HttpExchange p) {
+    /**
+     * The compressed response body (null if not compressed)
+     */
+    private volatile CompressionOutputStream m_compressedBody;
+
+    /**
+     * The streamed response body (null if the response size is known)
+     */
+    private volatile OutputStream m_body;
+
+    /**
+     * Counts the streamed response body bytes (null if the size is known)
+     */
+    private volatile CountingOutputStream m_bodyCounter;
+
+    /**
+     * The known response body size
+     */
+    private volatile long m_bodySize;
+
+    /**
+     * The counted request body (null if not read)
+     */
+    private CountingInputStream m_requestBody;
+
+    /**
+     * The request start time (System.nanoTime)
+     */
+    private final long m_started;
+
+    /**
+     * Records the response for the response cache (null if not cached)
+     */
+    private volatile ResponseCache.Recorder m_recorder;
+
+    /**
+     * The path parameters captured by the router
+     */
+    private PathParameters m_pathParameters;
+
+    /**
+     * Indicates that the request is completed asynchronously
+     */
+    private volatile boolean m_detached;
+
+    /**
+     * The filters whose after part still needs to run, in the before order
+     * (null if none)
+     */
+    private volatile IFilter[] m_afterFilters;
+
+    public HttpRequest(HttpExchange p, ServiceWrapper owner, long started) {
         m_parent = p;
+        m_owner = owner;
+        m_started = started;
         m_requestUri = p.getRequestURI();
         m_method = p.getRequestMethod();
 
@@ -104,6 +192,16 @@ public class HttpRequest implements IHttpRequest {
         return m_method;
     }
 
+    @Override
+    public String getPathParameter(String name) {
+        PathParameters parameters = m_pathParameters;
+        return parameters != null ? parameters.get(name) : null;
+    }
+
+    void setPathParameters(PathParameters parameters) {
+        m_pathParameters = parameters;
+    }
+
     @Override
     public IHeaders getRequestHeader() {
         return m_requestHeader;
@@ -116,12 +214,28 @@ public class HttpRequest implements IHttpRequest {
 
     @Override
     public InputStream getRequestBody() {
-        return m_parent.getRequestBody();
+        CountingInputStream body = m_requestBody;
+        if (body == null) {
+            body = new CountingInputStream(m_parent.getRequestBody());
+            m_requestBody = body;
+        }
+
+        return body;
     }
 
     @Override
     public OutputStream getResponseBody() {
-        return m_parent.getResponseBody();
+        ResponseCache.Recorder recorder = m_recorder;
+        if (recorder != null && recorder.hasTarget()) {
+            return recorder;
+        }
+
+        if (!m_responseSend) {
+            throw new IllegalStateException("Response not send");
+        }
+
+        OutputStream body = m_body;
+        return body != null ? body : m_parent.getResponseBody();
     }
 
     @Override
@@ -131,10 +245,416 @@ public class HttpRequest implements IHttpRequest {
         }
 
         m_responseSend = true;
-        m_parent.sendResponseHeaders(httpCode, bodySize);
+
+        ResponseCache.Recorder recorder = m_recorder;
+        if (recorder != null && !recorder.start(httpCode, bodySize, m_parent.getResponseHeaders())) {
+            m_recorder = recorder = null;
+        }
+
+        String encoding = ResponseCompression.select(m_requestHeader, m_responseHeader,
+                httpCode, bodySize);
+        OutputStream body = startBody(httpCode, bodySize, encoding);
+        if (recorder != null) {
+            recorder.setTarget(body);
+        }
+    }
+
+    /**
+     * Send the response headers
+     *
+     * @param httpCode
+     * @param bodySize
+     * @param encoding the content encoding (null if not compressed)
+     * @return the response body stream
+     * @throws IOException
+     */
+    private OutputStream startBody(int httpCode, int bodySize, String encoding) throws IOException {
+        if (encoding != null) {
+            //The compressed size is not known, send the response chunked
+            m_responseHeader.add("Content-Encoding", encoding);
+            bodySize = 0;
+        }
+
+        sendHeaders(httpCode, bodySize);
+        if ("HEAD".equals(m_method)) {
+            //Same headers as the GET response, the body is not send
+            m_body = s_discard;
+            return m_body;
+        }
+
+        if (encoding == null && bodySize != 0) {
+            m_bodySize = bodySize > 0 ? bodySize : 0;
+            return m_parent.getResponseBody();
+        }
+
+        m_bodyCounter = new CountingOutputStream(m_parent.getResponseBody());
+        if (encoding == null) {
+            m_body = m_bodyCounter;
+            return m_body;
+        }
+
+        m_compressedBody = ResponseCompression.wrap(m_bodyCounter, encoding);
+        m_body = m_compressedBody;
+        return m_body;
+    }
+
+    /**
+     * Send the response headers. The sun engine logs a warning when a HEAD
+     * response is send with the content length, the header is set directly
+     * instead.
+     *
+     * @param httpCode
+     * @param length the body length, 0 if not known, -1 for no body
+     * @throws IOException
+     */
+    private void sendHeaders(int httpCode, long length) throws IOException {
+        if ("HEAD".equals(m_method) && !(m_parent instanceof NioExchange)) {
+            if (length > 0) {
+                m_parent.getResponseHeaders().set("Content-Length", Long.toString(length));
+            }
+            length = -1;
+        }
+
+        m_parent.sendResponseHeaders(httpCode, length);
+    }
+
+    @Override
+    public String selectEncoding(int httpCode, int bodySize) {
+        return ResponseCompression.select(m_requestHeader, m_responseHeader, httpCode, bodySize);
+    }
+
+    @Override
+    public void sendResponse(int httpCode, ByteBuffer body) throws IOException {
+        sendBuffer(httpCode, body, null);
+    }
+
+    @Override
+    public void sendResponse(int httpCode, IBufferBlock body) throws IOException {
+        sendResponse(httpCode, body, 0, body.size());
+    }
+
+    @Override
+    public void sendResponse(int httpCode, IBufferBlock body, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > body.size()) {
+            throw new IllegalArgumentException("Invalid block range " + offset + "+" + length
+                    + " (block size " + body.size() + ")");
+        }
+
+        ByteBuffer data = body.getBuffer();
+        data.limit(offset + length);
+        data.position(offset);
+        sendBuffer(httpCode, data, body);
+    }
+
+    /**
+     * Send the buffer as the response body
+     *
+     * @param httpCode
+     * @param body
+     * @param block the buffer block the body belongs to (null if none)
+     * @throws IOException
+     */
+    private void sendBuffer(int httpCode, ByteBuffer body, IBufferBlock block) throws IOException {
+        if (m_responseSend) {
+            throw new IllegalStateException("Response already send");
+        }
+
+        int length = body.remaining();
+        m_responseSend = true;
+
+        ResponseCache.Recorder recorder = m_recorder;
+        if (recorder != null) {
+            if (recorder.start(httpCode, length > 0 ? length : -1, m_parent.getResponseHeaders())) {
+                recorder.append(body.duplicate());
+            } else {
+                m_recorder = recorder = null;
+            }
+        }
+
+        sendHeaders(httpCode, length > 0 ? length : -1);
+        if (recorder != null) {
+            recorder.setTarget(m_parent.getResponseBody());
+        }
+
+        if (length == 0 || "HEAD".equals(m_method)) {
+            return;
+        }
+
+        m_bodySize = length;
+        if (body.hasArray()) {
+            m_parent.getResponseBody().write(body.array(), body.arrayOffset() + body.position(), length);
+        } else if (m_parent instanceof NioExchange) {
+            if (block != null && !block.retain()) {
+                throw new IllegalStateException("The block is already released");
+            }
+            ((NioExchange) m_parent).sendBuffer(body.duplicate(), block);
+        } else {
+            copy(body.duplicate(), m_parent.getResponseBody());
+        }
+    }
+
+    @Override
+    public void sendFile(Path file, String contentType) throws IOException {
+        sendFile(file, contentType, 0, -1, false);
+    }
+
+    @Override
+    public void sendFile(Path file, String contentType, long offset, long length) throws IOException {
+        sendFile(file, contentType, offset, length, true);
+    }
+
+    private void sendFile(Path file, String contentType, long offset, long length,
+            boolean range) throws IOException {
+        if (m_responseSend) {
+            throw new IllegalStateException("Response already send");
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (length < 0) {
+                length = size - offset;
+            }
+            if (offset < 0 || length < 0 || offset + length > size) {
+                throw new IllegalArgumentException("Invalid file range " + offset + "+" + length
+                        + " (file size " + size + ")");
+            }
+
+            discardRecording();
+            boolean partial = range && length != size;
+            Headers headers = m_parent.getResponseHeaders();
+            if (contentType != null) {
+                headers.set("Content-Type", contentType);
+            }
+            headers.set("Last-Modified",
+                    HttpDates.format(Files.getLastModifiedTime(file).toMillis()));
+            if (partial) {
+                headers.set("Content-Range",
+                        "bytes " + offset + "-" + (offset + length - 1) + "/" + size);
+            }
+
+            m_responseSend = true;
+            sendHeaders(partial ? HttpStatusCodes.PARTIAL_CONTENT : HttpStatusCodes.OK,
+                    length > 0 ? length : -1);
+
+            if (length == 0 || "HEAD".equals(m_method)) {
+                return;
+            }
+
+            m_bodySize = length;
+            if (m_parent instanceof NioExchange) {
+                ((NioExchange) m_parent).sendFile(channel, offset, length);
+                channel = null;
+            } else {
+                copy(channel, offset, length, m_parent.getResponseBody());
+            }
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Copy the file range to the response stream
+     *
+     * @param channel
+     * @param offset
+     * @param length
+     * @param output
+     * @throws IOException
+     */
+    private static void copy(FileChannel channel, long offset, long length,
+            OutputStream output) throws IOException {
+        ByteBuffer buffer = s_copyBuffers.acquire();
+        try {
+            while (length > 0) {
+                buffer.clear();
+                if (buffer.capacity() > length) {
+                    buffer.limit((int) length);
+                }
+
+                int read = channel.read(buffer, offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+
+                output.write(buffer.array(), buffer.arrayOffset(), read);
+                offset += read;
+                length -= read;
+            }
+        } finally {
+            s_copyBuffers.release(buffer);
+        }
+    }
+
+    /**
+     * Copy the buffer to the response stream
+     *
+     * @param data
+     * @param output
+     * @throws IOException
+     */
+    static void copy(ByteBuffer data, OutputStream output) throws IOException {
+        ByteBuffer buffer = s_copyBuffers.acquire();
+        try {
+            byte[] array = buffer.array();
+            while (data.hasRemaining()) {
+                int count = Math.min(array.length, data.remaining());
+                data.get(array, 0, count);
+                output.write(array, 0, count);
+            }
+        } finally {
+            s_copyBuffers.release(buffer);
+        }
+    }
+
+    /**
+     * Record the response for the response cache
+     *
+     * @param recorder
+     */
+    void record(ResponseCache.Recorder recorder) {
+        m_recorder = recorder;
+    }
+
+    /**
+     * Do not cache the response (the service failed)
+     */
+    void discardRecording() {
+        ResponseCache.Recorder recorder = m_recorder;
+        m_recorder = null;
+        if (recorder != null) {
+            recorder.reject();
+        }
+    }
+
+    /**
+     * Send the cached response
+     *
+     * @param entry
+     * @throws IOException
+     */
+    void sendCached(ResponseCache.Entry entry) throws IOException {
+        entry.copyHeaders(m_parent.getResponseHeaders());
+        m_parent.getResponseHeaders().set("Age", Long.toString(entry.getAge()));
+
+        OffHeapStore.Block body = entry.getBody();
+        int length = body.size();
+        String encoding = ResponseCompression.select(m_requestHeader, m_responseHeader,
+                entry.getCode(), length > 0 ? length : -1);
+        if (encoding == null) {
+            sendResponse(entry.getCode(), body);
+            return;
+        }
+
+        if (m_responseSend) {
+            throw new IllegalStateException("Response already send");
+        }
+
+        m_responseSend = true;
+        OutputStream output = startBody(entry.getCode(), length, encoding);
+        if (!"HEAD".equals(m_method)) {
+            copy(body.getBuffer(), output);
+        }
     }
 
     public boolean isResponseSend() {
         return m_responseSend;
     }
+
+    /**
+     * Mark the request as completed asynchronously, the service wrapper
+     * does not finish the request when the service returns
+     */
+    void detach() {
+        m_detached = true;
+    }
+
+    /**
+     * Continue the synchronous processing of a detached request
+     */
+    void attach() {
+        m_detached = false;
+    }
+
+    boolean isDetached() {
+        return m_detached;
+    }
+
+    ServiceWrapper getOwner() {
+        return m_owner;
+    }
+
+    /**
+     * Set the filters called before the service
+     *
+     * @param filters the filter chain
+     * @param entered the number of the called filters
+     */
+    void setAfterFilters(IFilter[] filters, int entered) {
+        if (entered == 0) {
+            m_afterFilters = null;
+        } else {
+            m_afterFilters = entered == filters.length ? filters : Arrays.copyOf(filters, entered);
+        }
+    }
+
+    /**
+     * Take the filters whose after part needs to run
+     *
+     * @return null if none (or already taken)
+     */
+    IFilter[] takeAfterFilters() {
+        IFilter[] result = m_afterFilters;
+        m_afterFilters = null;
+        return result;
+    }
+
+    /**
+     * Close the request exchange
+     */
+    void close() {
+        ResponseCache.Recorder recorder = m_recorder;
+        if (recorder != null) {
+            recorder.commit();
+        }
+
+        CompressionOutputStream compressed = m_compressedBody;
+        if (compressed != null) {
+            try {
+                compressed.close();
+            } catch (IOException ex) {
+            }
+        }
+
+        m_parent.close();
+
+        CountingOutputStream counter = m_bodyCounter;
+        long bytesOut = counter != null ? counter.getCount() : m_bodySize;
+        int code = m_parent.getResponseCode();
+        m_owner.getMetrics().finish(m_started, code, getBytesIn(), bytesOut);
+        AccessLog.getDefault().record(m_parent, code, bytesOut, m_started);
+    }
+
+    /**
+     * Get the request body size, the declared length or the number of
+     * bytes read by the service (chunked body)
+     *
+     * @return
+     */
+    private long getBytesIn() {
+        CountingInputStream body = m_requestBody;
+        long result = body != null ? body.getCount() : 0;
+
+        String length = m_parent.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            try {
+                result = Math.max(result, Long.parseLong(length.trim()));
+            } catch (NumberFormatException ex) {
+            }
+        }
+
+        return result;
+    }
 }
@@ -0,0 +1,300 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import com.sun.net.httpserver.Headers;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * The parsed HTTP/1.x request line and headers
+ *
+ * @author SBPrime
+ */
+class HttpRequestHead {
+
+    private static final Charset s_charset = Charset.forName("ISO-8859-1");
+
+    /**
+     * The request method
+     */
+    private final String m_method;
+
+    /**
+     * The raw request target
+     */
+    private final String m_target;
+
+    /**
+     * The request protocol
+     */
+    private final String m_protocol;
+
+    /**
+     * The request headers
+     */
+    private final Headers m_headers;
+
+    /**
+     * The request body length (-1 if not set)
+     */
+    private final long m_contentLength;
+
+    /**
+     * Is the request body chunked
+     */
+    private final boolean m_chunked;
+
+    /**
+     * Should the connection be kept open after the response
+     */
+    private final boolean m_keepAlive;
+
+    /**
+     * Does the client expect 100-continue
+     */
+    private final boolean m_expectContinue;
+
+    /**
+     * The Host header value (null if not set)
+     */
+    private final String m_host;
+
+    private HttpRequestHead(String method, String target, String protocol,
+            Headers headers, long contentLength, boolean chunked,
+            boolean keepAlive, boolean expectContinue, String host) {
+        m_method = method;
+        m_target = target;
+        m_protocol = protocol;
+        m_headers = headers;
+        m_contentLength = contentLength;
+        m_chunked = chunked;
+        m_keepAlive = keepAlive;
+        m_expectContinue = expectContinue;
+        m_host = host;
+    }
+
+    public String getMethod() {
+        return m_method;
+    }
+
+    public String getTarget() {
+        return m_target;
+    }
+
+    public String getProtocol() {
+        return m_protocol;
+    }
+
+    public Headers getHeaders() {
+        return m_headers;
+    }
+
+    public long getContentLength() {
+        return m_contentLength;
+    }
+
+    public boolean isChunked() {
+        return m_chunked;
+    }
+
+    public boolean isKeepAlive() {
+        return m_keepAlive;
+    }
+
+    public boolean isExpectContinue() {
+        return m_expectContinue;
+    }
+
+    public String getHost() {
+        return m_host;
+    }
+
+    /**
+     * Find the end of the request head (the empty line)
+     *
+     * @param data the received data
+     * @param from position to start the search from
+     * @param to the end of the received data
+     * @return the position after the empty line or -1 if not found
+     */
+    static int findEnd(ByteBuffer data, int from, int to) {
+        for (int i = Math.max(from, 3); i < to; i++) {
+            if (data.get(i) == '\n' && data.get(i - 1) == '\r'
+                    && data.get(i - 2) == '\n' && data.get(i - 3) == '\r') {
+                return i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Parse the request head. The requests with different Content-Length
+     * values or with both the Content-Length and the chunked
+     * Transfer-Encoding are malformed.
+     *
+     * @param data the request head (including the empty line)
+     * @param length the head length
+     * @return null if the request is malformed
+     */
+    static HttpRequestHead parse(byte[] data, int length) {
+        int pos = 0;
+
+        //Skip the empty lines before the request line
+        while (pos + 1 < length && data[pos] == '\r' && data[pos + 1] == '\n') {
+            pos += 2;
+        }
+
+        int lineEnd = findLineEnd(data, pos, length);
+        if (lineEnd < 0) {
+            return null;
+        }
+
+        int sp1 = indexOf(data, pos, lineEnd, (byte) ' ');
+        int sp2 = sp1 < 0 ? -1 : indexOf(data, sp1 + 1, lineEnd, (byte) ' ');
+        if (sp1 <= pos || sp2 <= sp1 + 1 || sp2 + 1 >= lineEnd) {
+            return null;
+        }
+
+        String method = new String(data, pos, sp1 - pos, s_charset);
+        String target = new String(data, sp1 + 1, sp2 - sp1 - 1, s_charset);
+        String protocol = new String(data, sp2 + 1, lineEnd - sp2 - 1, s_charset);
+        if (!protocol.startsWith("HTTP/1.")) {
+            return null;
+        }
+
+        Headers headers = new Headers();
+        long contentLength = -1;
+        boolean chunked = false;
+        boolean http11 = !"HTTP/1.0".equals(protocol);
+        boolean keepAlive = http11;
+        boolean expectContinue = false;
+        String host = null;
+
+        pos = lineEnd + 2;
+        while (pos < length) {
+            lineEnd = findLineEnd(data, pos, length);
+            if (lineEnd < 0) {
+                return null;
+            }
+            if (lineEnd == pos) {
+                break;
+            }
+
+            int colon = indexOf(data, pos, lineEnd, (byte) ':');
+            if (colon <= pos || data[pos] == ' ' || data[pos] == '\t') {
+                return null;
+            }
+
+            int valueStart = colon + 1;
+            int valueEnd = lineEnd;
+            while (valueStart < valueEnd && (data[valueStart] == ' ' || data[valueStart] == '\t')) {
+                valueStart++;
+            }
+            while (valueEnd > valueStart && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')) {
+                valueEnd--;
+            }
+
+            String name = new String(data, pos, colon - pos, s_charset);
+            String value = new String(data, valueStart, valueEnd - valueStart, s_charset);
+            headers.add(name, value);
+
+            if (name.equalsIgnoreCase("Content-Length")) {
+                long valueLength;
+                try {
+                    valueLength = Long.parseLong(value);
+                } catch (NumberFormatException ex) {
+                    return null;
+                }
+                if (valueLength < 0 || (contentLength >= 0 && contentLength != valueLength)) {
+                    return null;
+                }
+                contentLength = valueLength;
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                chunked = value.toLowerCase(Locale.ENGLISH).contains("chunked");
+            } else if (name.equalsIgnoreCase("Connection")) {
+                String v = value.toLowerCase(Locale.ENGLISH);
+                if (v.contains("close")) {
+                    keepAlive = false;
+                } else if (v.contains("keep-alive")) {
+                    keepAlive = true;
+                }
+            } else if (name.equalsIgnoreCase("Expect")) {
+                expectContinue = http11 && value.equalsIgnoreCase("100-continue");
+            } else if (name.equalsIgnoreCase("Host") && host == null) {
+                host = value;
+            }
+
+            pos = lineEnd + 2;
+        }
+
+        if (chunked && contentLength >= 0) {
+            //Ambiguous body length
+            return null;
+        }
+
+        return new HttpRequestHead(method, target, protocol, headers,
+                contentLength, chunked, keepAlive, expectContinue, host);
+    }
+
+    private static int findLineEnd(byte[] data, int from, int to) {
+        for (int i = from; i + 1 < to; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.api.IMainThreadTask;
+
+/**
+ * Runs the main thread part of the requests. The queue is drained once per
+ * tick in bounded batches with a time budget, the rest is deferred to the
+ * next tick.
+ *
+ * @author SBPrime
+ */
+public class MainThreadBridge implements Runnable {
+
+    /**
+     * The queued main thread work
+     */
+    private final ConcurrentLinkedQueue<Entry<?>> m_queue = new ConcurrentLinkedQueue<Entry<?>>();
+
+    /**
+     * Number of queued entries (the queue size is not constant time)
+     */
+    private final AtomicInteger m_queueLength = new AtomicInteger();
+
+    /**
+     * Maximum number of entries processed per tick
+     */
+    private volatile int m_batchSize;
+
+    /**
+     * The per tick time budget (in nanoseconds)
+     */
+    private volatile long m_tickBudget;
+
+    /**
+     * The bukkit task
+     */
+    private BukkitTask m_task;
+
+    /**
+     * Is the bridge running
+     */
+    private volatile boolean m_running;
+
+    /**
+     * Queue length at the start of the last drain
+     */
+    private volatile int m_lastQueueLength;
+
+    /**
+     * Time used by the last drain (in nanoseconds)
+     */
+    private volatile long m_lastTickTime;
+
+    /**
+     * Number of entries deferred by the last drain
+     */
+    private volatile int m_lastDeferred;
+
+    /**
+     * The longest drain time (in nanoseconds)
+     */
+    private volatile long m_maxTickTime;
+
+    /**
+     * Total number of processed entries
+     */
+    private volatile long m_totalProcessed;
+
+    /**
+     * Total number of deferred entries (an entry is counted once for each
+     * tick it was deferred)
+     */
+    private volatile long m_totalDeferred;
+
+    /**
+     * Create new bridge
+     *
+     * @param batchSize maximum number of entries processed per tick
+     * @param tickBudget the per tick time budget (in milliseconds)
+     */
+    public MainThreadBridge(int batchSize, int tickBudget) {
+        configure(batchSize, tickBudget);
+    }
+
+    /**
+     * Change the per tick limits
+     *
+     * @param batchSize maximum number of entries processed per tick
+     * @param tickBudget the per tick time budget (in milliseconds)
+     */
+    public final void configure(int batchSize, int tickBudget) {
+        m_batchSize = batchSize;
+        m_tickBudget = TimeUnit.MILLISECONDS.toNanos(tickBudget);
+    }
+
+    /**
+     * Start draining the queue every tick
+     *
+     * @param plugin
+     */
+    public void start(JavaPlugin plugin) {
+        m_running = true;
+        m_task = plugin.getServer().getScheduler().runTaskTimer(plugin, this, 1, 1);
+    }
+
+    /**
+     * Stop the bridge and reject all queued requests
+     */
+    public void stop() {
+        m_running = false;
+        if (m_task != null) {
+            m_task.cancel();
+            m_task = null;
+        }
+
+        rejectQueued();
+    }
+
+    /**
+     * Reject the queued requests with 503, the responses are send by the
+     * request executor (this may run on the main thread)
+     */
+    private void rejectQueued() {
+        Entry<?> entry;
+        while ((entry = m_queue.poll()) != null) {
+            m_queueLength.decrementAndGet();
+
+            final HttpRequest request = entry.m_request;
+            request.getOwner().resume(request, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        request.sendResponse(HttpStatusCodes.SERVICE_UNAVAILABLE, -1);
+                    } catch (IOException ex) {
+                        //The client is gone
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Queue the main thread work for the detached request
+     *
+     * @param <T>
+     * @param request
+     * @param task
+     */
+    public <T> void submit(HttpRequest request, IMainThreadTask<T> task) {
+        request.detach();
+
+        if (!m_running) {
+            ServiceWrapper.abort(request, HttpStatusCodes.SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        m_queueLength.incrementAndGet();
+        m_queue.add(new Entry<T>(request, task));
+
+        //The bridge may have been stopped after the check, the queue is no
+        //longer drained
+        if (!m_running) {
+            rejectQueued();
+        }
+    }
+
+    /**
+     * Drain the queue (main thread)
+     */
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        int queueLength = m_queueLength.get();
+        int processed = 0;
+        long elapsed = 0;
+
+        Entry<?> entry;
+        while (processed < m_batchSize && elapsed < m_tickBudget
+                && (entry = m_queue.poll()) != null) {
+            m_queueLength.decrementAndGet();
+            entry.execute();
+
+            processed++;
+            elapsed = System.nanoTime() - start;
+        }
+
+        int deferred = m_queueLength.get();
+
+        m_lastQueueLength = queueLength;
+        m_lastTickTime = elapsed;
+        m_lastDeferred = deferred;
+        m_maxTickTime = Math.max(m_maxTickTime, elapsed);
+        m_totalProcessed += processed;
+        m_totalDeferred += deferred;
+    }
+
+    public int getQueueLength() {
+        return m_queueLength.get();
+    }
+
+    public int getLastQueueLength() {
+        return m_lastQueueLength;
+    }
+
+    public long getLastTickTime() {
+        return m_lastTickTime;
+    }
+
+    public int getLastDeferred() {
+        return m_lastDeferred;
+    }
+
+    public long getMaxTickTime() {
+        return m_maxTickTime;
+    }
+
+    public long getTotalProcessed() {
+        return m_totalProcessed;
+    }
+
+    public long getTotalDeferred() {
+        return m_totalDeferred;
+    }
+
+    /**
+     * The queued main thread work
+     *
+     * @param <T>
+     */
+    private static class Entry<T> {
+
+        private final HttpRequest m_request;
+
+        private final IMainThreadTask<T> m_task;
+
+        Entry(HttpRequest request, IMainThreadTask<T> task) {
+            m_request = request;
+            m_task = task;
+        }
+
+        /**
+         * Run the main thread part and hand the completion to the request
+         * executor
+         */
+        void execute() {
+            final T result;
+            try {
+                result = m_task.execute();
+            } catch (final Throwable ex) {
+                m_request.getOwner().resume(m_request, new Runnable() {
+                    @Override
+                    public void run() {
+                        ServiceWrapper.fail(m_request, ex);
+                    }
+                });
+                return;
+            }
+
+            m_request.getOwner().resume(m_request, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        m_task.complete(m_request, result);
+                    } catch (IOException ex) {
+                        ServiceWrapper.fail(m_request, ex);
+                    }
+                }
+            });
+        }
+    }
+}
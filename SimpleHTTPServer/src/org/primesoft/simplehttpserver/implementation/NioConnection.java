@@ -0,0 +1,689 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.api.IBufferBlock;
+import org.primesoft.simplehttpserver.utils.HttpDates;
+
+/**
+ * A NIO engine client connection. The request is read and parsed on the
+ * event loop, the response is queued by the service thread and written by
+ * the event loop.
+ *
+ * @author SBPrime
+ */
+class NioConnection {
+
+    /**
+     * Number of queued outputs after which the service thread waits for the
+     * event loop to write the data
+     */
+    private static final int MAX_PENDING = 8;
+
+    private static final byte[] s_continue = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(Charset.forName("ISO-8859-1"));
+
+    private final NioHttpServer m_server;
+
+    private final NioEventLoop m_loop;
+
+    private final BufferPool m_pool;
+
+    private final SocketChannel m_channel;
+
+    private final InetSocketAddress m_remoteAddress;
+
+    private final InetSocketAddress m_localAddress;
+
+    private SelectionKey m_key;
+
+    /**
+     * The received data (event loop only)
+     */
+    private ByteBuffer m_readBuffer;
+
+    /**
+     * Number of received bytes already searched for the head end
+     */
+    private int m_scanned;
+
+    /**
+     * The request being read
+     */
+    private HttpRequestHead m_head;
+
+    /**
+     * The request body being read
+     */
+    private byte[] m_body;
+
+    /**
+     * Number of body bytes already read
+     */
+    private int m_bodyFilled;
+
+    /**
+     * The chunked request body decoder (null if the body is not chunked)
+     */
+    private ChunkedDecoder m_chunked;
+
+    /**
+     * Was the 100-continue response send for the request being read
+     */
+    private boolean m_continueSend;
+
+    /**
+     * Is a request being processed
+     */
+    private boolean m_processing;
+
+    /**
+     * The last network activity time
+     */
+    private long m_lastActivity;
+
+    /**
+     * The queued response data
+     */
+    private final ConcurrentLinkedQueue<Output> m_output = new ConcurrentLinkedQueue<Output>();
+
+    /**
+     * Number of queued outputs
+     */
+    private final AtomicInteger m_pending = new AtomicInteger();
+
+    /**
+     * Is the flush task scheduled on the event loop
+     */
+    private final AtomicBoolean m_flushScheduled = new AtomicBoolean();
+
+    /**
+     * The service thread wait mutex
+     */
+    private final Object m_mutex = new Object();
+
+    /**
+     * The service finished the response
+     */
+    private volatile boolean m_responseDone;
+
+    /**
+     * Close the connection once the response is written
+     */
+    private volatile boolean m_closeAfterResponse;
+
+    /**
+     * Is the connection closed
+     */
+    private volatile boolean m_closed;
+
+    /**
+     * Writes the queued response data on the event loop
+     */
+    private final Runnable m_flushTask = new Runnable() {
+        @Override
+        public void run() {
+            m_flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    NioConnection(NioHttpServer server, NioEventLoop loop, BufferPool pool,
+            SocketChannel channel) {
+        m_server = server;
+        m_loop = loop;
+        m_pool = pool;
+        m_channel = channel;
+        m_remoteAddress = (InetSocketAddress) channel.socket().getRemoteSocketAddress();
+        m_localAddress = (InetSocketAddress) channel.socket().getLocalSocketAddress();
+        m_lastActivity = System.currentTimeMillis();
+    }
+
+    InetSocketAddress getRemoteAddress() {
+        return m_remoteAddress;
+    }
+
+    InetSocketAddress getLocalAddress() {
+        return m_localAddress;
+    }
+
+    /**
+     * Register the connection in the event loop selector
+     *
+     * @param selector
+     * @throws IOException
+     */
+    void register(Selector selector) throws IOException {
+        m_key = m_channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Is the connection waiting for a request for too long (event loop)
+     *
+     * @param now
+     * @param timeout
+     * @return
+     */
+    boolean isIdle(long now, long timeout) {
+        return !m_processing && now - m_lastActivity > timeout;
+    }
+
+    /**
+     * Is the connection processing a request or sending the response
+     * (event loop)
+     *
+     * @return
+     */
+    boolean isProcessing() {
+        return m_processing && !m_closed;
+    }
+
+    /**
+     * Get a buffer for the response data
+     *
+     * @return
+     */
+    ByteBuffer acquireBuffer() {
+        return m_pool.acquire();
+    }
+
+    /**
+     * Return an unused response buffer
+     *
+     * @param buffer
+     */
+    void releaseBuffer(ByteBuffer buffer) {
+        m_pool.release(buffer);
+    }
+
+    /**
+     * The socket is readable (event loop)
+     */
+    void onRead() {
+        if (m_readBuffer == null) {
+            m_readBuffer = m_pool.acquire();
+        }
+
+        int read;
+        try {
+            read = m_channel.read(m_readBuffer);
+        } catch (IOException ex) {
+            close();
+            return;
+        }
+
+        if (read < 0) {
+            close();
+            return;
+        }
+
+        m_lastActivity = System.currentTimeMillis();
+        processInput();
+    }
+
+    /**
+     * The socket is writable (event loop)
+     */
+    void onWrite() {
+        flush();
+    }
+
+    /**
+     * Parse the received data and dispatch the request (event loop)
+     */
+    private void processInput() {
+        if (m_head == null) {
+            int end = HttpRequestHead.findEnd(m_readBuffer, m_scanned, m_readBuffer.position());
+            if (end < 0) {
+                if (!m_readBuffer.hasRemaining()) {
+                    respondError(HttpStatusCodes.REQUEST_HEADER_FIELDS_TOO_LARGE);
+                } else {
+                    m_scanned = Math.max(0, m_readBuffer.position() - 3);
+                }
+                return;
+            }
+
+            byte[] scratch = m_loop.getScratch();
+            m_readBuffer.flip();
+            m_readBuffer.get(scratch, 0, end);
+            m_readBuffer.compact();
+            m_scanned = 0;
+
+            HttpRequestHead head = HttpRequestHead.parse(scratch, end);
+            if (head == null) {
+                respondError(HttpStatusCodes.BAD_REQUEST);
+                return;
+            }
+            if (head.getContentLength() > m_server.getMaxBodySize()) {
+                respondError(HttpStatusCodes.REQUEST_ENTITY_TOO_LARGE);
+                return;
+            }
+
+            m_head = head;
+            m_body = head.getContentLength() > 0 ? new byte[(int) head.getContentLength()] : null;
+            m_bodyFilled = 0;
+            m_chunked = head.isChunked() ? new ChunkedDecoder(m_server.getMaxBodySize()) : null;
+            m_continueSend = false;
+        }
+
+        if (m_chunked != null) {
+            m_readBuffer.flip();
+            int result = m_chunked.decode(m_readBuffer);
+            m_readBuffer.compact();
+
+            switch (result) {
+                case ChunkedDecoder.MORE:
+                    sendContinue();
+                    return;
+                case ChunkedDecoder.MALFORMED:
+                    respondError(HttpStatusCodes.BAD_REQUEST);
+                    return;
+                case ChunkedDecoder.TOO_LARGE:
+                    respondError(HttpStatusCodes.REQUEST_ENTITY_TOO_LARGE);
+                    return;
+                default:
+                    m_body = m_chunked.getBody();
+                    m_chunked = null;
+                    break;
+            }
+        } else if (m_body != null && m_bodyFilled < m_body.length) {
+            m_readBuffer.flip();
+            int count = Math.min(m_readBuffer.remaining(), m_body.length - m_bodyFilled);
+            m_readBuffer.get(m_body, m_bodyFilled, count);
+            m_readBuffer.compact();
+            m_bodyFilled += count;
+
+            if (m_bodyFilled < m_body.length) {
+                sendContinue();
+                return;
+            }
+        }
+
+        dispatch();
+    }
+
+    /**
+     * Send the 100-continue response if the client waits for it before
+     * sending the body (event loop)
+     */
+    private void sendContinue() {
+        if (m_head.isExpectContinue() && !m_continueSend) {
+            m_continueSend = true;
+            enqueue(new Output(ByteBuffer.wrap(s_continue), false));
+        }
+    }
+
+    /**
+     * Pass the request to the server (event loop)
+     */
+    private void dispatch() {
+        HttpRequestHead head = m_head;
+        byte[] body = m_body;
+        m_head = null;
+        m_body = null;
+
+        URI uri;
+        try {
+            uri = new URI(head.getTarget());
+        } catch (URISyntaxException ex) {
+            respondError(HttpStatusCodes.BAD_REQUEST);
+            return;
+        }
+
+        m_processing = true;
+        m_key.interestOps(0);
+        if (m_readBuffer.position() == 0) {
+            releaseReadBuffer();
+        }
+
+        m_server.dispatch(new NioExchange(this, head, uri, body));
+    }
+
+    /**
+     * Send an error response and close the connection (event loop)
+     *
+     * @param httpCode
+     */
+    private void respondError(int httpCode) {
+        m_processing = true;
+        m_key.interestOps(0);
+
+        String response = "HTTP/1.1 " + httpCode + " " + NioExchange.getReason(httpCode) + "\r\n"
+                + "Date: " + HttpDates.now() + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "Connection: close\r\n\r\n";
+        enqueue(new Output(ByteBuffer.wrap(response.getBytes(Charset.forName("ISO-8859-1"))), false));
+        complete(true);
+    }
+
+    /**
+     * Queue response data (event loop)
+     *
+     * @param output
+     */
+    private void enqueue(Output output) {
+        m_output.add(output);
+        m_pending.incrementAndGet();
+        scheduleFlush();
+    }
+
+    /**
+     * Queue response data, waits if too much data is queued (service thread)
+     *
+     * @param output
+     * @throws IOException
+     */
+    void write(Output output) throws IOException {
+        if (m_closed) {
+            output.release(m_pool);
+            throw new IOException("Connection closed");
+        }
+
+        m_output.add(output);
+        int pending = m_pending.incrementAndGet();
+        if (m_closed) {
+            releaseOutput();
+            throw new IOException("Connection closed");
+        }
+
+        scheduleFlush();
+
+        if (pending <= MAX_PENDING || m_loop.inLoop()) {
+            return;
+        }
+
+        synchronized (m_mutex) {
+            try {
+                while (m_pending.get() > MAX_PENDING / 2 && !m_closed) {
+                    m_mutex.wait();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        if (m_closed) {
+            throw new IOException("Connection closed");
+        }
+    }
+
+    /**
+     * The response is complete (service thread)
+     *
+     * @param close close the connection after the response is written
+     */
+    void complete(boolean close) {
+        if (close) {
+            m_closeAfterResponse = true;
+        }
+
+        m_responseDone = true;
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (m_flushScheduled.compareAndSet(false, true)) {
+            m_loop.execute(m_flushTask);
+        }
+    }
+
+    /**
+     * Write the queued data (event loop)
+     */
+    private void flush() {
+        if (m_closed) {
+            return;
+        }
+
+        try {
+            Output output;
+            while ((output = m_output.peek()) != null) {
+                if (!output.write(m_channel)) {
+                    m_key.interestOps(m_key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+
+                m_output.poll();
+                output.release(m_pool);
+                if (m_pending.decrementAndGet() <= MAX_PENDING / 2) {
+                    synchronized (m_mutex) {
+                        m_mutex.notifyAll();
+                    }
+                }
+            }
+
+            m_key.interestOps(m_key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException ex) {
+            close();
+            return;
+        }
+
+        if (m_responseDone) {
+            finishResponse();
+        }
+    }
+
+    /**
+     * The response was written, wait for the next request (event loop)
+     */
+    private void finishResponse() {
+        m_responseDone = false;
+        m_processing = false;
+        m_lastActivity = System.currentTimeMillis();
+
+        if (m_closeAfterResponse || m_loop.isDraining()) {
+            close();
+            return;
+        }
+
+        m_key.interestOps(SelectionKey.OP_READ);
+        if (m_readBuffer != null && m_readBuffer.position() > 0) {
+            processInput();
+        }
+    }
+
+    /**
+     * Close the connection (event loop)
+     */
+    void close() {
+        if (m_closed) {
+            return;
+        }
+
+        m_closed = true;
+        if (m_key != null) {
+            m_key.cancel();
+        }
+        try {
+            m_channel.close();
+        } catch (IOException ex) {
+        }
+
+        releaseReadBuffer();
+        releaseOutput();
+
+        synchronized (m_mutex) {
+            m_mutex.notifyAll();
+        }
+    }
+
+    private void releaseReadBuffer() {
+        if (m_readBuffer != null) {
+            m_pool.release(m_readBuffer);
+            m_readBuffer = null;
+        }
+    }
+
+    private void releaseOutput() {
+        Output output;
+        while ((output = m_output.poll()) != null) {
+            m_pending.decrementAndGet();
+            output.release(m_pool);
+        }
+    }
+
+    /**
+     * Queued response data
+     */
+    static class Output {
+
+        private final ByteBuffer m_data;
+
+        private final boolean m_pooled;
+
+        /**
+         * The buffer block the data belongs to, released once written
+         */
+        private final IBufferBlock m_block;
+
+        /**
+         * @param data the data to write
+         * @param pooled return the buffer to the pool once written
+         */
+        Output(ByteBuffer data, boolean pooled) {
+            m_data = data;
+            m_pooled = pooled;
+            m_block = null;
+        }
+
+        /**
+         * @param data the data to write
+         * @param block the block reference held until the data is written
+         */
+        Output(ByteBuffer data, IBufferBlock block) {
+            m_data = data;
+            m_pooled = false;
+            m_block = block;
+        }
+
+        /**
+         * Write the data to the channel
+         *
+         * @param channel
+         * @return true if all the data was written
+         * @throws IOException
+         */
+        boolean write(SocketChannel channel) throws IOException {
+            channel.write(m_data);
+            return !m_data.hasRemaining();
+        }
+
+        /**
+         * Release the resources held by the output
+         *
+         * @param pool
+         */
+        void release(BufferPool pool) {
+            if (m_pooled) {
+                pool.release(m_data);
+            }
+            if (m_block != null) {
+                m_block.release();
+            }
+        }
+    }
+
+    /**
+     * Queued file range, written using the zero copy file transfer
+     */
+    static class FileOutput extends Output {
+
+        private final FileChannel m_file;
+
+        private long m_position;
+
+        private long m_remaining;
+
+        /**
+         * @param file the file, closed once written
+         * @param offset the first byte to write
+         * @param length number of bytes to write
+         */
+        FileOutput(FileChannel file, long offset, long length) {
+            super(null, false);
+            m_file = file;
+            m_position = offset;
+            m_remaining = length;
+        }
+
+        @Override
+        boolean write(SocketChannel channel) throws IOException {
+            while (m_remaining > 0) {
+                long written = m_file.transferTo(m_position, m_remaining, channel);
+                if (written <= 0) {
+                    if (m_position >= m_file.size()) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                    return false;
+                }
+
+                m_position += written;
+                m_remaining -= written;
+            }
+
+            return true;
+        }
+
+        @Override
+        void release(BufferPool pool) {
+            try {
+                m_file.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.primesoft.simplehttpserver.utils.ExceptionHelper;
+import org.primesoft.simplehttpserver.utils.ExceptionReporter;
+
+/**
+ * The NIO engine event loop. Accepts the connections (first loop only),
+ * reads the requests and writes the responses.
+ *
+ * @author SBPrime
+ */
+class NioEventLoop implements Runnable {
+
+    /**
+     * How often the idle connections are checked (in milliseconds)
+     */
+    private static final long IDLE_CHECK = 1000;
+
+    /**
+     * How often the busy connections are counted while draining (in
+     * milliseconds)
+     */
+    private static final long DRAIN_CHECK = 50;
+
+    private final NioHttpServer m_server;
+
+    private final BufferPool m_pool;
+
+    private final Selector m_selector;
+
+    /**
+     * Tasks to run on the loop thread
+     */
+    private final ConcurrentLinkedQueue<Runnable> m_tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * The request head parse buffer
+     */
+    private final byte[] m_scratch;
+
+    /**
+     * Idle connection timeout (in milliseconds)
+     */
+    private volatile long m_idleTimeout;
+
+    private Thread m_thread;
+
+    private volatile boolean m_running;
+
+    /**
+     * The server is stopping, the connections are closed once idle
+     */
+    private volatile boolean m_draining;
+
+    /**
+     * The number of connections processing a request while draining (-1 if
+     * not counted yet)
+     */
+    private volatile int m_busy = -1;
+
+    NioEventLoop(NioHttpServer server, BufferPool pool, long idleTimeout) throws IOException {
+        m_server = server;
+        m_pool = pool;
+        m_idleTimeout = idleTimeout;
+        m_scratch = new byte[pool.getBufferSize()];
+        m_selector = Selector.open();
+    }
+
+    /**
+     * Change the idle connection timeout
+     *
+     * @param idleTimeout the timeout (in milliseconds)
+     */
+    void setIdleTimeout(long idleTimeout) {
+        m_idleTimeout = idleTimeout;
+    }
+
+    byte[] getScratch() {
+        return m_scratch;
+    }
+
+    /**
+     * Accept the connections on this loop (call before start)
+     *
+     * @param channel
+     * @throws ClosedChannelException
+     */
+    void registerAcceptor(ServerSocketChannel channel) throws ClosedChannelException {
+        channel.register(m_selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Add the accepted connection to this loop
+     *
+     * @param channel
+     */
+    void register(final SocketChannel channel) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                NioConnection connection = new NioConnection(m_server, NioEventLoop.this, m_pool, channel);
+                try {
+                    connection.register(m_selector);
+                } catch (IOException ex) {
+                    connection.close();
+                }
+            }
+        });
+    }
+
+    void start(String name) {
+        m_running = true;
+        m_thread = new Thread(this, name);
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    void stop() {
+        m_running = false;
+        m_selector.wakeup();
+
+        if (m_thread == null || inLoop()) {
+            return;
+        }
+
+        try {
+            m_thread.join(1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop serving new requests, close the idle connections and the
+     * connections that finish the current response
+     */
+    void drain() {
+        m_busy = -1;
+        m_draining = true;
+        m_selector.wakeup();
+    }
+
+    boolean isDraining() {
+        return m_draining;
+    }
+
+    /**
+     * The number of connections still processing a request while draining
+     *
+     * @return -1 if not counted yet
+     */
+    int getBusy() {
+        return m_busy;
+    }
+
+    /**
+     * Is the current thread the loop thread
+     *
+     * @return
+     */
+    boolean inLoop() {
+        return Thread.currentThread() == m_thread;
+    }
+
+    /**
+     * Run the task on the loop thread
+     *
+     * @param task
+     */
+    void execute(Runnable task) {
+        m_tasks.add(task);
+        if (!inLoop()) {
+            m_selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        long lastCheck = System.currentTimeMillis();
+
+        while (m_running) {
+            try {
+                m_selector.select(m_draining ? DRAIN_CHECK : IDLE_CHECK);
+            } catch (IOException ex) {
+                ExceptionHelper.printException(ex, "NIO selector error");
+                break;
+            }
+
+            Iterator<SelectionKey> keys = m_selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                processKey(key);
+            }
+
+            runTasks();
+
+            if (m_draining) {
+                m_busy = closeNotBusy();
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - lastCheck >= IDLE_CHECK) {
+                lastCheck = now;
+                closeIdle(now);
+            }
+        }
+
+        closeAll();
+    }
+
+    private void processKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+
+        Object attachment = key.attachment();
+        if (attachment == null) {
+            try {
+                if (key.isAcceptable()) {
+                    m_server.accept((ServerSocketChannel) key.channel());
+                }
+            } catch (Throwable ex) {
+                ExceptionReporter.getDefault().report(ex, "NIO accept error");
+            }
+            return;
+        }
+
+        //Errors are caught as well (for example InternalError thrown when a
+        //mapped file is truncated), the loop must keep serving the other
+        //connections
+        NioConnection connection = (NioConnection) attachment;
+        try {
+            if (key.isWritable()) {
+                connection.onWrite();
+            }
+            if (key.isValid() && key.isReadable()) {
+                connection.onRead();
+            }
+        } catch (Throwable ex) {
+            ExceptionReporter.getDefault().report(ex, "NIO connection error");
+            connection.close();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = m_tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable ex) {
+                ExceptionReporter.getDefault().report(ex, "NIO event loop task error");
+            }
+        }
+    }
+
+    /**
+     * Close the connections that are waiting for a request for too long
+     *
+     * @param now
+     */
+    private void closeIdle(long now) {
+        for (SelectionKey key : m_selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof NioConnection) {
+                NioConnection connection = (NioConnection) attachment;
+                if (connection.isIdle(now, m_idleTimeout)) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Close the connections that are not processing a request (draining)
+     *
+     * @return the number of the busy connections
+     */
+    private int closeNotBusy() {
+        int busy = 0;
+        for (SelectionKey key : m_selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof NioConnection) {
+                NioConnection connection = (NioConnection) attachment;
+                if (connection.isProcessing()) {
+                    busy++;
+                } else {
+                    connection.close();
+                }
+            }
+        }
+
+        return busy;
+    }
+
+    private void closeAll() {
+        m_tasks.clear();
+        for (SelectionKey key : m_selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof NioConnection) {
+                ((NioConnection) attachment).close();
+            }
+        }
+
+        try {
+            m_selector.close();
+        } catch (IOException ex) {
+        }
+    }
+}
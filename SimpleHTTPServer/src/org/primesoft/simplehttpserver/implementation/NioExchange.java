@@ -0,0 +1,395 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.primesoft.simplehttpserver.api.IBufferBlock;
+import org.primesoft.simplehttpserver.utils.HttpDates;
+import org.primesoft.simplehttpserver.utils.OffHeapStore;
+
+/**
+ * The NIO engine exchange. Follows the HttpExchange contract so the
+ * services run unchanged on both engines.
+ *
+ * @author SBPrime
+ */
+class NioExchange extends HttpExchange {
+
+    private static final byte[] s_noBody = new byte[0];
+
+    private static final Charset s_charset = Charset.forName("ISO-8859-1");
+
+    private final NioConnection m_connection;
+
+    private final HttpRequestHead m_head;
+
+    private final URI m_uri;
+
+    private final Headers m_responseHeaders = new Headers();
+
+    private final NioOutputStream m_output;
+
+    private InputStream m_requestBody;
+
+    private OutputStream m_responseBody;
+
+    private Map<String, Object> m_attributes;
+
+    private int m_responseCode = -1;
+
+    NioExchange(NioConnection connection, HttpRequestHead head, URI uri, byte[] body) {
+        m_connection = connection;
+        m_head = head;
+        m_uri = uri;
+        m_output = new NioOutputStream(connection);
+        m_requestBody = new ByteArrayInputStream(body != null ? body : s_noBody);
+        m_responseBody = m_output;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return m_head.getHeaders();
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return m_responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return m_uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return m_head.getMethod();
+    }
+
+    /**
+     * Get the Host header value
+     *
+     * @return
+     */
+    String getHost() {
+        return m_head.getHost();
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        try {
+            m_output.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return m_requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return m_responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (m_responseCode >= 0) {
+            throw new IOException("Headers already sent");
+        }
+        m_responseCode = rCode;
+
+        boolean noBody = rCode < 200 || rCode == 204 || rCode == 304;
+        boolean head = "HEAD".equals(m_head.getMethod());
+        boolean closeConnection = !m_head.isKeepAlive();
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("HTTP/1.1 ").append(rCode).append(' ').append(getReason(rCode)).append("\r\n");
+        if (!m_responseHeaders.containsKey("Date")) {
+            sb.append("Date: ").append(HttpDates.now()).append("\r\n");
+        }
+
+        int mode;
+        long length = 0;
+        if (noBody) {
+            mode = NioOutputStream.MODE_EMPTY;
+        } else if (head) {
+            mode = NioOutputStream.MODE_DISCARD;
+            if (responseLength > 0) {
+                sb.append("Content-Length: ").append(responseLength).append("\r\n");
+            }
+        } else if (responseLength < 0) {
+            mode = NioOutputStream.MODE_EMPTY;
+            sb.append("Content-Length: 0\r\n");
+        } else if (responseLength > 0) {
+            mode = NioOutputStream.MODE_FIXED;
+            length = responseLength;
+            sb.append("Content-Length: ").append(responseLength).append("\r\n");
+        } else if ("HTTP/1.0".equals(m_head.getProtocol())) {
+            mode = NioOutputStream.MODE_RAW;
+            closeConnection = true;
+        } else {
+            mode = NioOutputStream.MODE_CHUNKED;
+            sb.append("Transfer-Encoding: chunked\r\n");
+        }
+
+        if (closeConnection) {
+            sb.append("Connection: close\r\n");
+        }
+
+        for (Map.Entry<String, List<String>> entry : m_responseHeaders.entrySet()) {
+            String name = entry.getKey();
+            if (name.equalsIgnoreCase("Content-Length")
+                    || name.equalsIgnoreCase("Transfer-Encoding")) {
+                continue;
+            }
+
+            for (String value : entry.getValue()) {
+                sb.append(name).append(": ").append(value).append("\r\n");
+            }
+        }
+        sb.append("\r\n");
+
+        m_output.begin(sb.toString().getBytes(s_charset), mode, length, closeConnection);
+    }
+
+    /**
+     * Should the connection be kept open after the response
+     *
+     * @return
+     */
+    boolean isKeepAlive() {
+        return m_head.isKeepAlive();
+    }
+
+    /**
+     * Send the pre-serialized response
+     *
+     * @param rCode the response code
+     * @param head the serialized status line and headers (including the
+     * Content-Length and the Connection header matching isKeepAlive)
+     * @param body the response body, retained until written
+     * @throws IOException
+     */
+    void sendPrepared(int rCode, byte[] head, OffHeapStore.Block body) throws IOException {
+        if (m_responseCode >= 0) {
+            throw new IOException("Headers already sent");
+        }
+        m_responseCode = rCode;
+
+        int length = body.size();
+        int mode;
+        if ("HEAD".equals(m_head.getMethod())) {
+            mode = NioOutputStream.MODE_DISCARD;
+        } else {
+            mode = length > 0 ? NioOutputStream.MODE_FIXED : NioOutputStream.MODE_EMPTY;
+        }
+
+        m_output.begin(head, mode, length, !m_head.isKeepAlive());
+        if (mode == NioOutputStream.MODE_FIXED && body.retain()) {
+            m_output.transferBuffer(body.getBuffer(), body);
+        }
+    }
+
+    /**
+     * Send the file range as the response body, the file is written by the
+     * event loop directly to the socket
+     *
+     * @param channel the file, closed once send
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    void sendFile(FileChannel channel, long offset, long length) throws IOException {
+        m_output.transferFile(channel, offset, length);
+    }
+
+    /**
+     * Send the buffer as the response body, the buffer is written by the
+     * event loop directly to the socket
+     *
+     * @param data the data, not modified by any other thread until send
+     * @param block the retained buffer block the data belongs to,
+     * released once written (null if none)
+     * @throws IOException
+     */
+    void sendBuffer(ByteBuffer data, IBufferBlock block) throws IOException {
+        m_output.transferBuffer(data, block);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return m_connection.getRemoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return m_responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return m_connection.getLocalAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return m_head.getProtocol();
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return m_attributes != null ? m_attributes.get(name) : null;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (m_attributes == null) {
+            m_attributes = new HashMap<String, Object>();
+        }
+
+        m_attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            m_requestBody = i;
+        }
+        if (o != null) {
+            m_responseBody = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    /**
+     * Get the status reason phrase
+     *
+     * @param httpCode
+     * @return
+     */
+    static String getReason(int httpCode) {
+        switch (httpCode) {
+            case 100:
+                return "Continue";
+            case 200:
+                return "OK";
+            case 201:
+                return "Created";
+            case 202:
+                return "Accepted";
+            case 204:
+                return "No Content";
+            case 206:
+                return "Partial Content";
+            case 301:
+                return "Moved Permanently";
+            case 302:
+                return "Found";
+            case 303:
+                return "See Other";
+            case 304:
+                return "Not Modified";
+            case 307:
+                return "Temporary Redirect";
+            case 400:
+                return "Bad Request";
+            case 401:
+                return "Unauthorized";
+            case 403:
+                return "Forbidden";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 406:
+                return "Not Acceptable";
+            case 408:
+                return "Request Timeout";
+            case 409:
+                return "Conflict";
+            case 410:
+                return "Gone";
+            case 411:
+                return "Length Required";
+            case 413:
+                return "Payload Too Large";
+            case 416:
+                return "Range Not Satisfiable";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 500:
+                return "Internal Server Error";
+            case 501:
+                return "Not Implemented";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "";
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import org.primesoft.simplehttpserver.SimpleHTTPServerMain;
+import org.primesoft.simplehttpserver.configuration.ConfigProvider;
+import org.primesoft.simplehttpserver.utils.ExceptionReporter;
+
+/**
+ * Selector based HTTP/1.1 server. A small number of event loops read and
+ * write the connections, the services run on the services executor.
+ *
+ * @author SBPrime
+ */
+public class NioHttpServer extends AbstractHttpServer {
+
+    /**
+     * Log a message
+     *
+     * @param msg
+     */
+    private static void log(String msg) {
+        SimpleHTTPServerMain.log(msg);
+    }
+
+    /**
+     * MTA access mutex
+     */
+    private final Object m_mutex = new Object();
+
+    /**
+     * The listening socket
+     */
+    private ServerSocketChannel m_channel;
+
+    /**
+     * The event loops
+     */
+    private NioEventLoop[] m_loops;
+
+    /**
+     * The connection buffers
+     */
+    private BufferPool m_pool;
+
+    /**
+     * The listening port
+     */
+    private int m_port;
+
+    /**
+     * The next loop to receive a connection (acceptor thread only)
+     */
+    private int m_nextLoop;
+
+    /**
+     * The executor used to run the services
+     */
+    private ExecutorService m_executor;
+
+    /**
+     * Maximum request body size
+     */
+    private volatile long m_maxBodySize;
+
+    @Override
+    public boolean startServer(int port) {
+        synchronized (m_mutex) {
+            if (m_channel != null) {
+                stopServer();
+            }
+
+            BufferPool pool = new BufferPool(ConfigProvider.getNioBufferSize(),
+                    ConfigProvider.getNioPoolSize());
+            NioEventLoop[] loops = new NioEventLoop[ConfigProvider.getNioEventLoops()];
+            ServerSocketChannel channel = null;
+
+            try {
+                channel = openChannel(port);
+
+                for (int i = 0; i < loops.length; i++) {
+                    loops[i] = new NioEventLoop(this, pool, ConfigProvider.getNioIdleTimeout() * 1000L);
+                }
+                loops[0].registerAcceptor(channel);
+            } catch (IOException ex) {
+                ExceptionReporter.getDefault().report(ex, "Unable to create the NIO server");
+
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException ex1) {
+                    }
+                }
+                for (NioEventLoop loop : loops) {
+                    if (loop != null) {
+                        loop.stop();
+                    }
+                }
+                return false;
+            }
+
+            m_maxBodySize = ConfigProvider.getNioMaxBodySize();
+            m_executor = ExecutorFactory.createExecutor();
+            m_channel = channel;
+            m_loops = loops;
+            m_pool = pool;
+            m_port = port;
+            m_nextLoop = 0;
+
+            for (int i = 0; i < loops.length; i++) {
+                loops[i].start("SimpleHTTP event loop #" + (i + 1));
+            }
+
+            log("Server started");
+
+            m_registry.start(m_executor);
+            return true;
+        }
+    }
+
+    /**
+     * Open the listening socket
+     *
+     * @param port
+     * @return
+     * @throws IOException
+     */
+    private static ServerSocketChannel openChannel(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(new InetSocketAddress(port));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        return channel;
+    }
+
+    private boolean stopServer(boolean clean) {
+        synchronized (m_mutex) {
+            if (m_channel == null) {
+                log("Server not running");
+                return false;
+            }
+
+            try {
+                m_channel.close();
+            } catch (IOException ex) {
+            }
+            m_channel = null;
+
+            int aborted = drain(m_loops, ConfigProvider.getDrainTimeout() * 1000L);
+            for (NioEventLoop loop : m_loops) {
+                loop.stop();
+            }
+            m_loops = null;
+            m_pool = null;
+
+            m_registry.stop(clean);
+
+            m_executor.shutdown();
+            m_executor = null;
+
+            log(aborted > 0 ? "Server stopped, " + aborted + " requests aborted" : "Server stopped");
+            return true;
+        }
+    }
+
+    /**
+     * Let the requests in progress finish (the listening socket is already
+     * closed)
+     *
+     * @param loops
+     * @param timeout the drain timeout (milliseconds)
+     * @return the number of requests still in progress after the timeout
+     */
+    private static int drain(NioEventLoop[] loops, long timeout) {
+        if (timeout <= 0) {
+            return 0;
+        }
+
+        for (NioEventLoop loop : loops) {
+            loop.drain();
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+        boolean reported = false;
+        while (true) {
+            int busy = 0;
+            boolean counted = true;
+            for (NioEventLoop loop : loops) {
+                int loopBusy = loop.getBusy();
+                if (loopBusy < 0) {
+                    counted = false;
+                } else {
+                    busy += loopBusy;
+                }
+            }
+
+            if (counted && busy == 0) {
+                return 0;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return busy;
+            }
+            if (counted && !reported) {
+                log("Waiting for " + busy + " requests to finish...");
+                reported = true;
+            }
+
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return busy;
+            }
+        }
+    }
+
+    @Override
+    public boolean stopServer() {
+        return stopServer(true);
+    }
+
+    @Override
+    public boolean reload(int port) {
+        synchronized (m_mutex) {
+            if (m_channel == null) {
+                return startServer(port);
+            }
+
+            if (m_loops.length != ConfigProvider.getNioEventLoops()
+                    || m_pool.getBufferSize() != ConfigProvider.getNioBufferSize()
+                    || m_pool.getMaxPooled() != ConfigProvider.getNioPoolSize()) {
+                log("NIO engine settings changed, restarting the server...");
+                return restart(port);
+            }
+
+            m_maxBodySize = ConfigProvider.getNioMaxBodySize();
+            for (NioEventLoop loop : m_loops) {
+                loop.setIdleTimeout(ConfigProvider.getNioIdleTimeout() * 1000L);
+            }
+
+            ExecutorService executor = ExecutorFactory.reconfigure(m_executor);
+            m_registry.reconfigure(executor);
+            if (executor != m_executor) {
+                m_executor.shutdown();
+                m_executor = executor;
+            }
+
+            if (port == m_port) {
+                return true;
+            }
+
+            return rebind(port);
+        }
+    }
+
+    /**
+     * Move the server to the new port. The new socket accepts the
+     * connections before the old socket is closed, the open connections are
+     * kept.
+     *
+     * @param port
+     * @return
+     */
+    private boolean rebind(int port) {
+        final ServerSocketChannel channel;
+        try {
+            channel = openChannel(port);
+        } catch (IOException ex) {
+            ExceptionReporter.getDefault().report(ex, "Unable to bind the server to port " + port);
+            return false;
+        }
+
+        final ServerSocketChannel oldChannel = m_channel;
+        final NioEventLoop acceptor = m_loops[0];
+        m_channel = channel;
+        m_port = port;
+        acceptor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acceptor.registerAcceptor(channel);
+                } catch (ClosedChannelException ex) {
+                    //Server stopped
+                }
+
+                try {
+                    oldChannel.close();
+                } catch (IOException ex) {
+                }
+            }
+        });
+
+        log("Server moved to port " + port);
+        return true;
+    }
+
+    @Override
+    public boolean restart(int port) {
+        synchronized (m_mutex) {
+            stopServer(false);
+            return startServer(port);
+        }
+    }
+
+    long getMaxBodySize() {
+        return m_maxBodySize;
+    }
+
+    /**
+     * Accept the pending connections (acceptor loop)
+     *
+     * @param channel
+     */
+    void accept(ServerSocketChannel channel) {
+        NioEventLoop[] loops = m_loops;
+        if (loops == null) {
+            return;
+        }
+
+        try {
+            SocketChannel client;
+            while ((client = channel.accept()) != null) {
+                try {
+                    client.configureBlocking(false);
+                    client.socket().setTcpNoDelay(true);
+                } catch (IOException ex) {
+                    client.close();
+                    continue;
+                }
+
+                loops[m_nextLoop].register(client);
+                m_nextLoop = (m_nextLoop + 1) % loops.length;
+            }
+        } catch (IOException ex) {
+            //Listening socket closed
+        }
+    }
+
+    /**
+     * Pass the parsed request to the context service (event loop)
+     *
+     * @param exchange
+     */
+    void dispatch(NioExchange exchange) {
+        try {
+            m_registry.dispatch(exchange);
+        } catch (IOException ex) {
+            exchange.close();
+        }
+    }
+}
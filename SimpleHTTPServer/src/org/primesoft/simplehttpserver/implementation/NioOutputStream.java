@@ -0,0 +1,347 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.primesoft.simplehttpserver.api.IBufferBlock;
+
+/**
+ * The NIO engine response body. The data is copied to pooled direct buffers
+ * that are written by the event loop.
+ *
+ * @author SBPrime
+ */
+class NioOutputStream extends OutputStream {
+
+    /**
+     * The response headers were not send
+     */
+    static final int MODE_NONE = 0;
+
+    /**
+     * Response without body
+     */
+    static final int MODE_EMPTY = 1;
+
+    /**
+     * Response body is dropped (HEAD request)
+     */
+    static final int MODE_DISCARD = 2;
+
+    /**
+     * Response with content length
+     */
+    static final int MODE_FIXED = 3;
+
+    /**
+     * Chunked response
+     */
+    static final int MODE_CHUNKED = 4;
+
+    /**
+     * Response body delimited by closing the connection (HTTP/1.0)
+     */
+    static final int MODE_RAW = 5;
+
+    /**
+     * Space reserved for the chunk size (6 hex digits and CRLF)
+     */
+    private static final int CHUNK_HEADER = 8;
+
+    /**
+     * Space reserved for the chunk end (CRLF)
+     */
+    private static final int CHUNK_TRAILER = 2;
+
+    private static final byte[] s_hex = "0123456789abcdef".getBytes();
+
+    private static final byte[] s_lastChunk = "0\r\n\r\n".getBytes();
+
+    private final NioConnection m_connection;
+
+    /**
+     * The response mode
+     */
+    private int m_mode = MODE_NONE;
+
+    /**
+     * Number of bytes that still need to be written (fixed mode)
+     */
+    private long m_remaining;
+
+    /**
+     * The buffer being filled
+     */
+    private ByteBuffer m_buffer;
+
+    /**
+     * Position of the current chunk header (-1 if no chunk is started)
+     */
+    private int m_chunkStart = -1;
+
+    /**
+     * Close the connection after the response
+     */
+    private boolean m_closeConnection;
+
+    private boolean m_closed;
+
+    NioOutputStream(NioConnection connection) {
+        m_connection = connection;
+    }
+
+    /**
+     * Start the response
+     *
+     * @param head the serialized status line and headers
+     * @param mode the response mode
+     * @param length the content length (fixed mode)
+     * @param closeConnection close the connection after the response
+     * @throws IOException
+     */
+    void begin(byte[] head, int mode, long length, boolean closeConnection) throws IOException {
+        m_mode = mode;
+        m_remaining = length;
+        m_closeConnection = closeConnection;
+
+        m_buffer = m_connection.acquireBuffer();
+        if (head.length <= m_buffer.remaining() - CHUNK_HEADER - CHUNK_TRAILER) {
+            m_buffer.put(head);
+        } else {
+            m_connection.write(new NioConnection.Output(ByteBuffer.wrap(head), false));
+        }
+
+        if (mode == MODE_EMPTY || mode == MODE_DISCARD) {
+            flushBuffer();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (m_closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return;
+        }
+
+        switch (m_mode) {
+            case MODE_NONE:
+                throw new IOException("Response headers not send");
+            case MODE_DISCARD:
+                return;
+            case MODE_EMPTY:
+                throw new IOException("Response has no body");
+            case MODE_FIXED:
+                if (len > m_remaining) {
+                    throw new IOException("Too many bytes to write to stream");
+                }
+                m_remaining -= len;
+                break;
+        }
+
+        boolean chunked = m_mode == MODE_CHUNKED;
+        while (len > 0) {
+            if (m_buffer == null) {
+                m_buffer = m_connection.acquireBuffer();
+            }
+
+            if (chunked && m_chunkStart < 0) {
+                if (m_buffer.remaining() <= CHUNK_HEADER + CHUNK_TRAILER) {
+                    flushBuffer();
+                    continue;
+                }
+
+                m_chunkStart = m_buffer.position();
+                m_buffer.position(m_chunkStart + CHUNK_HEADER);
+            }
+
+            int room = m_buffer.remaining() - (chunked ? CHUNK_TRAILER : 0);
+            int count = Math.min(room, len);
+            m_buffer.put(b, off, count);
+            off += count;
+            len -= count;
+
+            if (count == room) {
+                flushBuffer();
+            }
+        }
+    }
+
+    /**
+     * Queue the file range as the response body (fixed mode)
+     *
+     * @param channel the file, closed once send
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    void transferFile(FileChannel channel, long offset, long length) throws IOException {
+        transfer(new NioConnection.FileOutput(channel, offset, length), length);
+    }
+
+    /**
+     * Queue the buffer as the response body (fixed mode)
+     *
+     * @param data the data, not modified until send
+     * @param block the retained block the data belongs to, released once
+     * written (null if none)
+     * @throws IOException
+     */
+    void transferBuffer(ByteBuffer data, IBufferBlock block) throws IOException {
+        transfer(new NioConnection.Output(data, block), data.remaining());
+    }
+
+    private void transfer(NioConnection.Output output, long length) throws IOException {
+        if (m_closed || m_mode != MODE_FIXED || length > m_remaining) {
+            output.release(null);
+            throw new IOException(m_mode == MODE_FIXED && !m_closed
+                    ? "Too many bytes to write to stream" : "Unable to send the response body");
+        }
+
+        m_remaining -= length;
+        flushBuffer();
+        m_connection.write(output);
+    }
+
+    /**
+     * Write the size and the end of the current chunk
+     */
+    private void endChunk() {
+        if (m_chunkStart < 0) {
+            return;
+        }
+
+        int size = m_buffer.position() - m_chunkStart - CHUNK_HEADER;
+        if (size == 0) {
+            m_buffer.position(m_chunkStart);
+        } else {
+            for (int i = 0; i < 6; i++) {
+                m_buffer.put(m_chunkStart + i, s_hex[(size >> (4 * (5 - i))) & 0xf]);
+            }
+            m_buffer.put(m_chunkStart + 6, (byte) '\r');
+            m_buffer.put(m_chunkStart + 7, (byte) '\n');
+            m_buffer.put((byte) '\r');
+            m_buffer.put((byte) '\n');
+        }
+        m_chunkStart = -1;
+    }
+
+    /**
+     * Queue the current buffer for writing
+     *
+     * @throws IOException
+     */
+    private void flushBuffer() throws IOException {
+        if (m_buffer == null) {
+            return;
+        }
+
+        endChunk();
+        if (m_buffer.position() == 0) {
+            return;
+        }
+
+        ByteBuffer buffer = m_buffer;
+        m_buffer = null;
+
+        buffer.flip();
+        m_connection.write(new NioConnection.Output(buffer, true));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (m_closed || m_mode == MODE_NONE) {
+            return;
+        }
+
+        flushBuffer();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+
+        boolean close = m_closeConnection || m_mode == MODE_NONE || m_mode == MODE_RAW;
+        try {
+            if (m_mode == MODE_NONE) {
+                return;
+            }
+
+            if (m_mode == MODE_FIXED && m_remaining > 0) {
+                close = true;
+            }
+
+            if (m_mode == MODE_CHUNKED) {
+                if (m_buffer != null) {
+                    endChunk();
+                    if (m_buffer.remaining() < s_lastChunk.length) {
+                        flushBuffer();
+                    }
+                }
+                if (m_buffer == null) {
+                    m_buffer = m_connection.acquireBuffer();
+                }
+                m_buffer.put(s_lastChunk);
+            }
+
+            flushBuffer();
+        } finally {
+            if (m_buffer != null) {
+                m_connection.releaseBuffer(m_buffer);
+                m_buffer = null;
+            }
+            m_connection.complete(close);
+        }
+    }
+}
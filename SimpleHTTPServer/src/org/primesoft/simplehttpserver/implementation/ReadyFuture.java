@@ -0,0 +1,143 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.primesoft.simplehttpserver.api.IReadyFuture;
+import org.primesoft.simplehttpserver.utils.ExceptionHelper;
+
+/**
+ * The server start future, completed by the startup thread
+ *
+ * @author SBPrime
+ */
+class ReadyFuture implements IReadyFuture {
+
+    private final CountDownLatch m_done = new CountDownLatch(1);
+
+    /**
+     * The listeners waiting for the start (null once completed)
+     */
+    private ArrayList<Runnable> m_listeners = new ArrayList<Runnable>();
+
+    /**
+     * Is the server started
+     */
+    private volatile boolean m_started;
+
+    /**
+     * Complete the future and run the listeners
+     *
+     * @param started
+     */
+    void complete(boolean started) {
+        ArrayList<Runnable> listeners;
+        synchronized (this) {
+            if (m_listeners == null) {
+                return;
+            }
+
+            listeners = m_listeners;
+            m_listeners = null;
+            m_started = started;
+            m_done.countDown();
+        }
+
+        for (Runnable listener : listeners) {
+            runListener(listener);
+        }
+    }
+
+    @Override
+    public void addListener(Runnable listener) {
+        synchronized (this) {
+            if (m_listeners != null) {
+                m_listeners.add(listener);
+                return;
+            }
+        }
+
+        runListener(listener);
+    }
+
+    private static void runListener(Runnable listener) {
+        try {
+            listener.run();
+        } catch (RuntimeException ex) {
+            ExceptionHelper.printException(ex, "Error running the server start listener");
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return m_done.getCount() == 0;
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException, ExecutionException {
+        m_done.await();
+        return m_started;
+    }
+
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!m_done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+
+        return m_started;
+    }
+}
@@ -0,0 +1,707 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.primesoft.simplehttpserver.api.CachePolicy;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.utils.OffHeapStore;
+
+/**
+ * The rendered responses cache shared by all the cached contexts. The cache
+ * has a total byte budget, the least recently used responses are evicted
+ * first. The response bodies are kept in the off-heap store.
+ *
+ * @author SBPrime
+ */
+final class ResponseCache {
+
+    /**
+     * Estimated size of the entry overhead (key and headers)
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    /**
+     * The cached responses, in access order
+     */
+    private final LinkedHashMap<EntryKey, Entry> m_entries = new LinkedHashMap<EntryKey, Entry>(16, 0.75f, true);
+
+    /**
+     * The cache byte budget
+     */
+    private long m_maxSize;
+
+    /**
+     * Maximum size of a cached response body
+     */
+    private int m_maxEntrySize;
+
+    /**
+     * The size of the cached responses
+     */
+    private long m_size;
+
+    ResponseCache(long maxSize, int maxEntrySize) {
+        configure(maxSize, maxEntrySize);
+    }
+
+    /**
+     * Change the cache limits
+     *
+     * @param maxSize
+     * @param maxEntrySize
+     */
+    synchronized void configure(long maxSize, int maxEntrySize) {
+        m_maxSize = Math.max(0, maxSize);
+        m_maxEntrySize = (int) Math.max(0, Math.min(maxEntrySize, m_maxSize));
+        trim();
+    }
+
+    /**
+     * Remove all the cached responses
+     */
+    synchronized void clear() {
+        for (Entry entry : m_entries.values()) {
+            entry.release();
+        }
+        m_entries.clear();
+        m_size = 0;
+    }
+
+    /**
+     * Create the cache region of a context
+     *
+     * @param policy
+     * @return
+     */
+    Region createRegion(CachePolicy policy) {
+        return new Region(this, policy);
+    }
+
+    private synchronized int getMaxEntrySize() {
+        return m_maxEntrySize;
+    }
+
+    /**
+     * Get the cached response, the returned entry is retained
+     *
+     * @param key
+     * @return
+     */
+    private synchronized Entry get(EntryKey key) {
+        Entry entry = m_entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.m_generation != key.m_region.m_generation || entry.isExpired()) {
+            remove(key);
+            return null;
+        }
+
+        entry.retain();
+        return entry;
+    }
+
+    private synchronized void put(EntryKey key, Entry entry) {
+        if (entry.m_generation != key.m_region.m_generation || entry.m_size > m_maxSize) {
+            return;
+        }
+
+        remove(key);
+        entry.retain();
+        m_entries.put(key, entry);
+        m_size += entry.m_size;
+        trim();
+    }
+
+    private synchronized void removeAll(Region region) {
+        Iterator<Map.Entry<EntryKey, Entry>> it = m_entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<EntryKey, Entry> entry = it.next();
+            if (entry.getKey().m_region == region) {
+                m_size -= entry.getValue().m_size;
+                entry.getValue().release();
+                it.remove();
+            }
+        }
+    }
+
+    private void remove(EntryKey key) {
+        Entry old = m_entries.remove(key);
+        if (old != null) {
+            m_size -= old.m_size;
+            old.release();
+        }
+    }
+
+    /**
+     * Evict the least recently used responses above the budget
+     */
+    private void trim() {
+        Iterator<Entry> it = m_entries.values().iterator();
+        while (m_size > m_maxSize && it.hasNext()) {
+            Entry entry = it.next();
+            m_size -= entry.m_size;
+            entry.release();
+            it.remove();
+        }
+    }
+
+    /**
+     * The cached responses of a context
+     */
+    static final class Region {
+
+        private final ResponseCache m_owner;
+
+        private final CachePolicy m_policy;
+
+        /**
+         * The request headers used as the key
+         */
+        private final String[] m_headers;
+
+        /**
+         * Incremented on invalidation, the responses rendered for an older
+         * generation are not used
+         */
+        private volatile int m_generation;
+
+        /**
+         * The running renders of the coalesced requests
+         */
+        private final ConcurrentHashMap<String, Flight> m_inFlight = new ConcurrentHashMap<String, Flight>();
+
+        private Region(ResponseCache owner, CachePolicy policy) {
+            m_owner = owner;
+            m_policy = policy;
+            m_headers = policy.getHeaders();
+        }
+
+        /**
+         * Build the request cache key
+         *
+         * @param exchange
+         * @return the key or null if the request is not cacheable
+         */
+        String getKey(HttpExchange exchange) {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                return null;
+            }
+
+            URI uri = exchange.getRequestURI();
+            String path = uri.getRawPath();
+            String query = m_policy.isIncludeQuery() ? uri.getRawQuery() : null;
+            if (query == null && m_headers.length == 0) {
+                return path;
+            }
+
+            StringBuilder sb = new StringBuilder(path);
+            if (query != null) {
+                sb.append('?').append(query);
+            }
+
+            Headers headers = exchange.getRequestHeaders();
+            for (String name : m_headers) {
+                String value = headers.getFirst(name);
+                sb.append('\n');
+                if (value != null) {
+                    sb.append(value);
+                }
+            }
+
+            return sb.toString();
+        }
+
+        /**
+         * Get the cached response, the caller needs to release the returned
+         * entry
+         *
+         * @param key
+         * @return the response or null if not cached
+         */
+        Entry get(String key) {
+            if (!m_policy.isStore()) {
+                return null;
+            }
+
+            return m_owner.get(new EntryKey(this, key));
+        }
+
+        /**
+         * Start recording the rendered response. When coalescing and the
+         * same response is already rendered, the request is detached and
+         * waits for the running render.
+         *
+         * @param key
+         * @param request
+         * @return the recorder or null if the request is waiting
+         */
+        Recorder record(String key, HttpRequest request) {
+            if (!m_policy.isCoalesce()) {
+                return new Recorder(this, key, m_generation, m_owner.getMaxEntrySize(), null);
+            }
+
+            Flight flight = new Flight();
+            while (true) {
+                Flight running = m_inFlight.putIfAbsent(key, flight);
+                if (running == null) {
+                    return new Recorder(this, key, m_generation, m_owner.getMaxEntrySize(), flight);
+                }
+
+                if (running.join(request)) {
+                    return null;
+                }
+
+                m_inFlight.remove(key, running);
+            }
+        }
+
+        /**
+         * The render is finished, pass the response to the waiting requests
+         *
+         * @param key
+         * @param flight
+         * @param entry the response, null if not cacheable
+         */
+        private void land(String key, Flight flight, Entry entry) {
+            m_inFlight.remove(key, flight);
+            for (HttpRequest request : flight.complete()) {
+                if (entry != null) {
+                    entry.retain();
+                }
+                request.getOwner().replay(request, entry);
+            }
+        }
+
+        /**
+         * Drop all the cached responses
+         */
+        void invalidate() {
+            synchronized (m_owner) {
+                m_generation++;
+            }
+            m_inFlight.clear();
+            m_owner.removeAll(this);
+        }
+    }
+
+    /**
+     * The cached response
+     */
+    static final class Entry {
+
+        private final int m_code;
+
+        private final Map<String, List<String>> m_headers;
+
+        private final OffHeapStore.Block m_body;
+
+        private final int m_generation;
+
+        /**
+         * The response creation time (nano time)
+         */
+        private final long m_created;
+
+        /**
+         * The response expiration time (nano time, 0 for never)
+         */
+        private final long m_expires;
+
+        /**
+         * The entry size used for the cache budget
+         */
+        private final int m_size;
+
+        private Entry(int code, Map<String, List<String>> headers, OffHeapStore.Block body,
+                int generation, long ttl) {
+            m_code = code;
+            m_headers = headers;
+            m_body = body;
+            m_generation = generation;
+            m_created = System.nanoTime();
+            m_expires = ttl > 0 ? m_created + TimeUnit.MILLISECONDS.toNanos(ttl) : 0;
+            m_size = body.size() + ENTRY_OVERHEAD;
+        }
+
+        private boolean isExpired() {
+            return m_expires != 0 && System.nanoTime() - m_expires >= 0;
+        }
+
+        int getCode() {
+            return m_code;
+        }
+
+        OffHeapStore.Block getBody() {
+            return m_body;
+        }
+
+        void retain() {
+            m_body.retain();
+        }
+
+        void release() {
+            m_body.release();
+        }
+
+        /**
+         * The response age (in seconds)
+         *
+         * @return
+         */
+        long getAge() {
+            return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - m_created);
+        }
+
+        /**
+         * Copy the response headers to the exchange headers, the headers
+         * already set are not replaced
+         *
+         * @param headers
+         */
+        void copyHeaders(Headers headers) {
+            for (Map.Entry<String, List<String>> header : m_headers.entrySet()) {
+                if (!headers.containsKey(header.getKey())) {
+                    headers.put(header.getKey(), new ArrayList<String>(header.getValue()));
+                }
+            }
+        }
+    }
+
+    /**
+     * The running render of the coalesced requests
+     */
+    private static final class Flight {
+
+        private final List<HttpRequest> m_waiting = new ArrayList<HttpRequest>();
+
+        private boolean m_done;
+
+        /**
+         * Wait for the render
+         *
+         * @param request
+         * @return false if the render is already finished
+         */
+        synchronized boolean join(HttpRequest request) {
+            if (m_done) {
+                return false;
+            }
+
+            request.detach();
+            m_waiting.add(request);
+            return true;
+        }
+
+        synchronized List<HttpRequest> complete() {
+            m_done = true;
+            return m_waiting;
+        }
+    }
+
+    /**
+     * Records the rendered response, the body written to the response stream
+     * is copied to the recorder
+     */
+    static final class Recorder extends OutputStream {
+
+        private final Region m_region;
+
+        private final String m_key;
+
+        private final int m_generation;
+
+        private final int m_maxSize;
+
+        /**
+         * The coalesced render (null if not coalescing)
+         */
+        private Flight m_flight;
+
+        /**
+         * The response stream (set when the response is send)
+         */
+        private OutputStream m_target;
+
+        private int m_code;
+
+        private Map<String, List<String>> m_headers;
+
+        /**
+         * The declared body size (-1 if not known)
+         */
+        private long m_expectedSize = -1;
+
+        private byte[] m_body;
+
+        private int m_length;
+
+        /**
+         * The response can not be cached
+         */
+        private boolean m_rejected;
+
+        private Recorder(Region region, String key, int generation, int maxSize, Flight flight) {
+            m_region = region;
+            m_key = key;
+            m_generation = generation;
+            m_maxSize = maxSize;
+            m_flight = flight;
+        }
+
+        /**
+         * Start recording the response
+         *
+         * @param code the response code
+         * @param bodySize the body size (0 for unknown, -1 for no body)
+         * @param headers the response headers
+         * @return false if the response can not be cached
+         */
+        boolean start(int code, long bodySize, Headers headers) {
+            if (code != HttpStatusCodes.OK || bodySize > m_maxSize || !isCacheable(headers)) {
+                reject();
+                return false;
+            }
+
+            Map<String, List<String>> copy = new HashMap<String, List<String>>();
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                copy.put(header.getKey(), Collections.unmodifiableList(new ArrayList<String>(header.getValue())));
+            }
+
+            m_code = code;
+            m_headers = Collections.unmodifiableMap(copy);
+            m_expectedSize = bodySize > 0 ? bodySize : (bodySize < 0 ? 0 : -1);
+            m_body = new byte[bodySize > 0 ? (int) bodySize : 256];
+            return true;
+        }
+
+        /**
+         * Set the stream the response body is written to
+         *
+         * @param target
+         */
+        void setTarget(OutputStream target) {
+            m_target = target;
+        }
+
+        boolean hasTarget() {
+            return m_target != null;
+        }
+
+        /**
+         * Record the complete response body
+         *
+         * @param data
+         */
+        void append(ByteBuffer data) {
+            int length = data.remaining();
+            if (m_rejected || !ensureCapacity(length)) {
+                return;
+            }
+
+            data.get(m_body, m_length, length);
+            m_length += length;
+        }
+
+        /**
+         * Stop recording, the response is not cached
+         */
+        void reject() {
+            m_rejected = true;
+            m_body = null;
+            complete(null);
+        }
+
+        /**
+         * Store the recorded response
+         */
+        void commit() {
+            if (m_rejected || m_body == null
+                    || (m_expectedSize >= 0 && m_expectedSize != m_length)) {
+                complete(null);
+                return;
+            }
+
+            OffHeapStore.Block body = OffHeapStore.getDefault().copyOf(m_body, 0, m_length);
+            m_body = null;
+            Entry entry = new Entry(m_code, m_headers, body, m_generation, m_region.m_policy.getTtl());
+            try {
+                if (m_region.m_policy.isStore()) {
+                    m_region.m_owner.put(new EntryKey(m_region, m_key), entry);
+                }
+                complete(entry);
+            } finally {
+                entry.release();
+            }
+        }
+
+        /**
+         * Pass the response to the coalesced requests
+         *
+         * @param entry
+         */
+        private void complete(Entry entry) {
+            Flight flight = m_flight;
+            if (flight != null) {
+                m_flight = null;
+                m_region.land(m_key, flight, entry);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            m_target.write(b);
+            if (!m_rejected && ensureCapacity(1)) {
+                m_body[m_length++] = (byte) b;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            m_target.write(b, off, len);
+            if (!m_rejected && ensureCapacity(len)) {
+                System.arraycopy(b, off, m_body, m_length, len);
+                m_length += len;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            m_target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_target.close();
+        }
+
+        private boolean ensureCapacity(int count) {
+            long required = (long) m_length + count;
+            if (required > m_maxSize) {
+                reject();
+                return false;
+            }
+
+            if (required > m_body.length) {
+                m_body = Arrays.copyOf(m_body, (int) Math.min(m_maxSize,
+                        Math.max(required, (long) m_body.length * 2)));
+            }
+
+            return true;
+        }
+
+        /**
+         * Check the response cache headers
+         *
+         * @param headers
+         * @return
+         */
+        private static boolean isCacheable(Headers headers) {
+            if (headers.containsKey("Set-Cookie")) {
+                return false;
+            }
+
+            List<String> cacheControl = headers.get("Cache-Control");
+            if (cacheControl == null) {
+                return true;
+            }
+
+            for (String value : cacheControl) {
+                String v = value.toLowerCase(Locale.ENGLISH);
+                if (v.contains("no-store") || v.contains("private")) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * The region and the request key
+     */
+    private static final class EntryKey {
+
+        private final Region m_region;
+
+        private final String m_key;
+
+        EntryKey(Region region, String key) {
+            m_region = region;
+            m_key = key;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof EntryKey)) {
+                return false;
+            }
+
+            EntryKey other = (EntryKey) obj;
+            return m_region == other.m_region && m_key.equals(other.m_key);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(m_region) * 31 + m_key.hashCode();
+        }
+    }
+}
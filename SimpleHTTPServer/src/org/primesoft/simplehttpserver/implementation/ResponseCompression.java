@@ -0,0 +1,201 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import org.primesoft.simplehttpserver.api.IHeaders;
+import org.primesoft.simplehttpserver.configuration.ConfigProvider;
+
+/**
+ * Response compression negotiation
+ *
+ * @author SBPrime
+ */
+final class ResponseCompression {
+
+    static final String GZIP = "gzip";
+
+    static final String DEFLATE = "deflate";
+
+    /**
+     * The gzip deflaters
+     */
+    private static final DeflaterPool s_gzipPool = new DeflaterPool(true, ConfigProvider.getCompressionPoolSize());
+
+    /**
+     * The deflate (zlib) deflaters
+     */
+    private static final DeflaterPool s_deflatePool = new DeflaterPool(false, ConfigProvider.getCompressionPoolSize());
+
+    private ResponseCompression() {
+    }
+
+    /**
+     * Apply the reloaded pool size
+     */
+    static void configure() {
+        int poolSize = ConfigProvider.getCompressionPoolSize();
+        s_gzipPool.setMaxPooled(poolSize);
+        s_deflatePool.setMaxPooled(poolSize);
+    }
+
+    /**
+     * Select the response encoding, sets the Vary header if the response
+     * can be compressed
+     *
+     * @param requestHeaders
+     * @param responseHeaders
+     * @param httpCode the response code
+     * @param bodySize the response size (0 if not known)
+     * @return the encoding or null if the response should not be compressed
+     */
+    static String select(IHeaders requestHeaders, IHeaders responseHeaders,
+            int httpCode, int bodySize) {
+        if (!ConfigProvider.getCompressionEnabled()
+                || httpCode < 200 || httpCode == 204 || httpCode == 206 || httpCode == 304
+                || bodySize < 0 || (bodySize > 0 && bodySize < ConfigProvider.getCompressionMinSize())
+                || responseHeaders.getFirst("Content-Encoding") != null
+                || !isCompressible(responseHeaders.getFirst("Content-Type"))) {
+            return null;
+        }
+
+        responseHeaders.add("Vary", "Accept-Encoding");
+        return negotiate(requestHeaders.getFirst("Accept-Encoding"));
+    }
+
+    /**
+     * Create the compressing stream
+     *
+     * @param output the response stream
+     * @param encoding the selected encoding
+     * @return
+     */
+    static CompressionOutputStream wrap(OutputStream output, String encoding) {
+        int level = ConfigProvider.getCompressionLevel();
+        if (GZIP.equals(encoding)) {
+            return new CompressionOutputStream(output, s_gzipPool, s_gzipPool.acquire(level), true);
+        }
+
+        return new CompressionOutputStream(output, s_deflatePool, s_deflatePool.acquire(level), false);
+    }
+
+    private static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+
+        contentType = contentType.trim().toLowerCase(Locale.ENGLISH);
+        List<String> types = ConfigProvider.getCompressionContentTypes();
+        for (String type : types) {
+            if (contentType.startsWith(type)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Select the encoding from the Accept-Encoding header, gzip is preferred
+     *
+     * @param acceptEncoding
+     * @return
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        //null if not listed, an explicit q=0 excludes the coding even if
+        //the wildcard is accepted
+        Boolean gzip = null;
+        Boolean deflate = null;
+        Boolean any = null;
+        for (String entry : acceptEncoding.split(",")) {
+            String[] parts = entry.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ENGLISH);
+            boolean accepted = isAccepted(parts);
+
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzip = accepted;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = accepted;
+            } else if (coding.equals("*")) {
+                any = accepted;
+            }
+        }
+
+        if (gzip == null ? Boolean.TRUE.equals(any) : gzip) {
+            return GZIP;
+        }
+        if (deflate == null ? Boolean.TRUE.equals(any) : deflate) {
+            return DEFLATE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Check the quality value of the coding
+     *
+     * @param parts the coding and its parameters
+     * @return false if q=0
+     */
+    private static boolean isAccepted(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (!param.startsWith("q=")) {
+                continue;
+            }
+
+            try {
+                return Double.parseDouble(param.substring(2)) > 0;
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import com.sun.net.httpserver.HttpHandler;
+import java.util.Arrays;
+
+/**
+ * Immutable context to service snapshot. A registration change creates a new
+ * table, the request path reads the current table without locking.
+ *
+ * @author SBPrime
+ */
+final class RouteTable {
+
+    /**
+     * The table without any routes
+     */
+    static final RouteTable EMPTY = new RouteTable(new String[0], new HttpHandler[0]);
+
+    /**
+     * The contexts, longest first
+     */
+    private final String[] m_contexts;
+
+    /**
+     * The context services
+     */
+    private final HttpHandler[] m_handlers;
+
+    private RouteTable(String[] contexts, HttpHandler[] handlers) {
+        m_contexts = contexts;
+        m_handlers = handlers;
+    }
+
+    boolean isEmpty() {
+        return m_contexts.length == 0;
+    }
+
+    /**
+     * Create a table with the route added (or replaced)
+     *
+     * @param context
+     * @param handler
+     * @return
+     */
+    RouteTable with(String context, HttpHandler handler) {
+        RouteTable base = without(context);
+        int count = base.m_contexts.length;
+        String[] contexts = new String[count + 1];
+        HttpHandler[] handlers = new HttpHandler[count + 1];
+
+        int pos = 0;
+        while (pos < count && base.m_contexts[pos].length() >= context.length()) {
+            pos++;
+        }
+
+        System.arraycopy(base.m_contexts, 0, contexts, 0, pos);
+        System.arraycopy(base.m_handlers, 0, handlers, 0, pos);
+        contexts[pos] = context;
+        handlers[pos] = handler;
+        System.arraycopy(base.m_contexts, pos, contexts, pos + 1, count - pos);
+        System.arraycopy(base.m_handlers, pos, handlers, pos + 1, count - pos);
+
+        return new RouteTable(contexts, handlers);
+    }
+
+    /**
+     * Create a table without the route
+     *
+     * @param context
+     * @return
+     */
+    RouteTable without(String context) {
+        for (int i = 0; i < m_contexts.length; i++) {
+            if (!m_contexts[i].equals(context)) {
+                continue;
+            }
+
+            int count = m_contexts.length;
+            String[] contexts = Arrays.copyOf(m_contexts, count - 1);
+            HttpHandler[] handlers = Arrays.copyOf(m_handlers, count - 1);
+            System.arraycopy(m_contexts, i + 1, contexts, i, count - i - 1);
+            System.arraycopy(m_handlers, i + 1, handlers, i, count - i - 1);
+
+            return new RouteTable(contexts, handlers);
+        }
+
+        return this;
+    }
+
+    /**
+     * Find the service for the longest context matching the path
+     *
+     * @param path
+     * @return the service or null if not found
+     */
+    HttpHandler find(String path) {
+        if (path == null) {
+            path = "";
+        }
+
+        String[] contexts = m_contexts;
+        for (int i = 0; i < contexts.length; i++) {
+            if (path.startsWith(contexts[i])) {
+                return m_handlers[i];
+            }
+        }
+
+        return null;
+    }
+}
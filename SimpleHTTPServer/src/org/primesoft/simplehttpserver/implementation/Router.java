@@ -0,0 +1,472 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.api.IHttpRequest;
+import org.primesoft.simplehttpserver.api.IRouter;
+import org.primesoft.simplehttpserver.api.IService;
+
+/**
+ * Path segment trie router. The routes are compiled to an immutable trie
+ * when changed, the requests are matched without locking and without
+ * splitting the path.
+ *
+ * @author SBPrime
+ */
+public class Router implements IRouter {
+
+    /**
+     * Matches any method
+     */
+    private static final String ANY_METHOD = "*";
+
+    private static final String[] s_noNames = new String[0];
+
+    /**
+     * The route definitions (method and pattern structure to route)
+     */
+    private final LinkedHashMap<String, Route> m_routes = new LinkedHashMap<String, Route>();
+
+    /**
+     * The compiled routes
+     */
+    private volatile Trie m_trie = new Trie(new Node(), 0);
+
+    @Override
+    public IRouter add(String method, String pattern, IService service) {
+        if (service == null) {
+            throw new IllegalArgumentException("No service provided");
+        }
+
+        Route route = new Route(method.toUpperCase(Locale.ENGLISH), pattern, service);
+        synchronized (m_routes) {
+            m_routes.put(route.getKey(), route);
+            compile();
+        }
+
+        return this;
+    }
+
+    @Override
+    public IRouter get(String pattern, IService service) {
+        return add("GET", pattern, service);
+    }
+
+    @Override
+    public IRouter post(String pattern, IService service) {
+        return add("POST", pattern, service);
+    }
+
+    @Override
+    public IRouter remove(String method, String pattern) {
+        Route route = new Route(method.toUpperCase(Locale.ENGLISH), pattern, null);
+        synchronized (m_routes) {
+            if (m_routes.remove(route.getKey()) != null) {
+                compile();
+            }
+        }
+
+        return this;
+    }
+
+    @Override
+    public void handle(IHttpRequest request) throws IOException {
+        Trie trie = m_trie;
+        String path = request.getUri().getPath();
+        if (path == null) {
+            path = "";
+        }
+
+        int[] captures = new int[trie.m_maxCaptures * 2];
+        Node node = match(trie.m_root, path, 0, captures, 0);
+        if (node == null) {
+            request.sendResponse(HttpStatusCodes.NOT_FOUND, -1);
+            return;
+        }
+
+        String method = request.getMethod();
+        Slot slot = node.find(method);
+        if (slot == null && "HEAD".equals(method)) {
+            slot = node.find("GET");
+        }
+        if (slot == null) {
+            slot = node.find(ANY_METHOD);
+        }
+        if (slot == null) {
+            request.getResponseHeader().add("Allow", node.m_allow);
+            request.sendResponse(HttpStatusCodes.METHOD_NOT_ALLOWED, -1);
+            return;
+        }
+
+        if (slot.m_names.length > 0 && request instanceof HttpRequest) {
+            ((HttpRequest) request).setPathParameters(new PathParameters(path, slot.m_names, captures));
+        }
+
+        slot.m_service.handle(request);
+    }
+
+    /**
+     * Match the path (backtracking: static segment, parameter, tail)
+     *
+     * @param node the current node
+     * @param path the request path
+     * @param pos the position in the path
+     * @param captures the captured parameter bounds
+     * @param captured number of captured parameters
+     * @return the matched route node or null if not found
+     */
+    private static Node match(Node node, String path, int pos, int[] captures, int captured) {
+        int length = path.length();
+        while (pos < length && path.charAt(pos) == '/') {
+            pos++;
+        }
+
+        if (pos == length) {
+            if (node.m_slots.length > 0) {
+                return node;
+            }
+            if (node.m_tail != null) {
+                captures[captured * 2] = length;
+                captures[captured * 2 + 1] = length;
+                return node.m_tail;
+            }
+            return null;
+        }
+
+        int end = path.indexOf('/', pos);
+        if (end < 0) {
+            end = length;
+        }
+
+        String[] names = node.m_names;
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            if (name.length() == end - pos && path.regionMatches(pos, name, 0, name.length())) {
+                Node result = match(node.m_children[i], path, end, captures, captured);
+                if (result != null) {
+                    return result;
+                }
+                break;
+            }
+        }
+
+        if (node.m_parameter != null) {
+            Node result = match(node.m_parameter, path, end, captures, captured + 1);
+            if (result != null) {
+                captures[captured * 2] = pos;
+                captures[captured * 2 + 1] = end;
+                return result;
+            }
+        }
+
+        if (node.m_tail != null) {
+            captures[captured * 2] = pos;
+            captures[captured * 2 + 1] = length;
+            return node.m_tail;
+        }
+
+        return null;
+    }
+
+    /**
+     * Build the trie from the route definitions (route mutex)
+     */
+    private void compile() {
+        Node root = new Node();
+        int maxCaptures = 0;
+        for (Route route : m_routes.values()) {
+            Node node = root;
+            for (String segment : route.m_segments) {
+                if (segment == null) {
+                    if (node.m_parameter == null) {
+                        node.m_parameter = new Node();
+                    }
+                    node = node.m_parameter;
+                } else {
+                    node = node.child(segment);
+                }
+            }
+
+            if (route.m_tail) {
+                if (node.m_tail == null) {
+                    node.m_tail = new Node();
+                }
+                node = node.m_tail;
+            }
+
+            node.add(route.m_method, new Slot(route.m_service, route.m_names));
+            maxCaptures = Math.max(maxCaptures, route.m_names.length);
+        }
+
+        root.seal();
+        m_trie = new Trie(root, maxCaptures);
+    }
+
+    /**
+     * The compiled routes
+     */
+    private static class Trie {
+
+        private final Node m_root;
+
+        /**
+         * Maximum number of parameters in a route
+         */
+        private final int m_maxCaptures;
+
+        Trie(Node root, int maxCaptures) {
+            m_root = root;
+            m_maxCaptures = maxCaptures;
+        }
+    }
+
+    /**
+     * The trie node, not modified once compiled
+     */
+    private static class Node {
+
+        /**
+         * The static segment children names
+         */
+        private String[] m_names = s_noNames;
+
+        /**
+         * The static segment children
+         */
+        private Node[] m_children = new Node[0];
+
+        /**
+         * The parameter segment child
+         */
+        private Node m_parameter;
+
+        /**
+         * The tail wildcard route
+         */
+        private Node m_tail;
+
+        /**
+         * The route methods
+         */
+        private String[] m_methods = s_noNames;
+
+        /**
+         * The route services
+         */
+        private Slot[] m_slots = new Slot[0];
+
+        /**
+         * The Allow header value
+         */
+        private String m_allow;
+
+        Node child(String name) {
+            for (int i = 0; i < m_names.length; i++) {
+                if (m_names[i].equals(name)) {
+                    return m_children[i];
+                }
+            }
+
+            Node result = new Node();
+            m_names = Arrays.copyOf(m_names, m_names.length + 1);
+            m_children = Arrays.copyOf(m_children, m_children.length + 1);
+            m_names[m_names.length - 1] = name;
+            m_children[m_children.length - 1] = result;
+
+            return result;
+        }
+
+        void add(String method, Slot slot) {
+            m_methods = Arrays.copyOf(m_methods, m_methods.length + 1);
+            m_slots = Arrays.copyOf(m_slots, m_slots.length + 1);
+            m_methods[m_methods.length - 1] = method;
+            m_slots[m_slots.length - 1] = slot;
+        }
+
+        Slot find(String method) {
+            for (int i = 0; i < m_methods.length; i++) {
+                if (m_methods[i].equals(method)) {
+                    return m_slots[i];
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Compute the Allow headers
+         */
+        void seal() {
+            if (m_slots.length > 0) {
+                StringBuilder sb = new StringBuilder();
+                for (String method : m_methods) {
+                    if (sb.length() > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(method);
+                    if (method.equals("GET") && find("HEAD") == null) {
+                        sb.append(", HEAD");
+                    }
+                }
+                m_allow = sb.toString();
+            }
+
+            for (Node child : m_children) {
+                child.seal();
+            }
+            if (m_parameter != null) {
+                m_parameter.seal();
+            }
+            if (m_tail != null) {
+                m_tail.seal();
+            }
+        }
+    }
+
+    /**
+     * The route service and its parameter names
+     */
+    private static class Slot {
+
+        private final IService m_service;
+
+        private final String[] m_names;
+
+        Slot(IService service, String[] names) {
+            m_service = service;
+            m_names = names;
+        }
+    }
+
+    /**
+     * The parsed route definition
+     */
+    private static class Route {
+
+        private final String m_method;
+
+        private final IService m_service;
+
+        /**
+         * The static segments (null for parameters)
+         */
+        private final String[] m_segments;
+
+        /**
+         * The parameter names (including the tail)
+         */
+        private final String[] m_names;
+
+        /**
+         * Does the route end with a tail wildcard
+         */
+        private final boolean m_tail;
+
+        Route(String method, String pattern, IService service) {
+            m_method = method;
+            m_service = service;
+
+            List<String> segments = new ArrayList<String>();
+            List<String> names = new ArrayList<String>();
+            boolean tail = false;
+            for (String segment : pattern.split("/")) {
+                if (segment.isEmpty()) {
+                    continue;
+                }
+                if (tail) {
+                    throw new IllegalArgumentException("The tail wildcard must be the last segment: " + pattern);
+                }
+
+                if (segment.equals("*")) {
+                    tail = true;
+                    names.add("*");
+                } else if (segment.startsWith("{") && segment.endsWith("}")) {
+                    String name = segment.substring(1, segment.length() - 1);
+                    if (name.endsWith("*")) {
+                        tail = true;
+                        name = name.substring(0, name.length() - 1);
+                    } else {
+                        segments.add(null);
+                    }
+
+                    if (name.isEmpty() || names.contains(name)) {
+                        throw new IllegalArgumentException("Invalid parameter name in " + pattern);
+                    }
+                    names.add(name);
+                } else if (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0) {
+                    throw new IllegalArgumentException("Invalid pattern segment: " + pattern);
+                } else {
+                    segments.add(segment);
+                }
+            }
+
+            m_segments = segments.toArray(new String[segments.size()]);
+            m_names = names.isEmpty() ? s_noNames : names.toArray(new String[names.size()]);
+            m_tail = tail;
+        }
+
+        /**
+         * The route key, routes with the same structure and method have the
+         * same key
+         *
+         * @return
+         */
+        String getKey() {
+            StringBuilder sb = new StringBuilder(m_method).append(' ');
+            for (String segment : m_segments) {
+                sb.append('/').append(segment != null ? segment : "{}");
+            }
+            if (m_tail) {
+                sb.append("/*");
+            }
+
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import org.primesoft.simplehttpserver.SimpleHTTPServerMain;
+import org.primesoft.simplehttpserver.configuration.ConfigProvider;
+import org.primesoft.simplehttpserver.api.CachePolicy;
+import org.primesoft.simplehttpserver.api.ExecutionPolicy;
+import org.primesoft.simplehttpserver.api.IFilter;
+import org.primesoft.simplehttpserver.api.IService;
+import org.primesoft.simplehttpserver.metrics.ContextMetrics;
+import org.primesoft.simplehttpserver.metrics.ServerMetrics;
+
+/**
+ * The registered services of a server. The registration changes are
+ * serialized, the requests are dispatched using the published route
+ * snapshot without locking.
+ *
+ * @author SBPrime
+ */
+class ServiceRegistry {
+
+    /**
+     * Log a message
+     *
+     * @param msg
+     */
+    private static void log(String msg) {
+        SimpleHTTPServerMain.log(msg);
+    }
+
+    /**
+     * List of all registered services
+     */
+    private final LinkedHashMap<RouteKey, Registration> m_registrations = new LinkedHashMap<RouteKey, Registration>();
+
+    /**
+     * The running bulkheads of the isolated contexts
+     */
+    private final HashMap<RouteKey, Bulkhead> m_bulkheads = new HashMap<RouteKey, Bulkhead>();
+
+    /**
+     * The response cache regions of the cached contexts
+     */
+    private final HashMap<RouteKey, ResponseCache.Region> m_cacheRegions = new HashMap<RouteKey, ResponseCache.Region>();
+
+    /**
+     * The rendered responses cache
+     */
+    private final ResponseCache m_cache = new ResponseCache(ConfigProvider.getCacheMaxSize(),
+            ConfigProvider.getCacheMaxEntrySize());
+
+    /**
+     * The registered contexts request metrics
+     */
+    private final ServerMetrics m_metrics = new ServerMetrics();
+
+    /**
+     * The installed filters, sorted by the order
+     */
+    private final ArrayList<FilterEntry> m_filters = new ArrayList<FilterEntry>();
+
+    /**
+     * The executor used to run the services (null if the server is stopped)
+     */
+    private Executor m_executor;
+
+    /**
+     * The active routes
+     */
+    private volatile HostTable m_routes = HostTable.EMPTY;
+
+    /**
+     * Register the service
+     *
+     * @param host the host name, null for all the hosts
+     * @param context
+     * @param service
+     * @param policy the context execution policy, null to use the shared
+     * executor
+     * @param cache the context cache policy, null to disable caching
+     */
+    synchronized void register(String host, String context, IService service,
+            ExecutionPolicy policy, CachePolicy cache) {
+        RouteKey key = new RouteKey(host, context);
+        if (m_registrations.containsKey(key)) {
+            log("Service for " + key + " already registered.");
+            return;
+        }
+
+        Registration registration = new Registration(service, policy, cache,
+                m_metrics.register(key.toString()));
+        m_registrations.put(key, registration);
+        if (m_executor != null) {
+            m_routes = publish(m_routes, key, createWrapper(key, registration));
+        }
+
+        log("Service for " + key + " registered.");
+    }
+
+    /**
+     * Register the constant response
+     *
+     * @param host the host name, null for all the hosts
+     * @param context
+     * @param response
+     */
+    synchronized void registerStatic(String host, String context, StaticResponse response) {
+        RouteKey key = new RouteKey(host, context);
+        if (m_registrations.containsKey(key)) {
+            log("Service for " + key + " already registered.");
+            response.release();
+            return;
+        }
+
+        Registration registration = new Registration(response,
+                m_metrics.register(key.toString()));
+        response.setMetrics(registration.m_metrics);
+        m_registrations.put(key, registration);
+        if (m_executor != null) {
+            m_routes = publish(m_routes, key, createWrapper(key, registration));
+        }
+
+        log("Static response for " + key + " registered.");
+    }
+
+    /**
+     * Unregister the service
+     *
+     * @param host the host name, null for all the hosts
+     * @param context
+     */
+    synchronized void unregister(String host, String context) {
+        RouteKey key = new RouteKey(host, context);
+        Registration registration = m_registrations.remove(key);
+        if (registration == null) {
+            log("Service for " + key + " notregistered.");
+            return;
+        }
+
+        m_routes = publish(m_routes, key, null);
+        m_metrics.unregister(registration.m_metrics);
+        if (registration.m_static != null) {
+            registration.m_static.release();
+        }
+
+        Bulkhead bulkhead = m_bulkheads.remove(key);
+        if (bulkhead != null) {
+            bulkhead.shutdown();
+        }
+
+        ResponseCache.Region region = m_cacheRegions.remove(key);
+        if (region != null) {
+            region.invalidate();
+        }
+    }
+
+    /**
+     * Drop the cached responses of the service
+     *
+     * @param host the host name, null for all the hosts
+     * @param context
+     */
+    synchronized void invalidateCache(String host, String context) {
+        ResponseCache.Region region = m_cacheRegions.get(new RouteKey(host, context));
+        if (region != null) {
+            region.invalidate();
+        }
+    }
+
+    /**
+     * Create the routes for the registered services
+     *
+     * @param executor the executor used to run the services
+     */
+    synchronized void start(Executor executor) {
+        m_executor = executor;
+        m_metrics.setExecutor(executor);
+        m_cache.configure(ConfigProvider.getCacheMaxSize(), ConfigProvider.getCacheMaxEntrySize());
+        ResponseCompression.configure();
+        if (m_registrations.isEmpty()) {
+            return;
+        }
+
+        log("Restoring services...");
+        republish();
+    }
+
+    /**
+     * Apply the reloaded configuration to the running routes
+     *
+     * @param executor the executor used to run the services, the routes are
+     * rebuild if changed
+     */
+    synchronized void reconfigure(Executor executor) {
+        m_cache.configure(ConfigProvider.getCacheMaxSize(), ConfigProvider.getCacheMaxEntrySize());
+        ResponseCompression.configure();
+        if (m_executor == null || m_executor == executor) {
+            return;
+        }
+
+        m_executor = executor;
+        m_metrics.setExecutor(executor);
+        for (Map.Entry<RouteKey, Bulkhead> entry : m_bulkheads.entrySet()) {
+            entry.setValue(entry.getValue().withExecutor(executor));
+        }
+        republish();
+    }
+
+    /**
+     * Add the filter
+     *
+     * @param host the host name, null for the services registered for all
+     * the hosts (or for all the services when no context is provided)
+     * @param context the service context, null for all the services of the
+     * host
+     * @param filter
+     * @param order
+     */
+    synchronized void addFilter(String host, String context, IFilter filter, int order) {
+        if (filter == null) {
+            throw new IllegalArgumentException("No filter provided");
+        }
+
+        m_filters.add(new FilterEntry(host, context, filter, order));
+        Collections.sort(m_filters, FilterEntry.ORDER);
+        republish();
+    }
+
+    /**
+     * Remove the filter
+     *
+     * @param filter
+     */
+    synchronized void removeFilter(IFilter filter) {
+        boolean removed = false;
+        Iterator<FilterEntry> it = m_filters.iterator();
+        while (it.hasNext()) {
+            if (it.next().m_filter == filter) {
+                it.remove();
+                removed = true;
+            }
+        }
+
+        if (removed) {
+            republish();
+        }
+    }
+
+    /**
+     * Remove all the routes
+     *
+     * @param clean remove the registered services
+     */
+    synchronized void stop(boolean clean) {
+        m_executor = null;
+        m_metrics.setExecutor(null);
+        m_routes = HostTable.EMPTY;
+
+        for (Bulkhead bulkhead : m_bulkheads.values()) {
+            bulkhead.shutdown();
+        }
+        m_bulkheads.clear();
+        m_cacheRegions.clear();
+        m_cache.clear();
+
+        if (clean) {
+            for (Registration registration : m_registrations.values()) {
+                m_metrics.unregister(registration.m_metrics);
+                if (registration.m_static != null) {
+                    registration.m_static.release();
+                }
+            }
+            m_registrations.clear();
+            m_filters.clear();
+        }
+    }
+
+    ServerMetrics getMetrics() {
+        return m_metrics;
+    }
+
+    /**
+     * Pass the exchange to the matching service
+     *
+     * @param exchange
+     * @throws IOException
+     */
+    void dispatch(HttpExchange exchange) throws IOException {
+        m_routes.dispatch(exchange);
+    }
+
+    /**
+     * Rebuild all the routes
+     */
+    private void republish() {
+        if (m_executor == null) {
+            return;
+        }
+
+        HostTable routes = HostTable.EMPTY;
+        for (Map.Entry<RouteKey, Registration> entry : m_registrations.entrySet()) {
+            routes = publish(routes, entry.getKey(), createWrapper(entry.getKey(), entry.getValue()));
+        }
+        m_routes = routes;
+    }
+
+    /**
+     * Add, replace or remove (null wrapper) the route
+     *
+     * @param routes
+     * @param key
+     * @param wrapper
+     * @return the new routes
+     */
+    private static HostTable publish(HostTable routes, RouteKey key, HttpHandler wrapper) {
+        RouteTable hostRoutes = routes.get(key.m_host);
+        hostRoutes = wrapper != null ? hostRoutes.with(key.m_context, wrapper)
+                : hostRoutes.without(key.m_context);
+
+        return routes.with(key.m_host, hostRoutes);
+    }
+
+    private HttpHandler createWrapper(RouteKey key, Registration registration) {
+        if (registration.m_static != null) {
+            registration.m_static.setExecutor(m_executor);
+            return registration.m_static;
+        }
+
+        IFilter[] filters = getFilters(key);
+        ResponseCache.Region region = null;
+        if (registration.m_cache != null) {
+            region = m_cacheRegions.get(key);
+            if (region == null) {
+                region = m_cache.createRegion(registration.m_cache);
+                m_cacheRegions.put(key, region);
+            }
+        }
+
+        if (registration.m_policy == null) {
+            return new ServiceWrapper(registration.m_service, m_executor, filters, region,
+                    registration.m_metrics);
+        }
+
+        Bulkhead bulkhead = m_bulkheads.get(key);
+        if (bulkhead == null) {
+            bulkhead = ExecutorFactory.createBulkhead(key.toString(), registration.m_policy, m_executor);
+            m_bulkheads.put(key, bulkhead);
+        }
+
+        return new ServiceWrapper(registration.m_service, bulkhead, filters, region,
+                registration.m_metrics);
+    }
+
+    /**
+     * Build the filter chain of the service
+     *
+     * @param key
+     * @return
+     */
+    private IFilter[] getFilters(RouteKey key) {
+        ArrayList<IFilter> result = new ArrayList<IFilter>();
+        for (FilterEntry entry : m_filters) {
+            if (entry.matches(key)) {
+                result.add(entry.m_filter);
+            }
+        }
+
+        return result.toArray(new IFilter[result.size()]);
+    }
+
+    /**
+     * The installed filter
+     */
+    private static class FilterEntry {
+
+        /**
+         * Sort by the filter order, the sort is stable so the filters with
+         * the same order keep the installation order
+         */
+        private static final Comparator<FilterEntry> ORDER = new Comparator<FilterEntry>() {
+            @Override
+            public int compare(FilterEntry o1, FilterEntry o2) {
+                return o1.m_order < o2.m_order ? -1 : (o1.m_order == o2.m_order ? 0 : 1);
+            }
+        };
+
+        /**
+         * The lower case host name (null for the services registered for all
+         * the hosts)
+         */
+        private final String m_host;
+
+        /**
+         * The service context (null for all the services of the host)
+         */
+        private final String m_context;
+
+        private final IFilter m_filter;
+
+        private final int m_order;
+
+        FilterEntry(String host, String context, IFilter filter, int order) {
+            m_host = host != null ? host.toLowerCase(Locale.ENGLISH) : null;
+            m_context = context;
+            m_filter = filter;
+            m_order = order;
+        }
+
+        /**
+         * Check if the filter applies to the service route
+         *
+         * @param key
+         * @return
+         */
+        boolean matches(RouteKey key) {
+            if (m_host == null && m_context == null) {
+                return true;
+            }
+
+            if (m_context != null && !m_context.equals(key.m_context)) {
+                return false;
+            }
+
+            return m_host == null ? key.m_host == null : m_host.equals(key.m_host);
+        }
+    }
+
+    /**
+     * The registered service
+     */
+    private static class Registration {
+
+        private final IService m_service;
+
+        private final ExecutionPolicy m_policy;
+
+        private final CachePolicy m_cache;
+
+        /**
+         * The constant response (null for services)
+         */
+        private final StaticResponse m_static;
+
+        /**
+         * The context request metrics
+         */
+        private final ContextMetrics m_metrics;
+
+        Registration(IService service, ExecutionPolicy policy, CachePolicy cache,
+                ContextMetrics metrics) {
+            m_service = service;
+            m_policy = policy;
+            m_cache = cache;
+            m_static = null;
+            m_metrics = metrics;
+        }
+
+        Registration(StaticResponse response, ContextMetrics metrics) {
+            m_service = null;
+            m_policy = null;
+            m_cache = null;
+            m_static = response;
+            m_metrics = metrics;
+        }
+    }
+
+    /**
+     * The service host and context
+     */
+    private static class RouteKey {
+
+        /**
+         * The lower case host name (null for all the hosts)
+         */
+        private final String m_host;
+
+        private final String m_context;
+
+        RouteKey(String host, String context) {
+            m_host = host != null ? host.toLowerCase(Locale.ENGLISH) : null;
+            m_context = context;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RouteKey)) {
+                return false;
+            }
+
+            RouteKey other = (RouteKey) obj;
+            return m_context.equals(other.m_context)
+                    && (m_host == null ? other.m_host == null : m_host.equals(other.m_host));
+        }
+
+        @Override
+        public int hashCode() {
+            return m_context.hashCode() * 31 + (m_host != null ? m_host.hashCode() : 0);
+        }
+
+        @Override
+        public String toString() {
+            return m_host != null ? m_host + m_context : m_context;
+        }
+    }
+}
@@ -44,7 +44,17 @@ package org.primesoft.simplehttpserver.implementation;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.api.IConditionalService;
+import org.primesoft.simplehttpserver.api.IFilter;
+import org.primesoft.simplehttpserver.api.IHeaders;
 import org.primesoft.simplehttpserver.api.IService;
+import org.primesoft.simplehttpserver.metrics.ContextMetrics;
+import org.primesoft.simplehttpserver.utils.ExceptionReporter;
+import org.primesoft.simplehttpserver.utils.HttpConditions;
+import org.primesoft.simplehttpserver.utils.HttpDates;
 
 /**
  *
@@ -54,23 +64,317 @@ public class ServiceWrapper implements HttpHandler {
 
     private final IService m_service;
 
-    ServiceWrapper(IService service) {
+    /**
+     * The service validators (null if not supported)
+     */
+    private final IConditionalService m_conditional;
+
+    /**
+     * The executor used to run the service
+     */
+    private final Executor m_executor;
+
+    /**
+     * The filters chain
+     */
+    private final IFilter[] m_filters;
+
+    /**
+     * The context response cache (null if not cached)
+     */
+    private final ResponseCache.Region m_cache;
+
+    /**
+     * The context request metrics
+     */
+    private final ContextMetrics m_metrics;
+
+    ServiceWrapper(IService service, Executor executor, IFilter[] filters,
+            ResponseCache.Region cache, ContextMetrics metrics) {
         m_service = service;
+        m_conditional = service instanceof IConditionalService ? (IConditionalService) service : null;
+        m_executor = executor;
+        m_filters = filters;
+        m_cache = cache;
+        m_metrics = metrics;
+    }
+
+    ContextMetrics getMetrics() {
+        return m_metrics;
     }
 
     @Override
-    public void handle(HttpExchange ht) throws IOException {
-        HttpRequest request = new HttpRequest(ht);
+    public void handle(final HttpExchange ht) throws IOException {
+        final long started = m_metrics.start();
+        try {
+            m_executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    process(ht, started);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            reject(ht);
+            m_metrics.reject(started);
+            AccessLog.getDefault().record(ht, HttpStatusCodes.SERVICE_UNAVAILABLE, 0, started);
+        }
+    }
+
+    /**
+     * Run the service for the exchange (worker thread)
+     *
+     * @param ht
+     * @param started the request start time
+     */
+    private void process(HttpExchange ht, long started) {
+        HttpRequest request = new HttpRequest(ht, this, started);
+        IFilter[] filters = m_filters;
+        int entered = 0;
+
+        try {
+            boolean proceed = true;
+            try {
+                while (proceed && entered < filters.length) {
+                    proceed = filters[entered++].before(request);
+                }
+            } finally {
+                //Set before the service runs, a detached request may be
+                //finished by other thread
+                request.setAfterFilters(filters, entered);
+            }
+
+            if (proceed) {
+                handle(request, ht);
+            }
+        } catch (Throwable ex) {
+            //Errors too, the request and a coalesced render must complete
+            fail(request, ex);
+        }
+
+        if (!request.isDetached()) {
+            finish(request);
+        }
+    }
+
+    /**
+     * Run the service or send the not modified or cached response
+     *
+     * @param request
+     * @param ht
+     * @throws IOException
+     */
+    private void handle(HttpRequest request, HttpExchange ht) throws IOException {
+        if (m_conditional != null && isNotModified(request)) {
+            request.sendResponse(HttpStatusCodes.NOT_MODIFIED, -1);
+            return;
+        }
+
+        ResponseCache.Region cache = m_cache;
+        String key = cache != null ? cache.getKey(ht) : null;
+        if (key == null) {
+            m_service.handle(request);
+            return;
+        }
+
+        ResponseCache.Entry entry = cache.get(key);
+        m_metrics.cacheLookup(entry != null);
+        if (entry != null) {
+            try {
+                request.sendCached(entry);
+            } finally {
+                entry.release();
+            }
+            return;
+        }
 
+        if ("GET".equals(request.getMethod())) {
+            ResponseCache.Recorder recorder = cache.record(key, request);
+            if (recorder == null) {
+                //Waiting for the same response rendered by other request
+                return;
+            }
+
+            request.record(recorder);
+        }
         m_service.handle(request);
+    }
+
+    /**
+     * Complete the request that waited for a coalesced render
+     *
+     * @param request
+     * @param entry the retained rendered response, null if not cacheable
+     * (the service is called for the request)
+     */
+    void replay(final HttpRequest request, final ResponseCache.Entry entry) {
+        try {
+            m_executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    request.attach();
+                    try {
+                        if (entry != null) {
+                            request.sendCached(entry);
+                        } else {
+                            m_service.handle(request);
+                        }
+                    } catch (Throwable ex) {
+                        fail(request, ex);
+                    } finally {
+                        if (entry != null) {
+                            entry.release();
+                        }
+                    }
+
+                    if (!request.isDetached()) {
+                        finish(request);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            if (entry != null) {
+                entry.release();
+            }
+            abort(request, HttpStatusCodes.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Set the response validators and check the request conditions
+     *
+     * @param request
+     * @return true if the client copy is valid
+     * @throws IOException
+     */
+    private boolean isNotModified(HttpRequest request) throws IOException {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+
+        String etag = m_conditional.getETag(request);
+        long lastModified = m_conditional.getLastModified(request);
+        IHeaders headers = request.getResponseHeader();
+        if (etag != null) {
+            headers.add("ETag", etag);
+        }
+        if (lastModified >= 0) {
+            headers.add("Last-Modified", HttpDates.format(lastModified));
+        }
+
+        return HttpConditions.isNotModified(request.getRequestHeader(), etag, lastModified);
+    }
+
+    /**
+     * Continue processing of a detached request on the context executor
+     *
+     * @param request
+     * @param action
+     */
+    void resume(final HttpRequest request, final Runnable action) {
+        try {
+            m_executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        action.run();
+                    } catch (Throwable ex) {
+                        fail(request, ex);
+                    }
+
+                    finish(request);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            abort(request, HttpStatusCodes.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Finish the request processing, runs the after part of the filters on
+     * the thread that completes the request
+     *
+     * @param request
+     */
+    static void finish(HttpRequest request) {
+        after(request);
 
         if (!request.isResponseSend()) {
-            throw new IllegalStateException("Response not send.");
+            fail(request, new IllegalStateException("Response not send."));
+        }
+
+        request.close();
+    }
+
+    /**
+     * Run the after part of the called filters, in the reverse order
+     *
+     * @param request
+     */
+    private static void after(HttpRequest request) {
+        IFilter[] filters = request.takeAfterFilters();
+        if (filters == null) {
+            return;
+        }
+
+        for (int i = filters.length - 1; i >= 0; i--) {
+            try {
+                filters[i].after(request);
+            } catch (Throwable ex) {
+                fail(request, ex);
+            }
+        }
+    }
+
+    /**
+     * Report the service error and send 500 if the service did not respond
+     *
+     * @param request
+     * @param ex
+     */
+    static void fail(HttpRequest request, Throwable ex) {
+        ExceptionReporter.getDefault().report(ex, "Error handling request", request.getUri());
+        request.discardRecording();
+
+        if (request.isResponseSend()) {
+            return;
+        }
+
+        try {
+            request.sendResponse(HttpStatusCodes.INTERNAL_SERVER_ERROR, -1);
+        } catch (IOException ex1) {
+        }
+    }
+
+    /**
+     * Respond with the error code (if possible) and close the request
+     *
+     * @param request
+     * @param httpCode
+     */
+    static void abort(HttpRequest request, int httpCode) {
+        try {
+            if (!request.isResponseSend()) {
+                request.sendResponse(httpCode, -1);
+            }
+        } catch (IOException ex) {
+        } finally {
+            after(request);
+            request.close();
         }
+    }
 
+    /**
+     * No free worker, respond with 503
+     *
+     * @param ht
+     */
+    static void reject(HttpExchange ht) {
         try {
-            request.getResponseBody().close();
+            ht.sendResponseHeaders(HttpStatusCodes.SERVICE_UNAVAILABLE, -1);
         } catch (IOException ex) {
+        } finally {
+            ht.close();
         }
     }
 }
@@ -41,11 +41,26 @@
  */
 package org.primesoft.simplehttpserver.implementation;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.primesoft.simplehttpserver.SimpleHTTPServerMain;
 import org.primesoft.simplehttpserver.api.IApi;
+import org.primesoft.simplehttpserver.api.IHttpRequest;
 import org.primesoft.simplehttpserver.api.IHttpServer;
-import org.primesoft.simplehttpserver.api.IService;
+import org.primesoft.simplehttpserver.api.IMainThreadTask;
+import org.primesoft.simplehttpserver.api.IReadyFuture;
+import org.primesoft.simplehttpserver.api.IResourcePack;
+import org.primesoft.simplehttpserver.api.IRouter;
 import org.primesoft.simplehttpserver.configuration.ConfigProvider;
-import org.primesoft.simplehttpserver.services.DefaultService;
+import org.primesoft.simplehttpserver.services.PrometheusService;
+import org.primesoft.simplehttpserver.services.ResourcePackService;
+import org.primesoft.simplehttpserver.utils.ExceptionHelper;
+import org.primesoft.simplehttpserver.utils.ExceptionReporter;
+import org.primesoft.simplehttpserver.utils.OffHeapStore;
 
 /**
  *
@@ -53,23 +68,134 @@ import org.primesoft.simplehttpserver.services.DefaultService;
  */
 public class SimpleApi implements IApi {
 
+    /**
+     * Log a message
+     *
+     * @param msg
+     */
+    private static void log(String msg) {
+        SimpleHTTPServerMain.log(msg);
+    }
+
+    /**
+     * The default context response
+     */
+    private static final byte[] s_defaultBody = "SimpleHTTP Server plugin".getBytes(Charset.forName("UTF-8"));
+
+    /**
+     * Number of attempts to bind the server port (the port may be held by
+     * the previous server instance for a while)
+     */
+    private static final int BIND_ATTEMPTS = 10;
+
+    /**
+     * The delay between the bind attempts (in milliseconds)
+     */
+    private static final long BIND_RETRY_DELAY = 1000;
+
+    /**
+     * The longest time the server stop waits for the background start or
+     * reload (in milliseconds)
+     */
+    private static final long RELOAD_STOP_WAIT = 10000;
+
     private final IHttpServer m_server;
 
-    private String m_externalAddress;
-        
-    private final IService m_defaultService;
-    
-    private boolean m_registerDefaults;
+    private volatile String m_externalAddress;
+
+    private volatile boolean m_registerDefaults;
+
+    /**
+     * The main thread work queue
+     */
+    private final MainThreadBridge m_mainThreadBridge;
+
+    /**
+     * The resource pack service (null if disabled)
+     */
+    private volatile ResourcePackService m_resourcePacks;
+
+    /**
+     * The resource pack service context
+     */
+    private volatile String m_resourcePacksContext;
+
+    /**
+     * The Prometheus endpoint context (null if disabled)
+     */
+    private volatile String m_prometheusContext;
+
+    /**
+     * The resource pack service directory
+     */
+    private volatile File m_resourcePacksDirectory;
+
+    /**
+     * The last queued server start or reload (null if none), each reload
+     * waits for the previous one
+     */
+    private Thread m_reloadThread;
+
+    /**
+     * The server start
+     */
+    private final ReadyFuture m_ready = new ReadyFuture();
+
+    public SimpleApi(JavaPlugin plugin, IHttpServer server) {
+        m_mainThreadBridge = new MainThreadBridge(ConfigProvider.getMainThreadBatchSize(),
+                ConfigProvider.getMainThreadTickBudget());
+        m_mainThreadBridge.start(plugin);
+        OffHeapStore.getDefault().setMaxSize(ConfigProvider.getOffHeapMaxSize());
+        startAccessLog();
 
-    public SimpleApi(IHttpServer server) {
         m_server = server;
-        m_server.startServer(ConfigProvider.getPort());
         m_externalAddress = ConfigProvider.getExternalAddress();
         m_registerDefaults = ConfigProvider.getRegisterDefault();
-        
-        m_defaultService = new DefaultService();
-        
-        installDefaultContext();
+
+        final int port = ConfigProvider.getPort();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                startServer(port);
+            }
+        }, "SimpleHTTP startup");
+        thread.setDaemon(true);
+        thread.start();
+        m_reloadThread = thread;
+    }
+
+    /**
+     * Install the default services and start the server (startup thread).
+     * The services registered before the server is started are published
+     * together once the server starts.
+     *
+     * @param port
+     */
+    private void startServer(int port) {
+        boolean started = false;
+        try {
+            installDefaultContext();
+            installResourcePacks();
+            installPrometheus();
+
+            for (int attempt = 1; !started && attempt <= BIND_ATTEMPTS; attempt++) {
+                if (attempt > 1) {
+                    log("Unable to start the server, retrying (" + attempt + "/" + BIND_ATTEMPTS + ")...");
+                    Thread.sleep(BIND_RETRY_DELAY);
+                }
+
+                started = m_server.startServer(port);
+            }
+        } catch (InterruptedException ex) {
+            log("Server start cancelled");
+        } finally {
+            m_ready.complete(started);
+        }
+    }
+
+    @Override
+    public IReadyFuture getReady() {
+        return m_ready;
     }
 
     @Override
@@ -82,15 +208,211 @@ public class SimpleApi implements IApi {
         return m_externalAddress;
     }
 
+    @Override
+    public <T> void runOnMainThread(IHttpRequest request, IMainThreadTask<T> task) {
+        if (!(request instanceof HttpRequest)) {
+            throw new IllegalArgumentException("Unsupported request type");
+        }
+
+        m_mainThreadBridge.submit((HttpRequest) request, task);
+    }
+
+    @Override
+    public IResourcePack getResourcePack(String name) {
+        ResourcePackService service = m_resourcePacks;
+        return service != null ? service.getPack(name) : null;
+    }
+
+    @Override
+    public Collection<IResourcePack> getResourcePacks() {
+        ResourcePackService service = m_resourcePacks;
+        if (service == null) {
+            return Collections.emptyList();
+        }
+
+        return service.getPacks();
+    }
+
+    @Override
+    public IRouter createRouter() {
+        return new Router();
+    }
+
+    @Override
+    public void invalidateCache(String context) {
+        m_server.invalidateCache(null, context);
+    }
+
+    @Override
+    public void invalidateCache(String host, String context) {
+        m_server.invalidateCache(host, context);
+    }
+
+    public MainThreadBridge getMainThreadBridge() {
+        return m_mainThreadBridge;
+    }
+
+    /**
+     * Stop the server and reject the pending main thread work
+     */
+    public void stop() {
+        Thread thread = m_reloadThread;
+        if (thread != null) {
+            //Do not wait for the bind retries and the queued reloads
+            thread.interrupt();
+        }
+        //Reject the main thread work first, the main thread is blocked while
+        //the reload and the requests drain
+        m_mainThreadBridge.stop();
+        //The start and reload threads install the services, remove them once
+        //they are done
+        waitForReload();
+        removePrometheus();
+        removeResourcePacks();
+        m_server.stopServer();
+        AccessLog.getDefault().stop();
+        ExceptionReporter.getDefault().stop();
+    }
+
+    /**
+     * Apply the reloaded configuration, only the changed settings are applied
+     */
     public void reload() {
-        removeDefaultContext();
-        
-        m_externalAddress = ConfigProvider.getExternalAddress();
-        m_registerDefaults = ConfigProvider.getRegisterDefault();
-        
-        m_server.restart(ConfigProvider.getPort());
-        
-        installDefaultContext();
+        String externalAddress = ConfigProvider.getExternalAddress();
+        boolean addressChanged = externalAddress == null ? m_externalAddress != null
+                : !externalAddress.equals(m_externalAddress);
+        m_externalAddress = externalAddress;
+
+        m_mainThreadBridge.configure(ConfigProvider.getMainThreadBatchSize(),
+                ConfigProvider.getMainThreadTickBudget());
+        OffHeapStore.getDefault().setMaxSize(ConfigProvider.getOffHeapMaxSize());
+        startAccessLog();
+
+        String engine = m_server instanceof NioHttpServer ? "nio" : "sun";
+        if (!engine.equalsIgnoreCase(ConfigProvider.getEngine())) {
+            log("The HTTP engine is changed after the plugin restart");
+        }
+        reloadServer(ConfigProvider.getPort(), addressChanged);
+    }
+
+    /**
+     * Apply the reloaded service settings (reload thread)
+     *
+     * @param addressChanged
+     */
+    private void reloadServices(boolean addressChanged) {
+        if (m_registerDefaults != ConfigProvider.getRegisterDefault()) {
+            removeDefaultContext();
+            m_registerDefaults = ConfigProvider.getRegisterDefault();
+            installDefaultContext();
+        }
+
+        if (m_resourcePacks == null || !ConfigProvider.getResourcePacksEnabled()
+                || !ConfigProvider.getResourcePacksContext().equals(m_resourcePacksContext)
+                || !ConfigProvider.getResourcePacksDirectory().equals(m_resourcePacksDirectory)) {
+            removeResourcePacks();
+            installResourcePacks();
+        } else if (addressChanged) {
+            m_resourcePacks.setBaseUrl(getResourcePacksUrl(m_resourcePacksContext));
+        }
+
+        if (!ConfigProvider.getPrometheusEnabled()
+                || !ConfigProvider.getPrometheusContext().equals(m_prometheusContext)) {
+            removePrometheus();
+            installPrometheus();
+        }
+    }
+
+    /**
+     * Reconfigure the server and the services in the background. The reload
+     * starts once the previous start or reload is done, a server moved to a
+     * new port waits for the requests in progress to finish (main thread
+     * work included)
+     *
+     * @param port
+     * @param addressChanged
+     */
+    private void reloadServer(final int port, final boolean addressChanged) {
+        final Thread previous = m_reloadThread;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (!awaitPrevious(previous)) {
+                    return;
+                }
+
+                m_server.reload(port);
+                reloadServices(addressChanged);
+            }
+        }, "SimpleHTTP reload");
+        thread.setDaemon(true);
+        thread.start();
+        m_reloadThread = thread;
+    }
+
+    /**
+     * Wait for the previous start or reload (reload thread). When the reload
+     * is cancelled the previous one is cancelled too.
+     *
+     * @param previous
+     * @return false if the reload was cancelled
+     */
+    private static boolean awaitPrevious(Thread previous) {
+        if (previous == null) {
+            return true;
+        }
+
+        try {
+            previous.join();
+            return !Thread.currentThread().isInterrupted();
+        } catch (InterruptedException ex) {
+            previous.interrupt();
+            try {
+                previous.join();
+            } catch (InterruptedException ex1) {
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Wait for the background start and reloads to finish (server stop)
+     */
+    private void waitForReload() {
+        Thread thread = m_reloadThread;
+        m_reloadThread = null;
+        if (thread == null) {
+            return;
+        }
+
+        try {
+            thread.join(RELOAD_STOP_WAIT);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (thread.isAlive()) {
+            log("The server reload is still running, stopping the server anyway.");
+        }
+    }
+
+    /**
+     * Start (or restart) the access log if enabled
+     */
+    private void startAccessLog() {
+        AccessLog accessLog = AccessLog.getDefault();
+        if (!ConfigProvider.getAccessLogEnabled()) {
+            accessLog.stop();
+            return;
+        }
+
+        try {
+            accessLog.start(ConfigProvider.getAccessLogFile().toPath(),
+                    ConfigProvider.getAccessLogMaxSize(), ConfigProvider.getAccessLogMaxFiles(),
+                    ConfigProvider.getAccessLogBufferSize());
+        } catch (IOException ex) {
+            ExceptionHelper.printException(ex, "Unable to start the access log");
+        }
     }
 
     private void removeDefaultContext() {
@@ -101,7 +423,71 @@ public class SimpleApi implements IApi {
     
     private void installDefaultContext() {
         if (m_registerDefaults) {
-            m_server.registerService("/", m_defaultService);
+            m_server.registerStatic("/", s_defaultBody, "text/plain", null);
+        }
+    }
+
+    private void removePrometheus() {
+        if (m_prometheusContext == null) {
+            return;
+        }
+
+        m_server.unregisterService(m_prometheusContext);
+        m_prometheusContext = null;
+    }
+
+    private void installPrometheus() {
+        if (!ConfigProvider.getPrometheusEnabled()) {
+            return;
+        }
+
+        m_prometheusContext = ConfigProvider.getPrometheusContext();
+        m_server.registerService(m_prometheusContext, new PrometheusService(m_server.getMetrics(), m_mainThreadBridge));
+    }
+
+    private void removeResourcePacks() {
+        if (m_resourcePacks == null) {
+            return;
         }
+
+        m_server.unregisterService(m_resourcePacksContext);
+        m_resourcePacks.stop();
+        m_resourcePacks = null;
+    }
+
+    private void installResourcePacks() {
+        if (!ConfigProvider.getResourcePacksEnabled()) {
+            return;
+        }
+
+        String context = ConfigProvider.getResourcePacksContext();
+        ResourcePackService service = new ResourcePackService(
+                ConfigProvider.getResourcePacksDirectory().toPath(), context, getResourcePacksUrl(context));
+        try {
+            service.start();
+        } catch (IOException ex) {
+            ExceptionHelper.printException(ex, "Unable to start the resource pack service");
+            return;
+        }
+
+        m_server.registerService(context, service);
+        m_resourcePacks = service;
+        m_resourcePacksContext = context;
+        m_resourcePacksDirectory = ConfigProvider.getResourcePacksDirectory();
+    }
+
+    /**
+     * Get the resource pack service url
+     *
+     * @param context
+     * @return the url or null if the external address is not set
+     */
+    private String getResourcePacksUrl(String context) {
+        String address = m_externalAddress;
+        if (address == null) {
+            return null;
+        }
+
+        return (address.endsWith("/") ? address.substring(0, address.length() - 1) : address) + context;
     }
 }
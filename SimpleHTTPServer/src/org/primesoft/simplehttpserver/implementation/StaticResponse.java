@@ -0,0 +1,294 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.metrics.ContextMetrics;
+import org.primesoft.simplehttpserver.utils.HttpDates;
+import org.primesoft.simplehttpserver.utils.OffHeapStore;
+
+/**
+ * Constant response registered without a service. The request is answered
+ * without creating the request wrapper, the NIO engine sends the
+ * pre-serialized response head. The filters and the cache are not used.
+ * The sun engine writes the bodies up to INLINE_LIMIT on the dispatcher
+ * thread, the larger bodies are written by the worker executor so a slow
+ * client does not stall the other connections.
+ *
+ * @author SBPrime
+ */
+class StaticResponse implements HttpHandler {
+
+    private static final Charset s_charset = Charset.forName("ISO-8859-1");
+
+    /**
+     * The largest body written on the sun engine dispatcher thread, the
+     * smaller bodies fit the socket send buffer
+     */
+    static final int INLINE_LIMIT = 16 * 1024;
+
+    /**
+     * The response body
+     */
+    private final OffHeapStore.Block m_body;
+
+    /**
+     * The response headers (without the Date and Content-Length)
+     */
+    private final Map<String, List<String>> m_headers;
+
+    /**
+     * The serialized status line, headers and Content-Length
+     */
+    private final String m_head;
+
+    /**
+     * The complete response heads for the current second
+     */
+    private volatile Heads m_heads;
+
+    /**
+     * The context request metrics, set before the response is published
+     */
+    private ContextMetrics m_metrics;
+
+    /**
+     * The executor used to write the large bodies (null to write inline)
+     */
+    private volatile Executor m_executor;
+
+    /**
+     * @param body the response body
+     * @param contentType the content type, null to not set the header
+     * @param headers additional response headers, may be null
+     */
+    StaticResponse(OffHeapStore.Block body, String contentType, Map<String, String> headers) {
+        Headers allHeaders = new Headers();
+        if (contentType != null) {
+            allHeaders.set("Content-Type", contentType);
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                allHeaders.set(header.getKey(), header.getValue());
+            }
+        }
+        allHeaders.remove("Content-Length");
+        allHeaders.remove("Transfer-Encoding");
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("HTTP/1.1 200 ").append(NioExchange.getReason(HttpStatusCodes.OK)).append("\r\n");
+        sb.append("Content-Length: ").append(body.size()).append("\r\n");
+        for (Map.Entry<String, List<String>> header : allHeaders.entrySet()) {
+            for (String value : header.getValue()) {
+                sb.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+
+        m_body = body;
+        m_headers = Collections.unmodifiableMap(allHeaders);
+        m_head = sb.toString();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        ContextMetrics metrics = m_metrics;
+        long started = metrics.start();
+
+        if (!m_body.retain()) {
+            //Unregistered
+            try {
+                exchange.sendResponseHeaders(HttpStatusCodes.NOT_FOUND, -1);
+            } finally {
+                exchange.close();
+                metrics.finish(started, HttpStatusCodes.NOT_FOUND, 0, 0);
+                AccessLog.getDefault().record(exchange, HttpStatusCodes.NOT_FOUND, 0, started);
+            }
+            return;
+        }
+
+        Executor executor = m_executor;
+        if (executor != null && !(exchange instanceof NioExchange)
+                && m_body.size() > INLINE_LIMIT && "GET".equals(exchange.getRequestMethod())) {
+            final HttpExchange ht = exchange;
+            final long start = started;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            respond(ht, start);
+                        } catch (IOException ex) {
+                            //The client disconnected, the exchange is closed
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                m_body.release();
+                ServiceWrapper.reject(exchange);
+                metrics.reject(started);
+                AccessLog.getDefault().record(exchange, HttpStatusCodes.SERVICE_UNAVAILABLE, 0, started);
+            }
+            return;
+        }
+
+        respond(exchange, started);
+    }
+
+    /**
+     * Send the response, the body must be retained
+     *
+     * @param exchange
+     * @param started the request start time
+     * @throws IOException
+     */
+    private void respond(HttpExchange exchange, long started) throws IOException {
+        ContextMetrics metrics = m_metrics;
+        long sent = 0;
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(HttpStatusCodes.METHOD_NOT_ALLOWED, -1);
+                return;
+            }
+
+            if (exchange instanceof NioExchange) {
+                NioExchange nio = (NioExchange) exchange;
+                Heads heads = getHeads();
+                nio.sendPrepared(HttpStatusCodes.OK, nio.isKeepAlive() ? heads.m_keepAlive : heads.m_close,
+                        m_body);
+                sent = "HEAD".equals(method) ? 0 : m_body.size();
+                return;
+            }
+
+            Headers headers = exchange.getResponseHeaders();
+            for (Map.Entry<String, List<String>> header : m_headers.entrySet()) {
+                headers.put(header.getKey(), new ArrayList<String>(header.getValue()));
+            }
+
+            int length = m_body.size();
+            boolean head = "HEAD".equals(method);
+            exchange.sendResponseHeaders(HttpStatusCodes.OK, length > 0 && !head ? length : -1);
+            if (length > 0 && !head) {
+                ByteBuffer body = m_body.getBuffer();
+                if (body.hasArray()) {
+                    exchange.getResponseBody().write(body.array(), body.arrayOffset(), length);
+                } else {
+                    HttpRequest.copy(body, exchange.getResponseBody());
+                }
+                sent = length;
+            }
+        } finally {
+            m_body.release();
+            exchange.close();
+            metrics.finish(started, exchange.getResponseCode(), 0, sent);
+            AccessLog.getDefault().record(exchange, exchange.getResponseCode(), sent, started);
+        }
+    }
+
+    void setMetrics(ContextMetrics metrics) {
+        m_metrics = metrics;
+    }
+
+    void setExecutor(Executor executor) {
+        m_executor = executor;
+    }
+
+    /**
+     * Release the response body
+     */
+    void release() {
+        m_body.release();
+    }
+
+    /**
+     * Get the response heads with the current date
+     *
+     * @return
+     */
+    private Heads getHeads() {
+        String now = HttpDates.now();
+        Heads heads = m_heads;
+        if (heads != null && heads.m_date == now) {
+            return heads;
+        }
+
+        String head = m_head + "Date: " + now + "\r\n";
+        heads = new Heads(now, (head + "\r\n").getBytes(s_charset),
+                (head + "Connection: close\r\n\r\n").getBytes(s_charset));
+        m_heads = heads;
+        return heads;
+    }
+
+    /**
+     * The serialized response heads
+     */
+    private static final class Heads {
+
+        /**
+         * The date used in the heads
+         */
+        private final String m_date;
+
+        private final byte[] m_keepAlive;
+
+        private final byte[] m_close;
+
+        Heads(String date, byte[] keepAlive, byte[] close) {
+            m_date = date;
+            m_keepAlive = keepAlive;
+            m_close = close;
+        }
+    }
+}
@@ -41,21 +41,21 @@
  */
 package org.primesoft.simplehttpserver.implementation;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
 import org.primesoft.simplehttpserver.SimpleHTTPServerMain;
-import org.primesoft.simplehttpserver.api.IHttpServer;
-import org.primesoft.simplehttpserver.api.IService;
-import org.primesoft.simplehttpserver.utils.ExceptionHelper;
-import org.primesoft.simplehttpserver.utils.Pair;
+import org.primesoft.simplehttpserver.configuration.ConfigProvider;
+import org.primesoft.simplehttpserver.utils.ExceptionReporter;
 
 /**
  *
  * @author SBPrime
  */
-public class SunHttpServer implements IHttpServer {
+public class SunHttpServer extends AbstractHttpServer {
 
     /**
      * Log a message
@@ -77,14 +77,25 @@ public class SunHttpServer implements IHttpServer {
     private HttpServer m_server;
 
     /**
-     * List of all registered contexts
+     * The listening port
      */
-    private final HashMap<String, IService> m_registeredHandlers = new HashMap<String, IService>();
+    private int m_port;
 
     /**
-     * Map of all service wrappers (optimalization)
+     * The executor used to run the services
      */
-    private final HashMap<IService, Pair<Integer, ServiceWrapper>> m_serviceWrappers = new HashMap<IService, Pair<Integer, ServiceWrapper>>();
+    private ExecutorService m_executor;
+
+    /**
+     * The server root context handler, dispatches the requests using the
+     * registered routes
+     */
+    private final HttpHandler m_dispatcher = new HttpHandler() {
+        @Override
+        public void handle(HttpExchange he) throws IOException {
+            m_registry.dispatch(he);
+        }
+    };
 
     @Override
     public boolean startServer(int port) {
@@ -96,24 +107,57 @@ public class SunHttpServer implements IHttpServer {
             HttpServer server;
 
             try {
-                server = HttpServer.create(new InetSocketAddress(port), 0);
-                server.setExecutor(null);
+                server = createServer(port);
+                m_executor = ExecutorFactory.createExecutor();
                 server.start();
 
                 m_server = server;
+                m_port = port;
 
                 log("Server started");
 
-                restoreServices();
+                m_registry.start(m_executor);
                 return true;
             } catch (IOException ex) {
-                ExceptionHelper.printException(ex, "Unable to create the HttpServer");
+                ExceptionReporter.getDefault().report(ex, "Unable to create the HttpServer");
 
                 return false;
             }
         }
     }
 
+    /**
+     * Create the server that dispatches all the requests to the registry
+     *
+     * @param port
+     * @return
+     * @throws IOException
+     */
+    private HttpServer createServer(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(null);
+        server.createContext("/", m_dispatcher);
+
+        return server;
+    }
+
+    /**
+     * Stop accepting and wait for the open exchanges to finish
+     *
+     * @param server
+     * @return the number of requests still in progress
+     */
+    private long drain(HttpServer server) {
+        int timeout = ConfigProvider.getDrainTimeout();
+        long active = m_registry.getMetrics().getActive();
+        if (timeout > 0 && active > 0) {
+            log("Waiting for " + active + " requests to finish...");
+        }
+        server.stop(active > 0 ? timeout : 0);
+
+        return m_registry.getMetrics().getActive();
+    }
+
     private boolean stopServer(boolean clean) {
         synchronized (m_mutex) {
             if (m_server == null) {
@@ -121,15 +165,15 @@ public class SunHttpServer implements IHttpServer {
                 return false;
             }
 
-            m_server.stop(0);
+            long aborted = drain(m_server);
             m_server = null;
 
-            if (clean) {
-                m_registeredHandlers.clear();
-                m_serviceWrappers.clear();
-            }
+            m_registry.stop(clean);
 
-            log("Server stopped");
+            m_executor.shutdown();
+            m_executor = null;
+
+            log(aborted > 0 ? "Server stopped, " + aborted + " requests aborted" : "Server stopped");
             return true;
         }
     }
@@ -140,52 +184,41 @@ public class SunHttpServer implements IHttpServer {
     }
 
     @Override
-    public void registerService(String context, IService service) {
+    public boolean reload(int port) {
         synchronized (m_mutex) {
-            if (m_registeredHandlers.containsKey(context)) {
-                log("Service for " + context + " already registered.");
-                return;
+            if (m_server == null) {
+                return startServer(port);
             }
 
-            m_registeredHandlers.put(context, service);
-
-            if (m_server != null) {
-                ServiceWrapper wrapper = getWrapper(service);
-                m_server.createContext(context, wrapper);
+            ExecutorService executor = ExecutorFactory.reconfigure(m_executor);
+            m_registry.reconfigure(executor);
+            if (executor != m_executor) {
+                m_executor.shutdown();
+                m_executor = executor;
             }
 
-            log("Service for " + context + " registered.");
-        }
-    }
-
-    @Override
-    public void unregisterService(String context) {
-        synchronized (m_mutex) {
-            if (!m_registeredHandlers.containsKey(context)) {
-                log("Service for " + context + " notregistered.");
-                return;
+            if (port == m_port) {
+                return true;
             }
 
-            IService service = m_registeredHandlers.get(context);
-            m_registeredHandlers.remove(context);
-
-            if (!m_serviceWrappers.containsKey(service)) {
-                return;
-            }
-            
-            Pair<Integer, ServiceWrapper> p = m_serviceWrappers.get(service);
-            m_serviceWrappers.remove(service);
-            
-            ServiceWrapper wrapper = p.getX2();
-            
-            if (m_server != null) {
-                m_server.createContext(context, wrapper);
-            }
-            
-            if (p.getX1() > 1) {
-                m_serviceWrappers.put(service, new Pair<Integer, ServiceWrapper>(p.getX1() - 1, wrapper));
+            //The new server accepts the connections before the old server
+            //stops, the requests in progress on the old server are drained
+            HttpServer server;
+            try {
+                server = createServer(port);
+                server.start();
+            } catch (IOException ex) {
+                ExceptionReporter.getDefault().report(ex, "Unable to bind the server to port " + port);
+                return false;
             }
 
+            HttpServer oldServer = m_server;
+            m_server = server;
+            m_port = port;
+            log("Server moved to port " + port);
+
+            drain(oldServer);
+            return true;
         }
     }
 
@@ -196,40 +229,4 @@ public class SunHttpServer implements IHttpServer {
             return startServer(port);
         }
     }
-
-    private void restoreServices() {
-        synchronized (m_mutex) {
-            if (m_server == null || m_registeredHandlers.isEmpty()) {
-                return;
-            }
-
-            log("Restoring services...");
-
-            m_serviceWrappers.clear();
-            for (String context : m_registeredHandlers.keySet()) {
-                IService service = m_registeredHandlers.get(context);
-                ServiceWrapper wrapper = getWrapper(service);
-                m_server.createContext(context, wrapper);
-            }
-        }
-    }
-
-    private ServiceWrapper getWrapper(IService service) {
-        ServiceWrapper result;
-        synchronized (m_mutex) {
-            if (!m_serviceWrappers.containsKey(service)) {
-                result = new ServiceWrapper(service);
-                m_serviceWrappers.put(service, new Pair<Integer, ServiceWrapper>(1, result));
-            } else {
-                Pair<Integer, ServiceWrapper> p = m_serviceWrappers.get(service);
-                m_serviceWrappers.remove(service);
-
-                result = p.getX2();
-                m_serviceWrappers.put(service, new Pair<Integer, ServiceWrapper>(p.getX1() + 1, result));
-            }
-        }
-
-        return result;
-    }
-
 }
@@ -0,0 +1,129 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The services worker pool. Unlike the plain thread pool executor the pool
+ * first grows to the maximum number of threads and only then starts queuing
+ * the requests. The core threads are kept alive, the extra threads are
+ * stopped after the keep alive time.
+ *
+ * @author SBPrime
+ */
+class WorkerPool extends ThreadPoolExecutor {
+
+    /**
+     * Number of tasks submitted but not finished yet
+     */
+    private final AtomicInteger m_submitted = new AtomicInteger();
+
+    WorkerPool(int coreThreads, int maxThreads, long keepAlive, int queueSize,
+            ThreadFactory threadFactory) {
+        super(coreThreads, maxThreads, keepAlive, TimeUnit.SECONDS,
+                new WorkerQueue(queueSize), threadFactory, new AbortPolicy());
+
+        ((WorkerQueue) getQueue()).m_pool = this;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        m_submitted.incrementAndGet();
+        try {
+            super.execute(command);
+        } catch (RejectedExecutionException ex) {
+            //The pool reached the maximum size after the queue refused the task
+            if (isShutdown() || !((WorkerQueue) getQueue()).force(command)) {
+                m_submitted.decrementAndGet();
+                throw ex;
+            }
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        m_submitted.decrementAndGet();
+    }
+
+    /**
+     * The pool queue, it refuses the tasks while the pool is able to start a
+     * new thread and none of the threads is idle.
+     */
+    private static class WorkerQueue extends ArrayBlockingQueue<Runnable> {
+
+        private volatile WorkerPool m_pool;
+
+        WorkerQueue(int size) {
+            super(size);
+        }
+
+        @Override
+        public boolean offer(Runnable task) {
+            WorkerPool pool = m_pool;
+            if (pool != null) {
+                int poolSize = pool.getPoolSize();
+                if (pool.m_submitted.get() > poolSize
+                        && poolSize < pool.getMaximumPoolSize()) {
+                    return false;
+                }
+            }
+
+            return super.offer(task);
+        }
+
+        /**
+         * Queue the task without checking the pool size
+         *
+         * @param task
+         * @return
+         */
+        boolean force(Runnable task) {
+            return super.offer(task);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+
+/**
+ * The request counters of a registered context
+ *
+ * @author SBPrime
+ */
+public final class ContextMetrics {
+
+    /**
+     * The context name (host and context path)
+     */
+    private final String m_name;
+
+    /**
+     * The number of completed requests
+     */
+    private final AtomicLong m_requests = new AtomicLong();
+
+    /**
+     * The number of requests being processed
+     */
+    private final AtomicLong m_active = new AtomicLong();
+
+    /**
+     * The number of requests being processed by the whole server, kept after
+     * the context is unregistered
+     */
+    private final AtomicLong m_serverActive;
+
+    /**
+     * The completed requests by the status class (1xx to 5xx)
+     */
+    private final AtomicLongArray m_status = new AtomicLongArray(5);
+
+    /**
+     * The received request body bytes
+     */
+    private final AtomicLong m_bytesIn = new AtomicLong();
+
+    /**
+     * The send response body bytes
+     */
+    private final AtomicLong m_bytesOut = new AtomicLong();
+
+    /**
+     * The requests rejected because the executor was saturated
+     */
+    private final AtomicLong m_rejected = new AtomicLong();
+
+    /**
+     * The requests answered from the response cache
+     */
+    private final AtomicLong m_cacheHits = new AtomicLong();
+
+    /**
+     * The cacheable requests that were not found in the response cache
+     */
+    private final AtomicLong m_cacheMisses = new AtomicLong();
+
+    /**
+     * The request processing time, from the dispatch to the request close
+     */
+    private final LatencyHistogram m_latency = new LatencyHistogram();
+
+    public ContextMetrics(String name) {
+        this(name, new AtomicLong());
+    }
+
+    /**
+     * @param name the host and context path
+     * @param serverActive the server active requests counter
+     */
+    ContextMetrics(String name, AtomicLong serverActive) {
+        m_name = name;
+        m_serverActive = serverActive;
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Mark the request start
+     *
+     * @return the request start time (System.nanoTime)
+     */
+    public long start() {
+        m_active.incrementAndGet();
+        m_serverActive.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the completed request
+     *
+     * @param started the value returned by start
+     * @param httpCode the response code (-1 if no response was send)
+     * @param bytesIn the request body size
+     * @param bytesOut the response body size
+     */
+    public void finish(long started, int httpCode, long bytesIn, long bytesOut) {
+        m_latency.record((System.nanoTime() - started) / 1000);
+        m_active.decrementAndGet();
+        m_serverActive.decrementAndGet();
+        m_requests.incrementAndGet();
+
+        int statusClass = httpCode / 100;
+        if (statusClass >= 1 && statusClass <= 5) {
+            m_status.incrementAndGet(statusClass - 1);
+        }
+        if (bytesIn > 0) {
+            m_bytesIn.addAndGet(bytesIn);
+        }
+        if (bytesOut > 0) {
+            m_bytesOut.addAndGet(bytesOut);
+        }
+    }
+
+    /**
+     * Record the request rejected with 503 because the executor was saturated
+     *
+     * @param started the value returned by start
+     */
+    public void reject(long started) {
+        m_rejected.incrementAndGet();
+        finish(started, HttpStatusCodes.SERVICE_UNAVAILABLE, 0, 0);
+    }
+
+    /**
+     * Record the response cache lookup
+     *
+     * @param hit was the response found in the cache
+     */
+    public void cacheLookup(boolean hit) {
+        if (hit) {
+            m_cacheHits.incrementAndGet();
+        } else {
+            m_cacheMisses.incrementAndGet();
+        }
+    }
+
+    /**
+     * The number of completed requests
+     *
+     * @return
+     */
+    public long getRequests() {
+        return m_requests.get();
+    }
+
+    /**
+     * The number of requests being processed
+     *
+     * @return
+     */
+    public long getActive() {
+        return m_active.get();
+    }
+
+    /**
+     * The number of completed requests with the status class
+     *
+     * @param statusClass the status class (1 to 5)
+     * @return
+     */
+    public long getStatusCount(int statusClass) {
+        if (statusClass < 1 || statusClass > 5) {
+            throw new IllegalArgumentException("Invalid status class " + statusClass);
+        }
+
+        return m_status.get(statusClass - 1);
+    }
+
+    /**
+     * The received request body bytes
+     *
+     * @return
+     */
+    public long getBytesIn() {
+        return m_bytesIn.get();
+    }
+
+    /**
+     * The send response body bytes
+     *
+     * @return
+     */
+    public long getBytesOut() {
+        return m_bytesOut.get();
+    }
+
+    /**
+     * The number of requests rejected because the executor was saturated
+     *
+     * @return
+     */
+    public long getRejected() {
+        return m_rejected.get();
+    }
+
+    /**
+     * The number of requests answered from the response cache
+     *
+     * @return
+     */
+    public long getCacheHits() {
+        return m_cacheHits.get();
+    }
+
+    /**
+     * The number of cacheable requests not found in the response cache
+     *
+     * @return
+     */
+    public long getCacheMisses() {
+        return m_cacheMisses.get();
+    }
+
+    /**
+     * The request latency histogram (microseconds)
+     *
+     * @return
+     */
+    public LatencyHistogram getLatency() {
+        return m_latency;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with a fixed memory footprint. The values
+ * (microseconds) are counted in log-linear buckets, each power of two range
+ * is split into 16 buckets so the reported percentiles are within ~6% of the
+ * recorded value.
+ *
+ * @author SBPrime
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The number of bits used to split a power of two range
+     */
+    private static final int SUB_BITS = 4;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /**
+     * The highest tracked power of two (2^40us is more then 12 days), the
+     * larger values are counted in the last bucket
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * The number of buckets
+     */
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+    /**
+     * The bucket counters
+     */
+    private final AtomicLongArray m_counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The sum of the recorded values
+     */
+    private final AtomicLong m_sum = new AtomicLong();
+
+    /**
+     * The largest recorded value
+     */
+    private final AtomicLong m_max = new AtomicLong();
+
+    /**
+     * Record the value
+     *
+     * @param micros
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+
+        m_counts.incrementAndGet(indexOf(micros));
+        m_sum.addAndGet(micros);
+
+        long max = m_max.get();
+        while (micros > max && !m_max.compareAndSet(max, micros)) {
+            max = m_max.get();
+        }
+    }
+
+    /**
+     * Get a copy of the current counters
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+        return snapshot(new Snapshot());
+    }
+
+    /**
+     * Copy the current counters to an existing snapshot
+     *
+     * @param target the snapshot to reuse
+     * @return the target
+     */
+    public Snapshot snapshot(Snapshot target) {
+        long[] counts = target.m_counts;
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = m_counts.get(i);
+            total += counts[i];
+        }
+
+        target.m_count = total;
+        target.m_sum = m_sum.get();
+        target.m_max = m_max.get();
+        return target;
+    }
+
+    /**
+     * Get the bucket of the value
+     *
+     * @param value
+     * @return
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Get the smallest value counted in the bucket
+     *
+     * @param index
+     * @return
+     */
+    private static long lowerBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+
+        int group = index / SUB_COUNT;
+        int sub = index % SUB_COUNT;
+        return (long) (SUB_COUNT + sub) << (group - 1);
+    }
+
+    /**
+     * Get the largest value counted in the bucket
+     *
+     * @param index
+     * @return
+     */
+    private static long upperBound(int index) {
+        return index + 1 < BUCKETS ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    /**
+     * The histogram counters at a point in time
+     */
+    public static final class Snapshot {
+
+        private final long[] m_counts = new long[BUCKETS];
+
+        private long m_count;
+
+        private long m_sum;
+
+        private long m_max;
+
+        /**
+         * Create an empty snapshot, fill it using LatencyHistogram.snapshot
+         */
+        public Snapshot() {
+        }
+
+        /**
+         * The number of recorded values
+         *
+         * @return
+         */
+        public long getCount() {
+            return m_count;
+        }
+
+        /**
+         * The sum of the recorded values (microseconds)
+         *
+         * @return
+         */
+        public long getSum() {
+            return m_sum;
+        }
+
+        /**
+         * The largest recorded value (microseconds)
+         *
+         * @return
+         */
+        public long getMax() {
+            return m_max;
+        }
+
+        /**
+         * The average value (microseconds)
+         *
+         * @return
+         */
+        public double getMean() {
+            return m_count > 0 ? (double) m_sum / m_count : 0;
+        }
+
+        /**
+         * Get the value below which the fraction of the recorded values falls
+         *
+         * @param quantile the fraction (for example 0.99 for p99)
+         * @return the bucket upper bound in microseconds, 0 if nothing was
+         * recorded
+         */
+        public long getPercentile(double quantile) {
+            if (m_count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(quantile * m_count);
+            if (rank < 1) {
+                rank = 1;
+            }
+
+            long seen = 0;
+            for (int i = 0; i < m_counts.length; i++) {
+                seen += m_counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), m_max);
+                }
+            }
+
+            return m_max;
+        }
+
+        /**
+         * Get the number of the values counted in the buckets that lie
+         * entirely at or below the value
+         *
+         * @param micros
+         * @return
+         */
+        public long getCountAtOrBelow(long micros) {
+            long result = 0;
+            for (int i = 0; i < m_counts.length && upperBound(i) <= micros; i++) {
+                result += m_counts[i];
+            }
+
+            return result;
+        }
+    }
+}
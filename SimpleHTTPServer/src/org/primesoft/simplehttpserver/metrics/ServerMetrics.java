@@ -0,0 +1,164 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The request metrics of the registered contexts of a server
+ *
+ * @author SBPrime
+ */
+public final class ServerMetrics {
+
+    /**
+     * The registered contexts metrics
+     */
+    private final ConcurrentHashMap<String, ContextMetrics> m_contexts = new ConcurrentHashMap<String, ContextMetrics>();
+
+    /**
+     * The number of requests being processed, including the requests of the
+     * unregistered contexts
+     */
+    private final AtomicLong m_active = new AtomicLong();
+
+    /**
+     * The shared worker executor (null if the server is stopped)
+     */
+    private volatile Executor m_executor;
+
+    /**
+     * Set the shared worker executor (used by the server)
+     *
+     * @param executor null if the server is stopped
+     */
+    public void setExecutor(Executor executor) {
+        m_executor = executor;
+    }
+
+    /**
+     * The number of requests waiting for a free worker thread
+     *
+     * @return 0 if the executor has no queue (virtual threads)
+     */
+    public int getQueueDepth() {
+        Executor executor = m_executor;
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    /**
+     * The number of worker threads running a request
+     *
+     * @return 0 if not known (virtual threads)
+     */
+    public int getActiveWorkers() {
+        Executor executor = m_executor;
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getActiveCount() : 0;
+    }
+
+    /**
+     * The number of worker threads
+     *
+     * @return 0 if not known (virtual threads)
+     */
+    public int getWorkerThreads() {
+        Executor executor = m_executor;
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getPoolSize() : 0;
+    }
+
+    /**
+     * Create the metrics for a registered context (used by the server)
+     *
+     * @param name the host and context path
+     * @return
+     */
+    public ContextMetrics register(String name) {
+        ContextMetrics result = new ContextMetrics(name, m_active);
+        m_contexts.put(name, result);
+        return result;
+    }
+
+    /**
+     * Remove the metrics of an unregistered context (used by the server)
+     *
+     * @param metrics
+     */
+    public void unregister(ContextMetrics metrics) {
+        m_contexts.remove(metrics.getName(), metrics);
+    }
+
+    /**
+     * Get the context metrics
+     *
+     * @param name the host and context path (for example "/api" or
+     * "example.com/api")
+     * @return null if the context is not registered
+     */
+    public ContextMetrics get(String name) {
+        return m_contexts.get(name);
+    }
+
+    /**
+     * The number of requests being processed by the server, the requests of
+     * the unregistered contexts are included
+     *
+     * @return
+     */
+    public long getActive() {
+        return m_active.get();
+    }
+
+    /**
+     * Get the metrics of all the registered contexts
+     *
+     * @return the metrics sorted by the context name
+     */
+    public Map<String, ContextMetrics> getContexts() {
+        return Collections.unmodifiableMap(new TreeMap<String, ContextMetrics>(m_contexts));
+    }
+}
@@ -46,31 +46,31 @@ import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.charset.Charset;
 import javax.imageio.ImageIO;
 import org.primesoft.simplehttpserver.api.HttpStatusCodes;
 import org.primesoft.simplehttpserver.api.IHeaders;
 import org.primesoft.simplehttpserver.api.IHttpRequest;
 import org.primesoft.simplehttpserver.api.IService;
+import org.primesoft.simplehttpserver.utils.OffHeapStore;
 
 /**
  *
  * @author SBPrime
  */
 public class DefaultService implements IService {
-    private static final byte[] s_data = "SimpleHTTP Server plugin".getBytes(Charset.forName("UTF-8"));
+    /**
+     * The response body, kept in the off-heap store for the plugin lifetime
+     */
+    private static final OffHeapStore.Block s_data = OffHeapStore.getDefault().copyOf(
+            "SimpleHTTP Server plugin".getBytes(Charset.forName("UTF-8")));
     
     
     @Override
     public void handle(IHttpRequest request) throws IOException {        
         IHeaders outHeaders = request.getResponseHeader();
         outHeaders.add("Content-Type", "text/plain");
-        request.sendResponse(HttpStatusCodes.OK, s_data.length);
-
-        OutputStream os = request.getResponseBody();
-        os.write(s_data);
-        os.close();
+        request.sendResponse(HttpStatusCodes.OK, s_data);
     }
 
 }
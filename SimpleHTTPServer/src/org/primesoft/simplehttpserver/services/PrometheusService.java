@@ -0,0 +1,362 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.api.IHttpRequest;
+import org.primesoft.simplehttpserver.api.IService;
+import org.primesoft.simplehttpserver.implementation.MainThreadBridge;
+import org.primesoft.simplehttpserver.metrics.ContextMetrics;
+import org.primesoft.simplehttpserver.metrics.LatencyHistogram;
+import org.primesoft.simplehttpserver.metrics.ServerMetrics;
+import org.primesoft.simplehttpserver.utils.OffHeapStore;
+
+/**
+ * Exposes the server metrics in the Prometheus text format. The output is
+ * rendered into a reused buffer, the scrapes are serialized.
+ *
+ * @author SBPrime
+ */
+public class PrometheusService implements IService {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The initial output buffer size
+     */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The latency histogram buckets (microseconds)
+     */
+    private static final long[] s_buckets = new long[]{
+        1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+        1000000, 2500000, 5000000, 10000000
+    };
+
+    /**
+     * The latency histogram bucket labels (seconds)
+     */
+    private static final String[] s_bucketLabels = new String[]{
+        "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5",
+        "1", "2.5", "5", "10"
+    };
+
+    /**
+     * The reported latency quantiles
+     */
+    private static final double[] s_quantiles = new double[]{0.5, 0.99, 0.999};
+
+    private static final String[] s_quantileLabels = new String[]{"0.5", "0.99", "0.999"};
+
+    private final ServerMetrics m_metrics;
+
+    /**
+     * The main thread work queue
+     */
+    private final MainThreadBridge m_bridge;
+
+    /**
+     * The rendered output (guarded by this)
+     */
+    private byte[] m_buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The rendered output size (guarded by this)
+     */
+    private int m_size;
+
+    /**
+     * The reused latency snapshot (guarded by this)
+     */
+    private final LatencyHistogram.Snapshot m_snapshot = new LatencyHistogram.Snapshot();
+
+    /**
+     * @param metrics the server metrics to expose
+     * @param bridge the main thread work queue to expose
+     */
+    public PrometheusService(ServerMetrics metrics, MainThreadBridge bridge) {
+        m_metrics = metrics;
+        m_bridge = bridge;
+    }
+
+    @Override
+    public void handle(IHttpRequest request) throws IOException {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            request.getResponseHeader().add("Allow", "GET, HEAD");
+            request.sendResponse(HttpStatusCodes.METHOD_NOT_ALLOWED, -1);
+            return;
+        }
+
+        request.getResponseHeader().add("Content-Type", CONTENT_TYPE);
+        request.getResponseHeader().add("Cache-Control", "no-store");
+
+        synchronized (this) {
+            render();
+            request.sendResponse(HttpStatusCodes.OK, ByteBuffer.wrap(m_buffer, 0, m_size));
+        }
+    }
+
+    /**
+     * Render the metrics to the buffer
+     */
+    private void render() {
+        m_size = 0;
+        Map<String, ContextMetrics> contexts = m_metrics.getContexts();
+
+        type("simplehttp_requests_total", "counter", "Completed requests by the status class");
+        for (ContextMetrics metrics : contexts.values()) {
+            for (int statusClass = 1; statusClass <= 5; statusClass++) {
+                name("simplehttp_requests_total", metrics);
+                append(",code=\"").append(statusClass).append("xx\"} ");
+                append(metrics.getStatusCount(statusClass)).append('\n');
+            }
+        }
+
+        type("simplehttp_requests_in_flight", "gauge", "Requests being processed or queued");
+        for (ContextMetrics metrics : contexts.values()) {
+            sample("simplehttp_requests_in_flight", metrics, metrics.getActive());
+        }
+
+        type("simplehttp_requests_rejected_total", "counter", "Requests rejected with 503, the executor was saturated");
+        for (ContextMetrics metrics : contexts.values()) {
+            sample("simplehttp_requests_rejected_total", metrics, metrics.getRejected());
+        }
+
+        type("simplehttp_request_bytes_total", "counter", "Received request body bytes");
+        for (ContextMetrics metrics : contexts.values()) {
+            sample("simplehttp_request_bytes_total", metrics, metrics.getBytesIn());
+        }
+
+        type("simplehttp_response_bytes_total", "counter", "Send response body bytes");
+        for (ContextMetrics metrics : contexts.values()) {
+            sample("simplehttp_response_bytes_total", metrics, metrics.getBytesOut());
+        }
+
+        type("simplehttp_cache_hits_total", "counter", "Requests answered from the response cache");
+        for (ContextMetrics metrics : contexts.values()) {
+            sample("simplehttp_cache_hits_total", metrics, metrics.getCacheHits());
+        }
+
+        type("simplehttp_cache_misses_total", "counter", "Cacheable requests not found in the response cache");
+        for (ContextMetrics metrics : contexts.values()) {
+            sample("simplehttp_cache_misses_total", metrics, metrics.getCacheMisses());
+        }
+
+        type("simplehttp_cache_hit_ratio", "gauge", "Response cache hit ratio since the context was registered");
+        for (ContextMetrics metrics : contexts.values()) {
+            long hits = metrics.getCacheHits();
+            long total = hits + metrics.getCacheMisses();
+            if (total > 0) {
+                name("simplehttp_cache_hit_ratio", metrics).append("} ");
+                appendFixed(hits * 1000000 / total).append('\n');
+            }
+        }
+
+        type("simplehttp_request_duration_seconds", "histogram", "Request processing time, from the dispatch to the response");
+        for (ContextMetrics metrics : contexts.values()) {
+            LatencyHistogram.Snapshot snapshot = metrics.getLatency().snapshot(m_snapshot);
+            for (int i = 0; i < s_buckets.length; i++) {
+                name("simplehttp_request_duration_seconds_bucket", metrics);
+                append(",le=\"").append(s_bucketLabels[i]).append("\"} ");
+                append(snapshot.getCountAtOrBelow(s_buckets[i])).append('\n');
+            }
+            name("simplehttp_request_duration_seconds_bucket", metrics);
+            append(",le=\"+Inf\"} ").append(snapshot.getCount()).append('\n');
+            name("simplehttp_request_duration_seconds_sum", metrics).append("} ");
+            appendFixed(snapshot.getSum()).append('\n');
+            name("simplehttp_request_duration_seconds_count", metrics).append("} ");
+            append(snapshot.getCount()).append('\n');
+        }
+
+        type("simplehttp_request_duration_quantile_seconds", "gauge", "Request processing time quantiles");
+        for (ContextMetrics metrics : contexts.values()) {
+            LatencyHistogram.Snapshot snapshot = metrics.getLatency().snapshot(m_snapshot);
+            for (int i = 0; i < s_quantiles.length; i++) {
+                name("simplehttp_request_duration_quantile_seconds", metrics);
+                append(",quantile=\"").append(s_quantileLabels[i]).append("\"} ");
+                appendFixed(snapshot.getPercentile(s_quantiles[i])).append('\n');
+            }
+        }
+
+        type("simplehttp_executor_queue_depth", "gauge", "Requests waiting for a free worker thread");
+        append("simplehttp_executor_queue_depth ").append(m_metrics.getQueueDepth()).append('\n');
+
+        type("simplehttp_executor_active_threads", "gauge", "Worker threads running a request");
+        append("simplehttp_executor_active_threads ").append(m_metrics.getActiveWorkers()).append('\n');
+
+        type("simplehttp_executor_threads", "gauge", "Worker threads");
+        append("simplehttp_executor_threads ").append(m_metrics.getWorkerThreads()).append('\n');
+
+        type("simplehttp_offheap_reserved_bytes", "gauge", "Direct memory reserved by the off-heap store");
+        append("simplehttp_offheap_reserved_bytes ").append(OffHeapStore.getDefault().getReserved()).append('\n');
+
+        type("simplehttp_main_thread_queue_length", "gauge", "Requests waiting for the main thread");
+        append("simplehttp_main_thread_queue_length ").append(m_bridge.getQueueLength()).append('\n');
+
+        type("simplehttp_main_thread_last_queue_length", "gauge", "Requests waiting at the start of the last tick");
+        append("simplehttp_main_thread_last_queue_length ").append(m_bridge.getLastQueueLength()).append('\n');
+
+        type("simplehttp_main_thread_last_deferred", "gauge", "Requests deferred to the next tick by the last tick");
+        append("simplehttp_main_thread_last_deferred ").append(m_bridge.getLastDeferred()).append('\n');
+
+        type("simplehttp_main_thread_processed_total", "counter", "Requests processed on the main thread");
+        append("simplehttp_main_thread_processed_total ").append(m_bridge.getTotalProcessed()).append('\n');
+
+        type("simplehttp_main_thread_deferred_total", "counter", "Requests deferred to the next tick, counted once per tick");
+        append("simplehttp_main_thread_deferred_total ").append(m_bridge.getTotalDeferred()).append('\n');
+
+        type("simplehttp_main_thread_last_tick_seconds", "gauge", "Main thread time used by the last tick");
+        append("simplehttp_main_thread_last_tick_seconds ");
+        appendFixed(TimeUnit.NANOSECONDS.toMicros(m_bridge.getLastTickTime())).append('\n');
+
+        type("simplehttp_main_thread_max_tick_seconds", "gauge", "The longest main thread time used by a tick");
+        append("simplehttp_main_thread_max_tick_seconds ");
+        appendFixed(TimeUnit.NANOSECONDS.toMicros(m_bridge.getMaxTickTime())).append('\n');
+    }
+
+    /**
+     * Write the metric help and type
+     *
+     * @param name
+     * @param type
+     * @param help
+     */
+    private void type(String name, String type, String help) {
+        append("# HELP ").append(name).append(' ').append(help).append('\n');
+        append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Write a context sample without extra labels
+     *
+     * @param name
+     * @param metrics
+     * @param value
+     */
+    private void sample(String name, ContextMetrics metrics, long value) {
+        name(name, metrics).append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Write the metric name and the open context label set
+     *
+     * @param name
+     * @param metrics
+     * @return
+     */
+    private PrometheusService name(String name, ContextMetrics metrics) {
+        append(name).append("{context=\"");
+
+        String context = metrics.getName();
+        for (int i = 0; i < context.length(); i++) {
+            char c = context.charAt(i);
+            if (c == '\\' || c == '"') {
+                append('\\').append(c);
+            } else if (c == '\n') {
+                append('\\').append('n');
+            } else {
+                append(c);
+            }
+        }
+
+        return append('"');
+    }
+
+    /**
+     * Write a millionth fixed point value (microseconds as seconds, ratio)
+     *
+     * @param value
+     * @return
+     */
+    private PrometheusService appendFixed(long value) {
+        append(value / 1000000).append('.');
+
+        long fraction = value % 1000000;
+        for (long digit = 100000; digit > 0; digit /= 10) {
+            append((char) ('0' + fraction / digit % 10));
+        }
+
+        return this;
+    }
+
+    private PrometheusService append(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            append(s.charAt(i));
+        }
+
+        return this;
+    }
+
+    private PrometheusService append(long value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+
+        long digit = 1;
+        while (digit <= value / 10) {
+            digit *= 10;
+        }
+        for (; digit > 0; digit /= 10) {
+            append((char) ('0' + value / digit % 10));
+        }
+
+        return this;
+    }
+
+    private PrometheusService append(char c) {
+        if (m_size == m_buffer.length) {
+            m_buffer = Arrays.copyOf(m_buffer, m_buffer.length * 2);
+        }
+
+        //Non ASCII characters are replaced, the context names are paths
+        m_buffer[m_size++] = c < 0x80 ? (byte) c : (byte) '?';
+        return this;
+    }
+}
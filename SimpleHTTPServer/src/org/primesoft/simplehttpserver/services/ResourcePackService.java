@@ -0,0 +1,474 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.services;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.primesoft.simplehttpserver.SimpleHTTPServerMain;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.api.IHeaders;
+import org.primesoft.simplehttpserver.api.IHttpRequest;
+import org.primesoft.simplehttpserver.api.IResourcePack;
+import org.primesoft.simplehttpserver.api.IService;
+import org.primesoft.simplehttpserver.utils.ByteRange;
+import org.primesoft.simplehttpserver.utils.DirectoryWatcher;
+import org.primesoft.simplehttpserver.utils.ExceptionHelper;
+import org.primesoft.simplehttpserver.utils.HttpConditions;
+import org.primesoft.simplehttpserver.utils.HttpDates;
+
+/**
+ * Serves the Minecraft resource packs (*.zip) from a directory. The pack
+ * hashes are computed when the pack is loaded or changed, not per request.
+ *
+ * @author SBPrime
+ */
+public class ResourcePackService implements IService, DirectoryWatcher.IChangeListener {
+
+    private static final String CONTENT_TYPE = "application/zip";
+
+    private static final String PACK_EXTENSION = ".zip";
+
+    /**
+     * The time without changes after which a changed pack is reloaded
+     */
+    private static final long QUIET_PERIOD = 1000;
+
+    /**
+     * Number of hash attempts for a pack that is being modified
+     */
+    private static final int HASH_ATTEMPTS = 3;
+
+    private static final char[] s_hex = "0123456789abcdef".toCharArray();
+
+    /**
+     * Log a message
+     *
+     * @param msg
+     */
+    private static void log(String msg) {
+        SimpleHTTPServerMain.log(msg);
+    }
+
+    /**
+     * The packs directory
+     */
+    private final Path m_directory;
+
+    /**
+     * The service context
+     */
+    private final String m_context;
+
+    /**
+     * The packs base url
+     */
+    private volatile String m_baseUrl;
+
+    /**
+     * The loaded packs
+     */
+    private final ConcurrentHashMap<String, Pack> m_packs = new ConcurrentHashMap<String, Pack>();
+
+    private final DirectoryWatcher m_watcher;
+
+    /**
+     * @param directory the packs directory
+     * @param context the service context
+     * @param baseUrl the url of the service context (null if not known)
+     */
+    public ResourcePackService(Path directory, String context, String baseUrl) {
+        m_directory = directory.toAbsolutePath();
+        m_context = context;
+        m_baseUrl = baseUrl;
+        m_watcher = new DirectoryWatcher(m_directory, false, QUIET_PERIOD, this);
+    }
+
+    /**
+     * Change the url of the service context, the loaded packs are updated
+     *
+     * @param baseUrl the url of the service context (null if not known)
+     */
+    public void setBaseUrl(String baseUrl) {
+        synchronized (m_packs) {
+            m_baseUrl = baseUrl;
+            for (Pack pack : m_packs.values()) {
+                m_packs.replace(pack.m_name, pack, pack.withUrl(getUrl(pack.m_name)));
+            }
+        }
+    }
+
+    /**
+     * Load the packs and start watching the directory for changes
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        Files.createDirectories(m_directory);
+
+        m_watcher.start();
+        reloadAll();
+    }
+
+    /**
+     * Stop watching the directory
+     */
+    public void stop() {
+        m_watcher.stop();
+    }
+
+    /**
+     * Get the loaded pack
+     *
+     * @param name
+     * @return
+     */
+    public IResourcePack getPack(String name) {
+        return name != null ? m_packs.get(name) : null;
+    }
+
+    /**
+     * Get all the loaded packs
+     *
+     * @return
+     */
+    public Collection<IResourcePack> getPacks() {
+        return new ArrayList<IResourcePack>(m_packs.values());
+    }
+
+    @Override
+    public void onChanged(Set<Path> paths) {
+        if (paths.contains(m_directory)) {
+            reloadAll();
+            return;
+        }
+
+        for (Path path : paths) {
+            if (m_directory.equals(path.getParent())) {
+                reload(path);
+            }
+        }
+    }
+
+    @Override
+    public void handle(IHttpRequest request) throws IOException {
+        IHeaders outHeaders = request.getResponseHeader();
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            outHeaders.add("Allow", "GET, HEAD");
+            request.sendResponse(HttpStatusCodes.METHOD_NOT_ALLOWED, -1);
+            return;
+        }
+
+        //The packs are not in subdirectories, the name has to follow the
+        //context directly
+        String path = request.getUri().getPath();
+        String name = path != null && path.startsWith(m_context) ? path.substring(m_context.length()) : "";
+        if (name.startsWith("/")) {
+            name = name.substring(1);
+        } else if (!m_context.endsWith("/")) {
+            name = "";
+        }
+
+        Pack pack = !name.isEmpty() && name.indexOf('/') < 0 ? m_packs.get(name) : null;
+        if (pack == null) {
+            request.sendResponse(HttpStatusCodes.NOT_FOUND, -1);
+            return;
+        }
+
+        IHeaders inHeaders = request.getRequestHeader();
+        outHeaders.add("ETag", pack.m_etag);
+        outHeaders.add("Accept-Ranges", "bytes");
+
+        if (HttpConditions.isNotModified(inHeaders, pack.m_etag, pack.m_lastModified)) {
+            outHeaders.add("Last-Modified", HttpDates.format(pack.m_lastModified));
+            request.sendResponse(HttpStatusCodes.NOT_MODIFIED, -1);
+            return;
+        }
+
+        ByteRange range = null;
+        if (HttpConditions.isRangeAllowed(inHeaders, pack.m_etag, pack.m_lastModified)) {
+            range = ByteRange.parse(inHeaders.getFirst("Range"), pack.m_size);
+        }
+        if (range == ByteRange.UNSATISFIABLE) {
+            outHeaders.add("Content-Range", "bytes */" + pack.m_size);
+            request.sendResponse(HttpStatusCodes.REQUESTED_RANGE_NOT_SATISFIABLE, -1);
+            return;
+        }
+
+        try {
+            if (range == null) {
+                request.sendFile(pack.m_file, CONTENT_TYPE);
+            } else {
+                request.sendFile(pack.m_file, CONTENT_TYPE, range.getOffset(), range.getLength());
+            }
+        } catch (NoSuchFileException ex) {
+            //Removed, the watcher did not report it yet
+            m_packs.remove(pack.getName(), pack);
+            request.sendResponse(HttpStatusCodes.NOT_FOUND, -1);
+        }
+    }
+
+    /**
+     * Load all the packs from the directory
+     */
+    private void reloadAll() {
+        Set<String> found = new HashSet<String>();
+
+        try {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(m_directory, "*" + PACK_EXTENSION);
+            try {
+                for (Path file : stream) {
+                    found.add(file.getFileName().toString());
+                    reload(file);
+                }
+            } finally {
+                stream.close();
+            }
+        } catch (IOException ex) {
+            ExceptionHelper.printException(ex, "Unable to list the resource packs");
+            return;
+        }
+
+        for (String name : m_packs.keySet()) {
+            if (!found.contains(name)) {
+                m_packs.remove(name);
+                log("Resource pack " + name + " removed.");
+            }
+        }
+    }
+
+    /**
+     * Load, update or remove the pack
+     *
+     * @param file
+     */
+    private void reload(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(PACK_EXTENSION) || !Files.isRegularFile(file)) {
+            if (m_packs.remove(name) != null) {
+                log("Resource pack " + name + " removed.");
+            }
+            return;
+        }
+
+        try {
+            for (int i = 0; i < HASH_ATTEMPTS; i++) {
+                BasicFileAttributes before = Files.readAttributes(file, BasicFileAttributes.class);
+                long size = before.size();
+                long lastModified = before.lastModifiedTime().toMillis();
+
+                Pack old = m_packs.get(name);
+                if (old != null && old.m_size == size && old.m_lastModified == lastModified) {
+                    return;
+                }
+
+                byte[] hash = hash(file);
+
+                BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+                if (after.size() != size || after.lastModifiedTime().toMillis() != lastModified) {
+                    //Modified while hashing
+                    continue;
+                }
+
+                Pack pack;
+                synchronized (m_packs) {
+                    //The url is computed under the lock so a base url change
+                    //can not be missed
+                    pack = new Pack(file, name, getUrl(name), hash, size, lastModified);
+                    m_packs.put(name, pack);
+                }
+                log("Resource pack " + name + " loaded (" + pack.getHashString() + ").");
+                return;
+            }
+
+            log("Resource pack " + name + " is being modified, waiting for the next change.");
+        } catch (NoSuchFileException ex) {
+            if (m_packs.remove(name) != null) {
+                log("Resource pack " + name + " removed.");
+            }
+        } catch (IOException ex) {
+            ExceptionHelper.printException(ex, "Unable to load the resource pack " + name);
+        }
+    }
+
+    private String getUrl(String name) {
+        String baseUrl = m_baseUrl;
+        if (baseUrl == null) {
+            return null;
+        }
+
+        try {
+            return baseUrl + URLEncoder.encode(name, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException ex) {
+            return baseUrl + name;
+        }
+    }
+
+    /**
+     * Compute the SHA-1 hash of the file
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    private static byte[] hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
+
+        return digest.digest();
+    }
+
+    private static String toHex(byte[] data) {
+        char[] result = new char[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            result[i * 2] = s_hex[(data[i] >> 4) & 0xf];
+            result[i * 2 + 1] = s_hex[data[i] & 0xf];
+        }
+
+        return new String(result);
+    }
+
+    /**
+     * The loaded pack
+     */
+    private static class Pack implements IResourcePack {
+
+        private final Path m_file;
+
+        private final String m_name;
+
+        private final String m_url;
+
+        private final byte[] m_hash;
+
+        private final String m_hashString;
+
+        private final String m_etag;
+
+        private final long m_size;
+
+        private final long m_lastModified;
+
+        Pack(Path file, String name, String url, byte[] hash, long size, long lastModified) {
+            m_file = file;
+            m_name = name;
+            m_url = url;
+            m_hash = hash;
+            m_hashString = toHex(hash);
+            m_etag = "\"" + m_hashString + "\"";
+            m_size = size;
+            m_lastModified = lastModified;
+        }
+
+        /**
+         * Create a copy of the pack with a new url
+         *
+         * @param url
+         * @return
+         */
+        Pack withUrl(String url) {
+            return new Pack(m_file, m_name, url, m_hash, m_size, m_lastModified);
+        }
+
+        @Override
+        public String getName() {
+            return m_name;
+        }
+
+        @Override
+        public String getUrl() {
+            return m_url;
+        }
+
+        @Override
+        public byte[] getHash() {
+            return m_hash.clone();
+        }
+
+        @Override
+        public String getHashString() {
+            return m_hashString;
+        }
+
+        @Override
+        public long getSize() {
+            return m_size;
+        }
+
+        @Override
+        public long getLastModified() {
+            return m_lastModified;
+        }
+    }
+}
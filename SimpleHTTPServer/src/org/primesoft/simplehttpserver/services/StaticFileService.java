@@ -0,0 +1,700 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.api.IHeaders;
+import org.primesoft.simplehttpserver.api.IHttpRequest;
+import org.primesoft.simplehttpserver.api.IService;
+import org.primesoft.simplehttpserver.utils.ByteRange;
+import org.primesoft.simplehttpserver.utils.DirectoryWatcher;
+import org.primesoft.simplehttpserver.utils.HttpConditions;
+import org.primesoft.simplehttpserver.utils.HttpDates;
+import org.primesoft.simplehttpserver.utils.MimeTypes;
+import org.primesoft.simplehttpserver.utils.OffHeapStore;
+
+/**
+ * Serves the files from a directory. Small files are kept in the off-heap
+ * store in a size bounded LRU cache, large files are memory mapped (the
+ * mapped files have a separate bound). The compressible files are also kept
+ * gzip compressed, the compressed copy is created on the first request that
+ * accepts it. The cached entries are invalidated when the files change.
+ *
+ * Note: the files should be replaced, not truncated in place, a mapped file
+ * that shrinks while being send can not be read.
+ *
+ * @author SBPrime
+ */
+public class StaticFileService implements IService, DirectoryWatcher.IChangeListener {
+
+    /**
+     * The default size of the in-memory cache (in bytes)
+     */
+    public static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The default maximum size of the file kept in memory (in bytes)
+     */
+    public static final int DEFAULT_MAX_CACHED_FILE = 256 * 1024;
+
+    /**
+     * The default size of the memory mapped files (in bytes)
+     */
+    public static final long DEFAULT_MAPPED_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * The file send for the directory requests
+     */
+    private static final String INDEX_FILE = "index.html";
+
+    /**
+     * Maximum number of the cached entries (in-memory and mapped)
+     */
+    private static final int MAX_ENTRIES = 4096;
+
+    /**
+     * Maximum number of the memory mapped files
+     */
+    private static final int MAX_MAPPED = 64;
+
+    /**
+     * The cache key prefix of the gzip compressed files (the request paths
+     * with a NUL character are rejected)
+     */
+    private static final String GZIP_PREFIX = "\0gzip:";
+
+    /**
+     * The time without changes after which the changes are processed
+     */
+    private static final long QUIET_PERIOD = 250;
+
+    /**
+     * The served directory
+     */
+    private final Path m_root;
+
+    /**
+     * The service context
+     */
+    private final String m_context;
+
+    /**
+     * The in-memory cache size (in bytes)
+     */
+    private final long m_cacheSize;
+
+    /**
+     * Maximum size of the file kept in memory (in bytes)
+     */
+    private final int m_maxCachedFile;
+
+    /**
+     * The memory mapped files size (in bytes)
+     */
+    private final long m_mappedSize;
+
+    /**
+     * The cached entries, in access order
+     */
+    private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Size of the in-memory entries
+     */
+    private long m_cachedBytes;
+
+    /**
+     * Size of the memory mapped entries
+     */
+    private long m_mappedBytes;
+
+    /**
+     * Number of the memory mapped entries
+     */
+    private int m_mappedCount;
+
+    /**
+     * Incremented on each invalidation, entries loaded before the
+     * invalidation are not cached
+     */
+    private final AtomicLong m_generation = new AtomicLong();
+
+    private final DirectoryWatcher m_watcher;
+
+    /**
+     * @param root the served directory
+     * @param context the service context
+     */
+    public StaticFileService(Path root, String context) {
+        this(root, context, DEFAULT_CACHE_SIZE, DEFAULT_MAX_CACHED_FILE);
+    }
+
+    /**
+     * @param root the served directory
+     * @param context the service context
+     * @param cacheSize the in-memory cache size (in bytes)
+     * @param maxCachedFile maximum size of the file kept in memory (in bytes),
+     * larger files are memory mapped
+     */
+    public StaticFileService(Path root, String context, long cacheSize, int maxCachedFile) {
+        this(root, context, cacheSize, maxCachedFile, DEFAULT_MAPPED_SIZE);
+    }
+
+    /**
+     * @param root the served directory
+     * @param context the service context
+     * @param cacheSize the in-memory cache size (in bytes)
+     * @param maxCachedFile maximum size of the file kept in memory (in bytes),
+     * larger files are memory mapped
+     * @param mappedSize the memory mapped files size (in bytes), the files
+     * larger than this are read on each request
+     */
+    public StaticFileService(Path root, String context, long cacheSize, int maxCachedFile,
+            long mappedSize) {
+        m_root = root.toAbsolutePath().normalize();
+        m_context = context;
+        m_cacheSize = cacheSize;
+        m_maxCachedFile = maxCachedFile;
+        m_mappedSize = mappedSize;
+        m_watcher = new DirectoryWatcher(m_root, true, QUIET_PERIOD, this);
+    }
+
+    /**
+     * Start watching the directory for changes
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        m_watcher.start();
+    }
+
+    /**
+     * Stop watching the directory and drop the cached entries
+     */
+    public void stop() {
+        m_watcher.stop();
+
+        synchronized (m_entries) {
+            m_generation.incrementAndGet();
+            clear();
+        }
+    }
+
+    @Override
+    public void onChanged(Set<Path> paths) {
+        synchronized (m_entries) {
+            m_generation.incrementAndGet();
+
+            if (paths.contains(m_root)) {
+                clear();
+                return;
+            }
+
+            Iterator<Entry> it = m_entries.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                for (Path path : paths) {
+                    if (entry.m_file.startsWith(path)) {
+                        it.remove();
+                        discard(entry);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all the cached entries (needs the entries lock)
+     */
+    private void clear() {
+        for (Entry entry : m_entries.values()) {
+            entry.release();
+        }
+        m_entries.clear();
+        m_cachedBytes = 0;
+        m_mappedBytes = 0;
+        m_mappedCount = 0;
+    }
+
+    /**
+     * Count the added entry in the cache size (needs the entries lock)
+     *
+     * @param entry
+     */
+    private void add(Entry entry) {
+        m_cachedBytes += entry.getWeight();
+        if (entry.isMapped()) {
+            m_mappedBytes += entry.m_size;
+            m_mappedCount++;
+        }
+    }
+
+    /**
+     * Release the removed entry (needs the entries lock)
+     *
+     * @param entry
+     */
+    private void discard(Entry entry) {
+        m_cachedBytes -= entry.getWeight();
+        if (entry.isMapped()) {
+            m_mappedBytes -= entry.m_size;
+            m_mappedCount--;
+        }
+        entry.release();
+    }
+
+    /**
+     * Remove the least recently used entries until the cache is in the
+     * bounds (needs the entries lock). The in-memory and the mapped entries
+     * are bounded separately.
+     */
+    private void evict() {
+        Iterator<Entry> it = m_entries.values().iterator();
+        while (it.hasNext() && (m_entries.size() > MAX_ENTRIES || m_cachedBytes > m_cacheSize
+                || m_mappedBytes > m_mappedSize || m_mappedCount > MAX_MAPPED)) {
+            Entry entry = it.next();
+            boolean overBound = entry.isMapped()
+                    ? m_mappedBytes > m_mappedSize || m_mappedCount > MAX_MAPPED
+                    : m_cachedBytes > m_cacheSize;
+            if (overBound || m_entries.size() > MAX_ENTRIES) {
+                it.remove();
+                discard(entry);
+            }
+        }
+    }
+
+    @Override
+    public void handle(IHttpRequest request) throws IOException {
+        IHeaders outHeaders = request.getResponseHeader();
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            outHeaders.add("Allow", "GET, HEAD");
+            request.sendResponse(HttpStatusCodes.METHOD_NOT_ALLOWED, -1);
+            return;
+        }
+
+        String path = request.getUri().getPath();
+        String key = path != null && path.startsWith(m_context) ? path.substring(m_context.length()) : "";
+        while (key.startsWith("/")) {
+            key = key.substring(1);
+        }
+
+        Entry entry = key.indexOf('\0') < 0 ? getEntry(key, null) : null;
+        if (entry == null) {
+            Path directory = resolve(key);
+            if (!key.isEmpty() && !key.endsWith("/") && directory != null && Files.isDirectory(directory)) {
+                outHeaders.add("Location", request.getUri().getRawPath() + "/");
+                request.sendResponse(HttpStatusCodes.MOVED_PERMANENTLY, -1);
+            } else {
+                request.sendResponse(HttpStatusCodes.NOT_FOUND, -1);
+            }
+            return;
+        }
+
+        try {
+            outHeaders.add("Content-Type", entry.m_contentType);
+            Entry compressed = getCompressed(request, key, entry);
+            if (compressed == null) {
+                send(request, entry);
+                return;
+            }
+
+            try {
+                send(request, compressed);
+            } finally {
+                compressed.release();
+            }
+        } finally {
+            entry.release();
+        }
+    }
+
+    /**
+     * Get the gzip compressed entry if the client accepts it, the caller
+     * needs to release the returned entry. The range requests use the
+     * uncompressed file.
+     *
+     * @param request
+     * @param key the request path
+     * @param entry the uncompressed entry
+     * @return null if the file should be send uncompressed
+     * @throws IOException
+     */
+    private Entry getCompressed(IHttpRequest request, String key, Entry entry) throws IOException {
+        if ((entry.m_block == null && entry.m_body == null) || entry.m_size > m_cacheSize / 4
+                || !"gzip".equals(request.selectEncoding(HttpStatusCodes.OK, (int) entry.m_size))
+                || request.getRequestHeader().getFirst("Range") != null) {
+            return null;
+        }
+
+        Entry result = getEntry(key, entry);
+        if (result != null && result.m_block == null) {
+            //Not compressible
+            result.release();
+            return null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Send the file
+     *
+     * @param request
+     * @param entry
+     * @throws IOException
+     */
+    private void send(IHttpRequest request, Entry entry) throws IOException {
+        IHeaders inHeaders = request.getRequestHeader();
+        IHeaders outHeaders = request.getResponseHeader();
+        if (entry.m_encoding != null) {
+            outHeaders.add("Content-Encoding", entry.m_encoding);
+        }
+        outHeaders.add("ETag", entry.m_etag);
+        outHeaders.add("Last-Modified", entry.m_lastModifiedString);
+        outHeaders.add("Accept-Ranges", "bytes");
+
+        if (HttpConditions.isNotModified(inHeaders, entry.m_etag, entry.m_lastModified)) {
+            outHeaders.remove("Content-Type");
+            request.sendResponse(HttpStatusCodes.NOT_MODIFIED, -1);
+            return;
+        }
+
+        ByteRange range = null;
+        if (HttpConditions.isRangeAllowed(inHeaders, entry.m_etag, entry.m_lastModified)) {
+            range = ByteRange.parse(inHeaders.getFirst("Range"), entry.m_size);
+        }
+        if (range == ByteRange.UNSATISFIABLE) {
+            outHeaders.remove("Content-Type");
+            outHeaders.add("Content-Range", "bytes */" + entry.m_size);
+            request.sendResponse(HttpStatusCodes.REQUESTED_RANGE_NOT_SATISFIABLE, -1);
+            return;
+        }
+
+        if (entry.m_block != null) {
+            if (range == null) {
+                request.sendResponse(HttpStatusCodes.OK, entry.m_block);
+                return;
+            }
+
+            outHeaders.add("Content-Range", "bytes " + range.getOffset() + "-"
+                    + (range.getOffset() + range.getLength() - 1) + "/" + entry.m_size);
+            request.sendResponse(HttpStatusCodes.PARTIAL_CONTENT, entry.m_block,
+                    (int) range.getOffset(), (int) range.getLength());
+            return;
+        }
+
+        if (entry.m_body == null) {
+            if (range == null) {
+                request.sendFile(entry.m_file, entry.m_contentType);
+            } else {
+                request.sendFile(entry.m_file, entry.m_contentType, range.getOffset(), range.getLength());
+            }
+            return;
+        }
+
+        if (range == null) {
+            request.sendResponse(HttpStatusCodes.OK, entry.m_body);
+            return;
+        }
+
+        ByteBuffer part = entry.m_body.duplicate();
+        part.position((int) range.getOffset());
+        part.limit((int) (range.getOffset() + range.getLength()));
+        outHeaders.add("Content-Range", "bytes " + range.getOffset() + "-"
+                + (range.getOffset() + range.getLength() - 1) + "/" + entry.m_size);
+        request.sendResponse(HttpStatusCodes.PARTIAL_CONTENT, part);
+    }
+
+    /**
+     * Resolve the request path, the paths outside of the served directory are
+     * rejected
+     *
+     * @param key
+     * @return
+     */
+    private Path resolve(String key) {
+        if (key.indexOf('\0') >= 0) {
+            return null;
+        }
+
+        Path result = m_root.resolve(key).normalize();
+        return result.startsWith(m_root) ? result : null;
+    }
+
+    /**
+     * Get the cached entry or load it, the caller needs to release the
+     * returned entry
+     *
+     * @param key the request path
+     * @param source the uncompressed entry to get the gzip compressed entry
+     * for, null to get the file entry
+     * @return the entry or null if not found
+     * @throws IOException
+     */
+    private Entry getEntry(String key, Entry source) throws IOException {
+        String cacheKey = source == null ? key : GZIP_PREFIX + key;
+        synchronized (m_entries) {
+            Entry result = m_entries.get(cacheKey);
+            if (result != null) {
+                result.retain();
+                return result;
+            }
+        }
+
+        long generation = m_generation.get();
+        Entry result = source == null ? load(key) : compress(source);
+        if (result == null) {
+            return null;
+        }
+
+        synchronized (m_entries) {
+            //The compressed entry is cached only if the source was not
+            //invalidated in the meantime
+            boolean current = source == null ? generation == m_generation.get()
+                    : m_entries.get(key) == source;
+            if (current) {
+                result.retain();
+                Entry old = m_entries.put(cacheKey, result);
+                if (old != null) {
+                    discard(old);
+                }
+                add(result);
+                evict();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Create the gzip compressed entry
+     *
+     * @param source the uncompressed entry
+     * @return the compressed entry, without a body if the file is not
+     * compressible
+     * @throws IOException
+     */
+    private static Entry compress(Entry source) throws IOException {
+        ByteBuffer data = source.m_block != null ? source.m_block.getBuffer() : source.m_body.duplicate();
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.min(source.m_size, 64 * 1024));
+        GzipOutputStream gzip = new GzipOutputStream(output);
+        try {
+            byte[] buffer = new byte[8192];
+            while (data.hasRemaining()) {
+                int count = Math.min(buffer.length, data.remaining());
+                data.get(buffer, 0, count);
+                gzip.write(buffer, 0, count);
+            }
+        } finally {
+            gzip.close();
+        }
+
+        String etag = source.m_etag.substring(0, source.m_etag.length() - 1) + "-gzip\"";
+        if (output.size() >= source.m_size) {
+            return new Entry(source.m_file, null, null, source.m_size, source.m_lastModified,
+                    source.m_contentType, null, etag);
+        }
+
+        return new Entry(source.m_file, null, OffHeapStore.getDefault().copyOf(output.toByteArray()),
+                output.size(), source.m_lastModified, source.m_contentType, "gzip", etag);
+    }
+
+    /**
+     * Load the file
+     *
+     * @param key the request path
+     * @return the entry or null if not found
+     * @throws IOException
+     */
+    private Entry load(String key) throws IOException {
+        Path file = resolve(key);
+        if (file == null) {
+            return null;
+        }
+        if (key.isEmpty() || key.endsWith("/")) {
+            file = file.resolve(INDEX_FILE);
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        if (!attributes.isRegularFile()) {
+            return null;
+        }
+
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String contentType = MimeTypes.get(file.getFileName().toString());
+        String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+        if (size > Integer.MAX_VALUE || size > m_mappedSize) {
+            return new Entry(file, null, null, size, lastModified, contentType, null, etag);
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (size > m_maxCachedFile) {
+                return new Entry(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), null,
+                        size, lastModified, contentType, null, etag);
+            }
+
+            OffHeapStore.Block block = OffHeapStore.getDefault().allocate((int) size);
+            ByteBuffer body = block.getBuffer();
+            try {
+                while (body.hasRemaining() && channel.read(body) >= 0) {
+                }
+            } catch (IOException ex) {
+                block.release();
+                throw ex;
+            }
+
+            if (body.hasRemaining()) {
+                //The file was truncated while reading
+                block.release();
+                return null;
+            }
+
+            return new Entry(file, null, block, size, lastModified, contentType, null, etag);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * The cached file
+     */
+    private static class Entry {
+
+        private final Path m_file;
+
+        /**
+         * The mapped response body (null if not mapped), counted in the
+         * mapped files size
+         */
+        private final ByteBuffer m_body;
+
+        /**
+         * The response body kept in the off-heap store (null if not
+         * stored), counted in the cache size
+         */
+        private final OffHeapStore.Block m_block;
+
+        private final long m_size;
+
+        private final long m_lastModified;
+
+        private final String m_lastModifiedString;
+
+        private final String m_contentType;
+
+        private final String m_etag;
+
+        /**
+         * The content encoding (null if not encoded)
+         */
+        private final String m_encoding;
+
+        Entry(Path file, ByteBuffer body, OffHeapStore.Block block, long size, long lastModified,
+                String contentType, String encoding, String etag) {
+            m_file = file;
+            m_body = body;
+            m_block = block;
+            m_size = size;
+            m_lastModified = lastModified;
+            m_lastModifiedString = HttpDates.format(lastModified);
+            m_contentType = contentType;
+            m_encoding = encoding;
+            m_etag = etag;
+        }
+
+        long getWeight() {
+            return m_block != null ? m_size : 0;
+        }
+
+        boolean isMapped() {
+            return m_body != null;
+        }
+
+        void retain() {
+            if (m_block != null) {
+                m_block.retain();
+            }
+        }
+
+        void release() {
+            if (m_block != null) {
+                m_block.release();
+            }
+        }
+    }
+
+    /**
+     * Gzip stream using the best compression, the files are compressed once
+     */
+    private static class GzipOutputStream extends GZIPOutputStream {
+
+        GzipOutputStream(OutputStream output) throws IOException {
+            super(output, 8192);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
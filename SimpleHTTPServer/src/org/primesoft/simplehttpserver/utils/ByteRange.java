@@ -0,0 +1,139 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.utils;
+
+/**
+ * A single byte range requested using the Range header
+ *
+ * @author SBPrime
+ */
+public final class ByteRange {
+
+    /**
+     * The requested range is outside of the content (416)
+     */
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    /**
+     * The first byte
+     */
+    private final long m_offset;
+
+    /**
+     * Number of bytes
+     */
+    private final long m_length;
+
+    private ByteRange(long offset, long length) {
+        m_offset = offset;
+        m_length = length;
+    }
+
+    public long getOffset() {
+        return m_offset;
+    }
+
+    public long getLength() {
+        return m_length;
+    }
+
+    /**
+     * Parse the Range header value. Only a single range is supported,
+     * multiple ranges and invalid values are ignored (the whole content
+     * should be send).
+     *
+     * @param value the header value
+     * @param size the content size
+     * @return the range, UNSATISFIABLE or null to send the whole content
+     */
+    public static ByteRange parse(String value, long size) {
+        if (value == null) {
+            return null;
+        }
+
+        value = value.trim();
+        if (!value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return null;
+        }
+
+        String spec = value.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        long first;
+        long last;
+        try {
+            String firstPart = spec.substring(0, dash).trim();
+            String lastPart = spec.substring(dash + 1).trim();
+
+            if (firstPart.isEmpty()) {
+                if (lastPart.isEmpty()) {
+                    return null;
+                }
+
+                long suffix = Long.parseLong(lastPart);
+                if (suffix <= 0) {
+                    return UNSATISFIABLE;
+                }
+
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(firstPart);
+                last = lastPart.isEmpty() ? size - 1 : Math.min(size - 1, Long.parseLong(lastPart));
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+
+        if (first < 0 || last < first) {
+            return first < size ? null : UNSATISFIABLE;
+        }
+        if (first >= size) {
+            return UNSATISFIABLE;
+        }
+
+        return new ByteRange(first, last - first + 1);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.utils;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory for changes. The changes are reported in batches once
+ * no new change was detected for the quiet period, so a file that is being
+ * copied is reported once.
+ *
+ * @author SBPrime
+ */
+public class DirectoryWatcher implements Runnable {
+
+    /**
+     * The change listener
+     */
+    public interface IChangeListener {
+
+        /**
+         * The files were created, modified or deleted (watcher thread). A
+         * new directory is reported as a single path, the watched directory
+         * is reported when the changes were lost and everything should be
+         * reloaded.
+         *
+         * @param paths
+         */
+        void onChanged(Set<Path> paths);
+    }
+
+    /**
+     * The watched directory
+     */
+    private final Path m_root;
+
+    /**
+     * Watch the sub directories
+     */
+    private final boolean m_recursive;
+
+    /**
+     * The quiet period (in milliseconds)
+     */
+    private final long m_quietPeriod;
+
+    private final IChangeListener m_listener;
+
+    /**
+     * The registered directories
+     */
+    private final HashMap<WatchKey, Path> m_keys = new HashMap<WatchKey, Path>();
+
+    private WatchService m_watchService;
+
+    private Thread m_thread;
+
+    public DirectoryWatcher(Path root, boolean recursive, long quietPeriod, IChangeListener listener) {
+        m_root = root;
+        m_recursive = recursive;
+        m_quietPeriod = quietPeriod;
+        m_listener = listener;
+    }
+
+    /**
+     * Start watching the directory
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if (m_thread != null) {
+            return;
+        }
+
+        m_watchService = FileSystems.getDefault().newWatchService();
+        try {
+            register(m_root);
+        } catch (IOException ex) {
+            m_watchService.close();
+            m_watchService = null;
+            throw ex;
+        }
+
+        m_thread = new Thread(this, "SimpleHTTP watcher " + m_root.getFileName());
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    /**
+     * Stop watching the directory
+     */
+    public synchronized void stop() {
+        if (m_thread == null) {
+            return;
+        }
+
+        try {
+            m_watchService.close();
+        } catch (IOException ex) {
+        }
+        m_thread.interrupt();
+        m_thread = null;
+    }
+
+    @Override
+    public void run() {
+        WatchService watchService;
+        synchronized (this) {
+            watchService = m_watchService;
+        }
+
+        Set<Path> changed = new HashSet<Path>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = changed.isEmpty() ? watchService.take()
+                        : watchService.poll(m_quietPeriod, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    notifyListener(changed);
+                    changed = new HashSet<Path>();
+                    continue;
+                }
+
+                processEvents(key, changed);
+            }
+        } catch (InterruptedException ex) {
+            //Watcher stopped
+        } catch (ClosedWatchServiceException ex) {
+            //Watcher stopped
+        }
+    }
+
+    private void processEvents(WatchKey key, Set<Path> changed) {
+        Path directory = m_keys.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                changed.add(m_root);
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+            changed.add(path);
+
+            if (m_recursive && kind == StandardWatchEventKinds.ENTRY_CREATE
+                    && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                try {
+                    register(path);
+                } catch (IOException ex) {
+                    ExceptionHelper.printException(ex, "Unable to watch " + path);
+                }
+            }
+        }
+
+        if (!key.reset()) {
+            m_keys.remove(key);
+        }
+    }
+
+    private void notifyListener(Set<Path> changed) {
+        try {
+            m_listener.onChanged(changed);
+        } catch (RuntimeException ex) {
+            ExceptionHelper.printException(ex, "Error processing the changes in " + m_root);
+        }
+    }
+
+    /**
+     * Register the directory (and the sub directories) in the watch service
+     *
+     * @param directory
+     * @throws IOException
+     */
+    private void register(Path directory) throws IOException {
+        if (!m_recursive) {
+            registerDirectory(directory);
+            return;
+        }
+
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                registerDirectory(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void registerDirectory(Path directory) throws IOException {
+        WatchKey key = directory.register(m_watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        m_keys.put(key, directory);
+    }
+}
@@ -60,14 +60,30 @@ public class ExceptionHelper {
             return;
         }
 
-        log("***********************************");
-        log(message);
-        log("***********************************");
-        log("* Exception: " + ex.getClass().getCanonicalName());
-        log("* Error message: " + ex.getLocalizedMessage());
-        log("* Stack: ");
-        printStack(ex, "* ");
-        log("***********************************");
+        log(format(ex, message));
+    }
+
+    /**
+     * Format the exception report as a single multi line message
+     *
+     * @param ex
+     * @param message
+     * @return
+     */
+    public static String format(Throwable ex, String message) {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("***********************************\n");
+        sb.append(message).append('\n');
+        sb.append("***********************************\n");
+        sb.append("* Exception: ").append(ex.getClass().getCanonicalName()).append('\n');
+        sb.append("* Error message: ").append(ex.getLocalizedMessage()).append('\n');
+        sb.append("* Stack: \n");
+        for (StackTraceElement element : ex.getStackTrace()) {
+            sb.append("* ").append(element).append('\n');
+        }
+        sb.append("***********************************");
+
+        return sb.toString();
     }
 
     public static void printStack(Throwable ex, String lead) {
@@ -0,0 +1,345 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.utils;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.primesoft.simplehttpserver.SimpleHTTPServerMain;
+
+/**
+ * Reports the exceptions thrown while handling the requests. The exceptions
+ * are fingerprinted by the type and the top stack frames, the first
+ * occurrence is printed in full and the repeats are counted and printed as a
+ * periodic summary. The messages are formatted and logged by a background
+ * thread.
+ *
+ * @author SBPrime
+ */
+public final class ExceptionReporter {
+
+    /**
+     * The number of the top stack frames used in the fingerprint
+     */
+    private static final int FINGERPRINT_FRAMES = 3;
+
+    /**
+     * The repeats summary interval (milliseconds)
+     */
+    private static final long SUMMARY_INTERVAL = 60000;
+
+    /**
+     * The time without repeats after which the fingerprint is forgotten and
+     * the next occurrence is printed in full again (milliseconds)
+     */
+    private static final long FORGET_AFTER = 10 * 60000;
+
+    /**
+     * The maximum number of tracked fingerprints, the other exceptions are
+     * only counted
+     */
+    private static final int MAX_FINGERPRINTS = 1024;
+
+    private static void log(String m) {
+        SimpleHTTPServerMain.log(m);
+    }
+
+    /**
+     * The reporter shared by the server
+     */
+    private static final ExceptionReporter s_default = new ExceptionReporter();
+
+    public static ExceptionReporter getDefault() {
+        return s_default;
+    }
+
+    /**
+     * The seen exceptions
+     */
+    private final ConcurrentHashMap<Fingerprint, Occurrences> m_seen = new ConcurrentHashMap<Fingerprint, Occurrences>();
+
+    /**
+     * The first occurrences waiting to be printed
+     */
+    private final LinkedBlockingQueue<Occurrences> m_pending = new LinkedBlockingQueue<Occurrences>();
+
+    /**
+     * The exceptions not tracked because of the fingerprints limit
+     */
+    private final AtomicLong m_untracked = new AtomicLong();
+
+    /**
+     * The reporting thread (null if not running)
+     */
+    private volatile Thread m_thread;
+
+    /**
+     * Report the exception
+     *
+     * @param ex
+     * @param message the error description
+     */
+    public void report(Throwable ex, String message) {
+        report(ex, message, null);
+    }
+
+    /**
+     * Report the exception, the message and the detail are joined by the
+     * reporting thread
+     *
+     * @param ex
+     * @param message the error description
+     * @param detail appended to the message (for example the request uri),
+     * may be null
+     */
+    public void report(Throwable ex, String message, Object detail) {
+        if (ex == null) {
+            return;
+        }
+
+        Fingerprint fingerprint = new Fingerprint(ex);
+        Occurrences occurrences = m_seen.get(fingerprint);
+        if (occurrences == null) {
+            if (m_seen.size() >= MAX_FINGERPRINTS) {
+                m_untracked.incrementAndGet();
+                ensureStarted();
+                return;
+            }
+
+            Occurrences created = new Occurrences(ex, message, detail);
+            occurrences = m_seen.putIfAbsent(fingerprint, created);
+            if (occurrences == null) {
+                m_pending.offer(created);
+                ensureStarted();
+                return;
+            }
+        }
+
+        occurrences.repeat(message, detail);
+    }
+
+    /**
+     * Print the pending reports and the repeats summary and stop the
+     * reporting thread. The thread is started again by the next report.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = m_thread;
+            m_thread = null;
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void ensureStarted() {
+        if (m_thread != null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (m_thread != null) {
+                return;
+            }
+
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    reportLoop();
+                }
+            }, "SimpleHTTP exception reporter");
+            thread.setDaemon(true);
+            m_thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Print the first occurrences and periodically the repeats summary
+     */
+    private void reportLoop() {
+        long nextSummary = System.currentTimeMillis() + SUMMARY_INTERVAL;
+        try {
+            while (true) {
+                long wait = nextSummary - System.currentTimeMillis();
+                Occurrences first = wait > 0 ? m_pending.poll(wait, TimeUnit.MILLISECONDS) : null;
+                if (first != null) {
+                    printFirst(first);
+                }
+
+                if (System.currentTimeMillis() >= nextSummary) {
+                    printSummary();
+                    nextSummary = System.currentTimeMillis() + SUMMARY_INTERVAL;
+                }
+            }
+        } catch (InterruptedException ex) {
+            //Reporter stopped
+        }
+
+        Occurrences first;
+        while ((first = m_pending.poll()) != null) {
+            printFirst(first);
+        }
+        printSummary();
+    }
+
+    private void printFirst(Occurrences occurrences) {
+        log(ExceptionHelper.format(occurrences.m_exception,
+                join(occurrences.m_firstMessage, occurrences.m_firstDetail)));
+    }
+
+    /**
+     * Print the repeated exceptions and forget the quiet ones
+     */
+    private void printSummary() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Fingerprint, Occurrences>> it = m_seen.entrySet().iterator();
+        while (it.hasNext()) {
+            Occurrences occurrences = it.next().getValue();
+            long repeats = occurrences.m_repeats.getAndSet(0);
+            if (repeats > 0) {
+                Throwable ex = occurrences.m_exception;
+                StackTraceElement[] stack = ex.getStackTrace();
+                log("Exception repeated " + repeats + " times: " + ex.getClass().getName()
+                        + ": " + ex.getLocalizedMessage()
+                        + (stack.length > 0 ? " at " + stack[0] : "")
+                        + " (last: " + join(occurrences.m_lastMessage, occurrences.m_lastDetail) + ")");
+            } else if (now - occurrences.m_lastSeen > FORGET_AFTER) {
+                it.remove();
+            }
+        }
+
+        long untracked = m_untracked.getAndSet(0);
+        if (untracked > 0) {
+            log(untracked + " exceptions not reported, too many different exceptions.");
+        }
+    }
+
+    private static String join(String message, Object detail) {
+        return detail != null ? message + " " + detail : message;
+    }
+
+    /**
+     * The exception type and the top stack frames
+     */
+    private static final class Fingerprint {
+
+        private final Class<?> m_type;
+
+        private final StackTraceElement[] m_frames;
+
+        private final int m_hash;
+
+        Fingerprint(Throwable ex) {
+            StackTraceElement[] stack = ex.getStackTrace();
+            m_type = ex.getClass();
+            m_frames = stack.length > FINGERPRINT_FRAMES ? Arrays.copyOf(stack, FINGERPRINT_FRAMES) : stack;
+            m_hash = m_type.hashCode() * 31 + Arrays.hashCode(m_frames);
+        }
+
+        @Override
+        public int hashCode() {
+            return m_hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Fingerprint)) {
+                return false;
+            }
+
+            Fingerprint other = (Fingerprint) obj;
+            return m_type == other.m_type && Arrays.equals(m_frames, other.m_frames);
+        }
+    }
+
+    /**
+     * The occurrences of a fingerprinted exception
+     */
+    private static final class Occurrences {
+
+        /**
+         * The first occurrence
+         */
+        private final Throwable m_exception;
+
+        private final String m_firstMessage;
+
+        private final Object m_firstDetail;
+
+        /**
+         * The repeats since the last summary
+         */
+        private final AtomicLong m_repeats = new AtomicLong();
+
+        private volatile String m_lastMessage;
+
+        private volatile Object m_lastDetail;
+
+        private volatile long m_lastSeen;
+
+        Occurrences(Throwable ex, String message, Object detail) {
+            m_exception = ex;
+            m_firstMessage = message;
+            m_firstDetail = detail;
+            m_lastSeen = System.currentTimeMillis();
+        }
+
+        void repeat(String message, Object detail) {
+            m_lastMessage = message;
+            m_lastDetail = detail;
+            m_lastSeen = System.currentTimeMillis();
+            m_repeats.incrementAndGet();
+        }
+    }
+}
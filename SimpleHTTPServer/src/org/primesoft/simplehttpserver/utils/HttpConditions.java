@@ -0,0 +1,123 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.utils;
+
+import org.primesoft.simplehttpserver.api.IHeaders;
+
+/**
+ * Conditional request (If-None-Match, If-Modified-Since, If-Range) helper
+ *
+ * @author SBPrime
+ */
+public final class HttpConditions {
+
+    private HttpConditions() {
+    }
+
+    /**
+     * Can the client use its cached copy of the content (304)
+     *
+     * @param headers the request headers
+     * @param etag the content entity tag
+     * @param lastModified the content modification time (in milliseconds)
+     * @return
+     */
+    public static boolean isNotModified(IHeaders headers, String etag, long lastModified) {
+        String ifNoneMatch = headers.getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etag != null && matches(ifNoneMatch, etag);
+        }
+
+        long since = HttpDates.parse(headers.getFirst("If-Modified-Since"));
+        return since >= 0 && lastModified >= 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    /**
+     * Should the Range header be used, the If-Range condition is met or not
+     * set
+     *
+     * @param headers the request headers
+     * @param etag the content entity tag
+     * @param lastModified the content modification time (in milliseconds)
+     * @return
+     */
+    public static boolean isRangeAllowed(IHeaders headers, String etag, long lastModified) {
+        String ifRange = headers.getFirst("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+
+        long date = HttpDates.parse(ifRange);
+        return date >= 0 && date / 1000 == lastModified / 1000;
+    }
+
+    /**
+     * Check if the entity tag is on the If-None-Match list (weak comparison)
+     *
+     * @param value
+     * @param etag
+     * @return
+     */
+    private static boolean matches(String value, String etag) {
+        String tag = stripWeak(etag);
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.equals("*") || stripWeak(entry).equals(tag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
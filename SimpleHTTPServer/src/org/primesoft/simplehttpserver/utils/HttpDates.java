@@ -0,0 +1,122 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * HTTP date (RFC 1123) helper
+ *
+ * @author SBPrime
+ */
+public final class HttpDates {
+
+    /**
+     * The HTTP date format
+     */
+    private static final String s_format = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+
+    /**
+     * The cached current date (formatted once per second)
+     */
+    private static volatile Pair<Long, String> s_now = new Pair<Long, String>(-1L, null);
+
+    private HttpDates() {
+    }
+
+    private static SimpleDateFormat createFormat() {
+        SimpleDateFormat result = new SimpleDateFormat(s_format, Locale.US);
+        result.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        return result;
+    }
+
+    /**
+     * Format the time as HTTP date
+     *
+     * @param time time in milliseconds
+     * @return
+     */
+    public static String format(long time) {
+        return createFormat().format(new Date(time));
+    }
+
+    /**
+     * Parse the HTTP date
+     *
+     * @param value
+     * @return time in milliseconds or -1 if not a valid date
+     */
+    public static long parse(String value) {
+        if (value == null) {
+            return -1;
+        }
+
+        try {
+            return createFormat().parse(value.trim()).getTime();
+        } catch (ParseException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Get the current time as HTTP date
+     *
+     * @return
+     */
+    public static String now() {
+        long second = System.currentTimeMillis() / 1000;
+        Pair<Long, String> now = s_now;
+        if (now.getX1() == second) {
+            return now.getX2();
+        }
+
+        String result = format(second * 1000);
+        s_now = new Pair<Long, String>(second, result);
+
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.utils;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * File extension to content type mapping
+ *
+ * @author SBPrime
+ */
+public final class MimeTypes {
+
+    /**
+     * The default content type
+     */
+    public static final String DEFAULT = "application/octet-stream";
+
+    /**
+     * The known content types
+     */
+    private static final HashMap<String, String> s_types = new HashMap<String, String>();
+
+    static {
+        s_types.put("html", "text/html; charset=utf-8");
+        s_types.put("htm", "text/html; charset=utf-8");
+        s_types.put("css", "text/css; charset=utf-8");
+        s_types.put("js", "application/javascript; charset=utf-8");
+        s_types.put("mjs", "application/javascript; charset=utf-8");
+        s_types.put("json", "application/json; charset=utf-8");
+        s_types.put("txt", "text/plain; charset=utf-8");
+        s_types.put("md", "text/markdown; charset=utf-8");
+        s_types.put("csv", "text/csv; charset=utf-8");
+        s_types.put("xml", "application/xml");
+        s_types.put("yml", "text/yaml; charset=utf-8");
+        s_types.put("yaml", "text/yaml; charset=utf-8");
+        s_types.put("png", "image/png");
+        s_types.put("jpg", "image/jpeg");
+        s_types.put("jpeg", "image/jpeg");
+        s_types.put("gif", "image/gif");
+        s_types.put("webp", "image/webp");
+        s_types.put("svg", "image/svg+xml");
+        s_types.put("ico", "image/x-icon");
+        s_types.put("woff", "font/woff");
+        s_types.put("woff2", "font/woff2");
+        s_types.put("ttf", "font/ttf");
+        s_types.put("otf", "font/otf");
+        s_types.put("mp3", "audio/mpeg");
+        s_types.put("ogg", "audio/ogg");
+        s_types.put("wav", "audio/wav");
+        s_types.put("mp4", "video/mp4");
+        s_types.put("webm", "video/webm");
+        s_types.put("pdf", "application/pdf");
+        s_types.put("zip", "application/zip");
+        s_types.put("gz", "application/gzip");
+        s_types.put("jar", "application/java-archive");
+        s_types.put("wasm", "application/wasm");
+    }
+
+    private MimeTypes() {
+    }
+
+    /**
+     * Get the content type for the file name
+     *
+     * @param fileName
+     * @return the content type or DEFAULT if not known
+     */
+    public static String get(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0) {
+            return DEFAULT;
+        }
+
+        String result = s_types.get(fileName.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+        return result != null ? result : DEFAULT;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.primesoft.simplehttpserver.api.IBufferBlock;
+
+/**
+ * Off-heap storage for the long living response bodies. The small blocks are
+ * carved from direct memory slabs (power of two size classes), the slab
+ * memory is reused and never returned. Larger blocks use their own direct
+ * buffer. When the budget is exhausted the blocks are allocated on the heap.
+ *
+ * The blocks are reference counted, the memory is reused once the last
+ * reference is released.
+ *
+ * @author SBPrime
+ */
+public final class OffHeapStore {
+
+    /**
+     * The smallest size class
+     */
+    private static final int MIN_CHUNK = 1024;
+
+    /**
+     * The largest size class, larger blocks are not carved from the slabs
+     */
+    private static final int MAX_CHUNK = 1024 * 1024;
+
+    /**
+     * The minimum number of chunks carved from a memory slab
+     */
+    private static final int SLAB_CHUNKS = 2;
+
+    /**
+     * The smallest memory slab, the small size classes carve more chunks
+     */
+    private static final int MIN_SLAB_SIZE = 64 * 1024;
+
+    /**
+     * The default store budget
+     */
+    public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The store shared by the server
+     */
+    private static final OffHeapStore s_default = new OffHeapStore(DEFAULT_MAX_SIZE);
+
+    public static OffHeapStore getDefault() {
+        return s_default;
+    }
+
+    /**
+     * The size classes
+     */
+    private final SizeClass[] m_classes;
+
+    /**
+     * The reserved direct memory (slabs and large blocks)
+     */
+    private final AtomicLong m_reserved = new AtomicLong();
+
+    /**
+     * The direct memory budget
+     */
+    private volatile long m_maxSize;
+
+    public OffHeapStore(long maxSize) {
+        m_maxSize = maxSize;
+
+        int count = 0;
+        while ((MIN_CHUNK << count) <= MAX_CHUNK) {
+            count++;
+        }
+
+        m_classes = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            m_classes[i] = new SizeClass(MIN_CHUNK << i);
+        }
+    }
+
+    /**
+     * Change the direct memory budget, the slabs already allocated are kept
+     *
+     * @param maxSize
+     */
+    public void setMaxSize(long maxSize) {
+        m_maxSize = maxSize;
+    }
+
+    /**
+     * The reserved direct memory (in bytes)
+     *
+     * @return
+     */
+    public long getReserved() {
+        return m_reserved.get();
+    }
+
+    /**
+     * Allocate a block, the caller owns the first reference
+     *
+     * @param size the block size
+     * @return
+     */
+    public Block allocate(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Invalid block size " + size);
+        }
+
+        if (size <= MAX_CHUNK) {
+            int idx = 0;
+            while ((MIN_CHUNK << idx) < size) {
+                idx++;
+            }
+
+            SizeClass sizeClass = m_classes[idx];
+            ByteBuffer chunk = sizeClass.acquire();
+            if (chunk != null) {
+                return new Block(this, sizeClass, chunk, size);
+            }
+        } else if (reserve(size)) {
+            return new Block(this, null, ByteBuffer.allocateDirect(size), size);
+        }
+
+        return new Block(null, null, ByteBuffer.allocate(size), size);
+    }
+
+    /**
+     * Allocate a block containing the data
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return
+     */
+    public Block copyOf(byte[] data, int offset, int length) {
+        Block result = allocate(length);
+        ByteBuffer buffer = result.getBuffer();
+        buffer.put(data, offset, length);
+
+        return result;
+    }
+
+    /**
+     * Allocate a block containing the data
+     *
+     * @param data
+     * @return
+     */
+    public Block copyOf(byte[] data) {
+        return copyOf(data, 0, data.length);
+    }
+
+    private boolean reserve(long size) {
+        while (true) {
+            long reserved = m_reserved.get();
+            if (reserved + size > m_maxSize) {
+                return false;
+            }
+            if (m_reserved.compareAndSet(reserved, reserved + size)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The released block
+     *
+     * @param block
+     */
+    private void free(Block block) {
+        if (block.m_sizeClass != null) {
+            block.m_sizeClass.m_free.offer(block.m_chunk);
+        } else {
+            //The large block memory is freed by the GC
+            m_reserved.addAndGet(-block.m_chunk.capacity());
+        }
+    }
+
+    /**
+     * The memory chunks of a single size
+     */
+    private final class SizeClass {
+
+        private final int m_chunkSize;
+
+        /**
+         * The size of the memory slab carved into the chunks
+         */
+        private final int m_slabSize;
+
+        private final ConcurrentLinkedQueue<ByteBuffer> m_free = new ConcurrentLinkedQueue<ByteBuffer>();
+
+        SizeClass(int chunkSize) {
+            m_chunkSize = chunkSize;
+            m_slabSize = Math.max(MIN_SLAB_SIZE, SLAB_CHUNKS * chunkSize);
+        }
+
+        /**
+         * Get a free chunk or carve a new slab
+         *
+         * @return the chunk or null if the budget is exhausted
+         */
+        ByteBuffer acquire() {
+            ByteBuffer result = m_free.poll();
+            if (result != null) {
+                return result;
+            }
+
+            synchronized (this) {
+                result = m_free.poll();
+                if (result != null || !reserve(m_slabSize)) {
+                    return result;
+                }
+
+                ByteBuffer slab = ByteBuffer.allocateDirect(m_slabSize);
+                for (int pos = 0; pos < m_slabSize; pos += m_chunkSize) {
+                    slab.limit(pos + m_chunkSize).position(pos);
+                    ByteBuffer chunk = slab.slice();
+                    if (result == null) {
+                        result = chunk;
+                    } else {
+                        m_free.offer(chunk);
+                    }
+                }
+
+                return result;
+            }
+        }
+    }
+
+    /**
+     * The reference counted memory block
+     */
+    public static final class Block implements IBufferBlock {
+
+        /**
+         * The owner store (null for heap blocks)
+         */
+        private final OffHeapStore m_owner;
+
+        /**
+         * The chunk size class (null for the large and heap blocks)
+         */
+        private final SizeClass m_sizeClass;
+
+        private final ByteBuffer m_chunk;
+
+        private final int m_size;
+
+        private final AtomicInteger m_references = new AtomicInteger(1);
+
+        private Block(OffHeapStore owner, SizeClass sizeClass, ByteBuffer chunk, int size) {
+            m_owner = owner;
+            m_sizeClass = sizeClass;
+            m_chunk = chunk;
+            m_size = size;
+        }
+
+        @Override
+        public int size() {
+            return m_size;
+        }
+
+        public boolean isDirect() {
+            return m_chunk.isDirect();
+        }
+
+        /**
+         * Get the block data, the data should not be modified once the block
+         * is shared
+         *
+         * @return new buffer view of the whole block
+         */
+        @Override
+        public ByteBuffer getBuffer() {
+            ByteBuffer result = m_chunk.duplicate();
+            result.clear();
+            result.limit(m_size);
+
+            return result;
+        }
+
+        /**
+         * Add a reference to the block
+         *
+         * @return false if the block was already released
+         */
+        @Override
+        public boolean retain() {
+            while (true) {
+                int references = m_references.get();
+                if (references <= 0) {
+                    return false;
+                }
+                if (m_references.compareAndSet(references, references + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Release a reference, the memory is reused after the last reference
+         * is released
+         */
+        @Override
+        public void release() {
+            int references = m_references.decrementAndGet();
+            if (references < 0) {
+                throw new IllegalStateException("Block already released");
+            }
+
+            if (references == 0 && m_owner != null) {
+                m_owner.free(this);
+            }
+        }
+    }
+}
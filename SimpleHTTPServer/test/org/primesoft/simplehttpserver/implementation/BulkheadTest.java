@@ -0,0 +1,251 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class BulkheadTest {
+
+    private ExecutorService m_shared;
+
+    /**
+     * The exceptions thrown by the requests
+     */
+    private final List<Throwable> m_uncaught = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    @Before
+    public void setUp() {
+        m_shared = Executors.newFixedThreadPool(8, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread result = new Thread(r);
+                result.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                    @Override
+                    public void uncaughtException(Thread t, Throwable e) {
+                        m_uncaught.add(e);
+                    }
+                });
+
+                return result;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        m_shared.shutdownNow();
+    }
+
+    /**
+     * Task that blocks until the gate is opened
+     */
+    private static Runnable blocking(final CountDownLatch gate, final AtomicInteger running,
+            final AtomicInteger maxRunning, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                int current = running.incrementAndGet();
+                synchronized (maxRunning) {
+                    maxRunning.set(Math.max(maxRunning.get(), current));
+                }
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void sharedModeLimitsConcurrencyAndQueue() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(m_shared, 2, 3);
+        CountDownLatch gate = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(5);
+
+        for (int i = 0; i < 5; i++) {
+            bulkhead.execute(blocking(gate, running, maxRunning, done));
+        }
+
+        try {
+            bulkhead.execute(blocking(gate, running, maxRunning, done));
+            fail("The sixth request should be rejected");
+        } catch (RejectedExecutionException ex) {
+        }
+
+        Thread.sleep(100);
+        assertEquals(2, running.get());
+
+        gate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+    }
+
+    @Test
+    public void queuedRequestsRunAfterTheRunningFinish() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(m_shared, 1, 100);
+        final AtomicInteger counter = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            bulkhead.execute(new Runnable() {
+                @Override
+                public void run() {
+                    counter.incrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(100, counter.get());
+
+        //All the permits are released
+        CountDownLatch gate = new CountDownLatch(0);
+        CountDownLatch last = new CountDownLatch(1);
+        bulkhead.execute(blocking(gate, new AtomicInteger(), new AtomicInteger(), last));
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failingRequestReleasesThePermit() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(m_shared, 1, 0);
+        bulkhead.execute(new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("test");
+            }
+        });
+
+        final CountDownLatch done = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                bulkhead.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        done.countDown();
+                    }
+                });
+                break;
+            } catch (RejectedExecutionException ex) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, m_uncaught.size());
+        assertTrue(m_uncaught.get(0) instanceof IllegalStateException);
+    }
+
+    @Test
+    public void failingRequestDrainsTheQueue() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(m_shared, 1, 10);
+        final CountDownLatch gate = new CountDownLatch(1);
+        bulkhead.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("test");
+            }
+        });
+
+        CountDownLatch done = new CountDownLatch(2);
+        bulkhead.execute(blocking(new CountDownLatch(0), new AtomicInteger(), new AtomicInteger(), done));
+        bulkhead.execute(blocking(new CountDownLatch(0), new AtomicInteger(), new AtomicInteger(), done));
+
+        gate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (m_uncaught.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, m_uncaught.size());
+    }
+
+    @Test
+    public void movedBulkheadKeepsTheLimits() throws InterruptedException {
+        Bulkhead bulkhead = new Bulkhead(m_shared, 1, 0);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        bulkhead.execute(blocking(gate, new AtomicInteger(), new AtomicInteger(), done));
+
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            Bulkhead moved = bulkhead.withExecutor(other);
+            try {
+                moved.execute(blocking(gate, new AtomicInteger(), new AtomicInteger(), done));
+                fail("The permit is held by the running request");
+            } catch (RejectedExecutionException ex) {
+            }
+        } finally {
+            gate.countDown();
+            other.shutdownNow();
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
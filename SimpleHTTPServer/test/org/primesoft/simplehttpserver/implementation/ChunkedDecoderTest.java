@@ -0,0 +1,96 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class ChunkedDecoderTest {
+
+    private static final Charset s_charset = Charset.forName("ISO-8859-1");
+
+    private static ByteBuffer wrap(String data) {
+        return ByteBuffer.wrap(data.getBytes(s_charset));
+    }
+
+    @Test
+    public void chunksAreJoined() {
+        ChunkedDecoder decoder = new ChunkedDecoder(1024);
+        ByteBuffer data = wrap("5\r\nHello\r\n7;ext=1\r\n, World\r\n0\r\nX-Trailer: 1\r\n\r\nGET");
+
+        assertEquals(ChunkedDecoder.DONE, decoder.decode(data));
+        assertEquals("Hello, World", new String(decoder.getBody(), s_charset));
+        assertEquals(3, data.remaining());
+    }
+
+    @Test
+    public void dataIsDecodedAsItArrives() {
+        ChunkedDecoder decoder = new ChunkedDecoder(1024);
+        String body = "a\r\n0123456789\r\n0\r\n\r\n";
+        for (int i = 0; i < body.length() - 1; i++) {
+            assertEquals(ChunkedDecoder.MORE, decoder.decode(wrap(body.substring(i, i + 1))));
+        }
+
+        assertEquals(ChunkedDecoder.DONE, decoder.decode(wrap("\n")));
+        assertEquals("0123456789", new String(decoder.getBody(), s_charset));
+    }
+
+    @Test
+    public void invalidChunksAreRejected() {
+        assertEquals(ChunkedDecoder.MALFORMED, new ChunkedDecoder(1024).decode(wrap("x\r\n")));
+        assertEquals(ChunkedDecoder.MALFORMED, new ChunkedDecoder(1024).decode(wrap("-1\r\n")));
+        assertEquals(ChunkedDecoder.MALFORMED, new ChunkedDecoder(1024).decode(wrap("2\r\nabc\r\n")));
+    }
+
+    @Test
+    public void bodyLargerThanTheLimitIsRejected() {
+        ChunkedDecoder decoder = new ChunkedDecoder(8);
+        assertEquals(ChunkedDecoder.MORE, decoder.decode(wrap("5\r\n12345\r\n")));
+        assertEquals(ChunkedDecoder.TOO_LARGE, decoder.decode(wrap("4\r\n")));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class HttpRequestHeadTest {
+
+    private static final Charset s_charset = Charset.forName("ISO-8859-1");
+
+    private static HttpRequestHead parse(String head) {
+        byte[] data = head.getBytes(s_charset);
+        return HttpRequestHead.parse(data, data.length);
+    }
+
+    @Test
+    public void requestLineAndHeaders() {
+        HttpRequestHead head = parse("GET /a/b?x=1 HTTP/1.1\r\n"
+                + "Host: example.com\r\n"
+                + "X-Test:  value \t\r\n"
+                + "X-Test: second\r\n"
+                + "\r\n");
+
+        assertNotNull(head);
+        assertEquals("GET", head.getMethod());
+        assertEquals("/a/b?x=1", head.getTarget());
+        assertEquals("HTTP/1.1", head.getProtocol());
+        assertEquals("example.com", head.getHost());
+        assertEquals(2, head.getHeaders().get("X-Test").size());
+        assertEquals("value", head.getHeaders().getFirst("X-Test"));
+        assertEquals(-1, head.getContentLength());
+        assertFalse(head.isChunked());
+        assertTrue(head.isKeepAlive());
+        assertFalse(head.isExpectContinue());
+    }
+
+    @Test
+    public void leadingEmptyLinesAreSkipped() {
+        HttpRequestHead head = parse("\r\n\r\nGET / HTTP/1.1\r\n\r\n");
+        assertNotNull(head);
+        assertEquals("/", head.getTarget());
+    }
+
+    @Test
+    public void bodyHeaders() {
+        HttpRequestHead head = parse("POST / HTTP/1.1\r\n"
+                + "Content-Length: 42\r\n"
+                + "Expect: 100-continue\r\n"
+                + "\r\n");
+        assertEquals(42, head.getContentLength());
+        assertTrue(head.isExpectContinue());
+
+        head = parse("POST / HTTP/1.1\r\nTransfer-Encoding: gzip, Chunked\r\n\r\n");
+        assertTrue(head.isChunked());
+    }
+
+    @Test
+    public void ambiguousBodyLengthIsRejected() {
+        assertNull(parse("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 6\r\n\r\n"));
+        assertNull(parse("POST / HTTP/1.1\r\nContent-Length: 5\r\nTransfer-Encoding: chunked\r\n\r\n"));
+
+        HttpRequestHead head = parse("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 5\r\n\r\n");
+        assertEquals(5, head.getContentLength());
+    }
+
+    @Test
+    public void keepAliveFollowsTheProtocol() {
+        assertFalse(parse("GET / HTTP/1.0\r\n\r\n").isKeepAlive());
+        assertTrue(parse("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n").isKeepAlive());
+        assertFalse(parse("GET / HTTP/1.1\r\nConnection: close\r\n\r\n").isKeepAlive());
+        assertFalse(parse("POST / HTTP/1.0\r\nExpect: 100-continue\r\n\r\n").isExpectContinue());
+    }
+
+    @Test
+    public void malformedRequestsAreRejected() {
+        assertNull(parse("GET /\r\n\r\n"));
+        assertNull(parse("GET  HTTP/1.1\r\n\r\n"));
+        assertNull(parse("GET / HTTP/2.0\r\n\r\n"));
+        assertNull(parse("GET / HTTP/1.1\r\nNoColon\r\n\r\n"));
+        assertNull(parse("GET / HTTP/1.1\r\n folded: value\r\n\r\n"));
+        assertNull(parse("GET / HTTP/1.1\r\nContent-Length: -1\r\n\r\n"));
+        assertNull(parse("GET / HTTP/1.1\r\nContent-Length: abc\r\n\r\n"));
+    }
+
+    @Test
+    public void headEndIsFound() {
+        ByteBuffer data = ByteBuffer.wrap("GET / HTTP/1.1\r\nHost: a\r\n\r\nbody".getBytes(s_charset));
+        int end = HttpRequestHead.findEnd(data, 0, data.limit());
+        assertEquals(data.limit() - 4, end);
+
+        assertEquals(-1, HttpRequestHead.findEnd(data, 0, 20));
+        assertEquals(end, HttpRequestHead.findEnd(data, 20, data.limit()));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import com.sun.net.httpserver.Headers;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.primesoft.simplehttpserver.api.CachePolicy;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class ResponseCacheTest {
+
+    /**
+     * The body size of a 1000 bytes cache entry (the entry overhead is 256)
+     */
+    private static final int BODY = 744;
+
+    private static boolean store(ResponseCache.Region region, String key, Headers headers) {
+        ResponseCache.Recorder recorder = region.record(key, null);
+        if (!recorder.start(HttpStatusCodes.OK, BODY, headers)) {
+            return false;
+        }
+
+        recorder.append(ByteBuffer.wrap(new byte[BODY]));
+        recorder.commit();
+        return true;
+    }
+
+    private static void store(ResponseCache.Region region, String key) {
+        assertTrue(store(region, key, new Headers()));
+    }
+
+    private static boolean isCached(ResponseCache.Region region, String key) {
+        ResponseCache.Entry entry = region.get(key);
+        if (entry == null) {
+            return false;
+        }
+
+        entry.release();
+        return true;
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvicted() {
+        ResponseCache cache = new ResponseCache(3000, 1000);
+        ResponseCache.Region region = cache.createRegion(CachePolicy.untilInvalidated());
+        store(region, "/a");
+        store(region, "/b");
+        store(region, "/c");
+        assertTrue(isCached(region, "/a"));
+
+        store(region, "/d");
+        assertTrue(isCached(region, "/a"));
+        assertFalse(isCached(region, "/b"));
+        assertTrue(isCached(region, "/c"));
+        assertTrue(isCached(region, "/d"));
+    }
+
+    @Test
+    public void replacedEntryIsNotCountedTwice() {
+        ResponseCache cache = new ResponseCache(2000, 1000);
+        ResponseCache.Region region = cache.createRegion(CachePolicy.untilInvalidated());
+        store(region, "/a");
+        store(region, "/a");
+        store(region, "/b");
+
+        assertTrue(isCached(region, "/a"));
+        assertTrue(isCached(region, "/b"));
+    }
+
+    @Test
+    public void smallerBudgetTrimsTheCache() {
+        ResponseCache cache = new ResponseCache(3000, 1000);
+        ResponseCache.Region region = cache.createRegion(CachePolicy.untilInvalidated());
+        store(region, "/a");
+        store(region, "/b");
+        store(region, "/c");
+
+        cache.configure(1000, 1000);
+        assertFalse(isCached(region, "/a"));
+        assertFalse(isCached(region, "/b"));
+        assertTrue(isCached(region, "/c"));
+    }
+
+    @Test
+    public void invalidateDropsOnlyTheRegion() {
+        ResponseCache cache = new ResponseCache(3000, 1000);
+        ResponseCache.Region first = cache.createRegion(CachePolicy.untilInvalidated());
+        ResponseCache.Region second = cache.createRegion(CachePolicy.untilInvalidated());
+        store(first, "/a");
+        store(second, "/a");
+
+        first.invalidate();
+        assertFalse(isCached(first, "/a"));
+        assertTrue(isCached(second, "/a"));
+    }
+
+    @Test
+    public void expiredEntryIsDropped() throws InterruptedException {
+        ResponseCache cache = new ResponseCache(3000, 1000);
+        ResponseCache.Region region = cache.createRegion(CachePolicy.expireAfter(1));
+        store(region, "/a");
+
+        Thread.sleep(10);
+        assertFalse(isCached(region, "/a"));
+    }
+
+    @Test
+    public void uncacheableResponsesAreRejected() {
+        ResponseCache cache = new ResponseCache(3000, 1000);
+        ResponseCache.Region region = cache.createRegion(CachePolicy.untilInvalidated());
+
+        Headers cookie = new Headers();
+        cookie.add("Set-Cookie", "a=b");
+        assertFalse(store(region, "/cookie", cookie));
+
+        Headers noStore = new Headers();
+        noStore.add("Cache-Control", "no-store");
+        assertFalse(store(region, "/no-store", noStore));
+
+        assertFalse(region.record("/error", null).start(HttpStatusCodes.NOT_FOUND, BODY, new Headers()));
+        assertFalse(region.record("/large", null).start(HttpStatusCodes.OK, 2000, new Headers()));
+    }
+
+    @Test
+    public void incompleteBodyIsNotCached() {
+        ResponseCache cache = new ResponseCache(3000, 1000);
+        ResponseCache.Region region = cache.createRegion(CachePolicy.untilInvalidated());
+
+        ResponseCache.Recorder recorder = region.record("/a", null);
+        assertTrue(recorder.start(HttpStatusCodes.OK, BODY, new Headers()));
+        recorder.append(ByteBuffer.wrap(new byte[10]));
+        recorder.commit();
+
+        assertFalse(isCached(region, "/a"));
+    }
+
+    @Test
+    public void keyUsesTheQueryAndHeaders() {
+        ResponseCache cache = new ResponseCache(3000, 1000);
+        ResponseCache.Region plain = cache.createRegion(CachePolicy.untilInvalidated());
+        ResponseCache.Region keyed = cache.createRegion(CachePolicy.untilInvalidated().withQuery().withHeaders("Accept-Language"));
+
+        TestExchange exchange = new TestExchange("GET", "/a?x=1");
+        exchange.getRequestHeaders().add("Accept-Language", "pl");
+        assertEquals("/a", plain.getKey(exchange));
+        assertEquals("/a?x=1\npl", keyed.getKey(exchange));
+
+        assertNull(plain.getKey(new TestExchange("POST", "/a")));
+    }
+
+    @Test
+    public void coalesceOnlyDoesNotStore() {
+        ResponseCache cache = new ResponseCache(3000, 1000);
+        ResponseCache.Region region = cache.createRegion(CachePolicy.coalesceOnly());
+        store(region, "/a");
+
+        assertFalse(isCached(region, "/a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void expiringPolicyNeedsTtl() {
+        CachePolicy.expireAfter(0);
+    }
+}
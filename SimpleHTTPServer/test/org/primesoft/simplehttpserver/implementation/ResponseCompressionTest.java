@@ -0,0 +1,119 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.util.zip.Deflater;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class ResponseCompressionTest {
+
+    @Test
+    public void noHeaderMeansNoCompression() {
+        assertNull(ResponseCompression.negotiate(null));
+        assertNull(ResponseCompression.negotiate(""));
+        assertNull(ResponseCompression.negotiate("identity"));
+    }
+
+    @Test
+    public void gzipIsPreferred() {
+        assertEquals("gzip", ResponseCompression.negotiate("gzip, deflate"));
+        assertEquals("gzip", ResponseCompression.negotiate("deflate, gzip;q=0.5"));
+        assertEquals("gzip", ResponseCompression.negotiate("GZIP"));
+        assertEquals("deflate", ResponseCompression.negotiate("deflate"));
+    }
+
+    @Test
+    public void zeroQualityExcludesTheCoding() {
+        assertEquals("deflate", ResponseCompression.negotiate("gzip;q=0, deflate"));
+        assertNull(ResponseCompression.negotiate("gzip;q=0"));
+        assertNull(ResponseCompression.negotiate("gzip; q=0.0, deflate;q=0"));
+    }
+
+    @Test
+    public void wildcardDoesNotOverrideAnExclusion() {
+        assertEquals("gzip", ResponseCompression.negotiate("*"));
+        assertEquals("deflate", ResponseCompression.negotiate("gzip;q=0, *"));
+        assertNull(ResponseCompression.negotiate("gzip;q=0, deflate;q=0, *"));
+        assertEquals("gzip", ResponseCompression.negotiate("gzip, *;q=0"));
+        assertNull(ResponseCompression.negotiate("*;q=0"));
+    }
+
+    @Test
+    public void invalidQualityIsNotAccepted() {
+        assertNull(ResponseCompression.negotiate("gzip;q=abc"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void responseBodyRequiresTheResponse() {
+        TestExchange exchange = new TestExchange("GET", "/");
+        exchange.getRequestHeaders().set("Accept-Encoding", "gzip");
+
+        new HttpRequest(exchange, null, 0).getResponseBody();
+    }
+
+    @Test
+    public void shrinkingThePoolReleasesTheDeflaters() {
+        DeflaterPool pool = new DeflaterPool(true, 4);
+        Deflater[] deflaters = new Deflater[4];
+        for (int i = 0; i < deflaters.length; i++) {
+            deflaters[i] = pool.acquire(1);
+        }
+        for (Deflater deflater : deflaters) {
+            pool.release(deflater);
+        }
+
+        pool.setMaxPooled(1);
+        Deflater first = pool.acquire(1);
+        Deflater second = pool.acquire(1);
+        assertSame(deflaters[3], first);
+        for (Deflater deflater : deflaters) {
+            assertNotSame(deflater, second);
+        }
+        first.end();
+        second.end();
+    }
+}
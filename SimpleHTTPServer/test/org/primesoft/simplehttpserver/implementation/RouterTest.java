@@ -0,0 +1,199 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.api.IHttpRequest;
+import org.primesoft.simplehttpserver.api.IService;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class RouterTest {
+
+    /**
+     * Records the handled request
+     */
+    private static class Probe implements IService {
+
+        private final String m_name;
+
+        private IHttpRequest m_request;
+
+        Probe(String name) {
+            m_name = name;
+        }
+
+        @Override
+        public void handle(IHttpRequest request) throws IOException {
+            m_request = request;
+            request.sendResponse(HttpStatusCodes.OK, -1);
+        }
+
+        @Override
+        public String toString() {
+            return m_name;
+        }
+    }
+
+    /**
+     * The exchange of the last handled request
+     */
+    private TestExchange m_exchange;
+
+    private HttpRequest handle(Router router, String method, String uri) throws IOException {
+        m_exchange = new TestExchange(method, uri);
+        HttpRequest request = new HttpRequest(m_exchange, null, 0);
+        router.handle(request);
+        return request;
+    }
+
+    private int status() {
+        return m_exchange.getResponseCode();
+    }
+
+    @Test
+    public void staticSegmentBeatsParameter() throws IOException {
+        Probe user = new Probe("user");
+        Probe me = new Probe("me");
+        Router router = new Router();
+        router.get("/users/{id}", user).get("/users/me", me);
+
+        HttpRequest request = handle(router, "GET", "/users/me");
+        assertSame(request, me.m_request);
+        assertNull(user.m_request);
+
+        request = handle(router, "GET", "/users/42");
+        assertSame(request, user.m_request);
+        assertEquals("42", request.getPathParameter("id"));
+    }
+
+    @Test
+    public void backtracksToTheParameter() throws IOException {
+        Probe edit = new Probe("edit");
+        Probe view = new Probe("view");
+        Router router = new Router();
+        router.get("/a/b/edit", edit).get("/a/{x}/view", view);
+
+        HttpRequest request = handle(router, "GET", "/a/b/view");
+        assertSame(request, view.m_request);
+        assertEquals("b", request.getPathParameter("x"));
+    }
+
+    @Test
+    public void tailCapturesTheRest() throws IOException {
+        Probe files = new Probe("files");
+        Router router = new Router();
+        router.get("/files/{path*}", files);
+
+        HttpRequest request = handle(router, "GET", "/files/a/b/c.txt");
+        assertSame(request, files.m_request);
+        assertEquals("a/b/c.txt", request.getPathParameter("path"));
+
+        request = handle(router, "GET", "/files");
+        assertSame(request, files.m_request);
+        assertEquals("", request.getPathParameter("path"));
+    }
+
+    @Test
+    public void repeatedSlashesAreIgnored() throws IOException {
+        Probe item = new Probe("item");
+        Router router = new Router();
+        router.get("/items/{id}", item);
+
+        HttpRequest request = handle(router, "GET", "/items///7/");
+        assertSame(request, item.m_request);
+        assertEquals("7", request.getPathParameter("id"));
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws IOException {
+        Router router = new Router();
+        router.get("/items/{id}", new Probe("item"));
+
+        handle(router, "GET", "/items");
+        assertEquals(HttpStatusCodes.NOT_FOUND, status());
+        handle(router, "GET", "/items/1/2");
+        assertEquals(HttpStatusCodes.NOT_FOUND, status());
+    }
+
+    @Test
+    public void wrongMethodListsTheAllowedMethods() throws IOException {
+        Probe item = new Probe("item");
+        Router router = new Router();
+        router.get("/items/{id}", item).add("DELETE", "/items/{id}", item);
+
+        HttpRequest request = handle(router, "POST", "/items/1");
+        assertEquals(HttpStatusCodes.METHOD_NOT_ALLOWED, status());
+        assertEquals("GET, HEAD, DELETE", request.getResponseHeader().getFirst("Allow"));
+        assertNull(item.m_request);
+    }
+
+    @Test
+    public void headUsesTheGetRoute() throws IOException {
+        Probe item = new Probe("item");
+        Router router = new Router();
+        router.get("/items/{id}", item);
+
+        HttpRequest request = handle(router, "HEAD", "/items/1");
+        assertSame(request, item.m_request);
+    }
+
+    @Test
+    public void removedRouteIsNotMatched() throws IOException {
+        Router router = new Router();
+        router.get("/items/{id}", new Probe("item"));
+        router.remove("GET", "/items/{other}");
+
+        handle(router, "GET", "/items/1");
+        assertEquals(HttpStatusCodes.NOT_FOUND, status());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tailMustBeLast() {
+        new Router().get("/files/*/more", new Probe("files"));
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.primesoft.simplehttpserver.api.CachePolicy;
+import org.primesoft.simplehttpserver.api.HttpStatusCodes;
+import org.primesoft.simplehttpserver.api.IFilter;
+import org.primesoft.simplehttpserver.api.IHttpRequest;
+import org.primesoft.simplehttpserver.api.IService;
+import org.primesoft.simplehttpserver.metrics.ContextMetrics;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class ServiceWrapperTest {
+
+    private final ExecutorService m_executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        m_executor.shutdownNow();
+    }
+
+    private static void awaitIdle(ContextMetrics metrics) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getActive() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, metrics.getActive());
+    }
+
+    @Test
+    public void errorCompletesTheRequest() throws Exception {
+        ContextMetrics metrics = new ContextMetrics("/");
+        ServiceWrapper wrapper = new ServiceWrapper(new IService() {
+            @Override
+            public void handle(IHttpRequest request) throws IOException {
+                throw new NoClassDefFoundError("test");
+            }
+        }, m_executor, new IFilter[0], null, metrics);
+
+        TestExchange exchange = new TestExchange("GET", "/");
+        wrapper.handle(exchange);
+
+        awaitIdle(metrics);
+        assertEquals(HttpStatusCodes.INTERNAL_SERVER_ERROR, exchange.getResponseCode());
+    }
+
+    @Test
+    public void errorUnderCoalescingReleasesTheWaiters() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        IService service = new IService() {
+            @Override
+            public void handle(IHttpRequest request) throws IOException {
+                if (calls.incrementAndGet() == 1) {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new StackOverflowError("test");
+                }
+
+                request.sendResponse(HttpStatusCodes.OK, -1);
+            }
+        };
+
+        ResponseCache cache = new ResponseCache(1024 * 1024, 64 * 1024);
+        ContextMetrics metrics = new ContextMetrics("/");
+        ServiceWrapper wrapper = new ServiceWrapper(service, m_executor, new IFilter[0],
+                cache.createRegion(CachePolicy.untilInvalidated().withCoalescing()), metrics);
+
+        TestExchange leader = new TestExchange("GET", "/a");
+        wrapper.handle(leader);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        TestExchange waiter = new TestExchange("GET", "/a");
+        wrapper.handle(waiter);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getCacheMisses() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        //Let the waiter join the running render
+        Thread.sleep(100);
+        release.countDown();
+
+        awaitIdle(metrics);
+        assertEquals(HttpStatusCodes.INTERNAL_SERVER_ERROR, leader.getResponseCode());
+        assertEquals(HttpStatusCodes.OK, waiter.getResponseCode());
+
+        TestExchange later = new TestExchange("GET", "/a");
+        wrapper.handle(later);
+        awaitIdle(metrics);
+        assertEquals(HttpStatusCodes.OK, later.getResponseCode());
+    }
+
+    @Test
+    public void coalesceOnlySharesTheRenderWithoutStoring() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        IService service = new IService() {
+            @Override
+            public void handle(IHttpRequest request) throws IOException {
+                if (calls.incrementAndGet() == 1) {
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                request.sendResponse(HttpStatusCodes.OK, 4);
+                request.getResponseBody().write(new byte[]{1, 2, 3, 4});
+            }
+        };
+
+        ResponseCache cache = new ResponseCache(1024 * 1024, 64 * 1024);
+        ContextMetrics metrics = new ContextMetrics("/");
+        ServiceWrapper wrapper = new ServiceWrapper(service, m_executor, new IFilter[0],
+                cache.createRegion(CachePolicy.coalesceOnly()), metrics);
+
+        TestExchange leader = new TestExchange("GET", "/a");
+        wrapper.handle(leader);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        TestExchange waiter = new TestExchange("GET", "/a");
+        wrapper.handle(waiter);
+        //Let the waiter join the running render
+        Thread.sleep(100);
+        release.countDown();
+
+        awaitIdle(metrics);
+        assertEquals(1, calls.get());
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, waiter.getResponseBytes());
+
+        wrapper.handle(new TestExchange("GET", "/a"));
+        awaitIdle(metrics);
+        assertEquals(2, calls.get());
+    }
+}
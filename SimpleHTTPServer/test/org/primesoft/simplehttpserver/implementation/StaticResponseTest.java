@@ -0,0 +1,129 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+import org.primesoft.simplehttpserver.metrics.ContextMetrics;
+import org.primesoft.simplehttpserver.utils.OffHeapStore;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class StaticResponseTest {
+
+    /**
+     * Executor that keeps the tasks until they are run by the test
+     */
+    private static class QueueExecutor implements Executor {
+
+        private final List<Runnable> m_tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            m_tasks.add(command);
+        }
+    }
+
+    private static StaticResponse create(int size, Executor executor) {
+        OffHeapStore store = new OffHeapStore(1024 * 1024);
+        StaticResponse result = new StaticResponse(store.copyOf(new byte[size]), "text/plain", null);
+        result.setMetrics(new ContextMetrics("/"));
+        result.setExecutor(executor);
+
+        return result;
+    }
+
+    @Test
+    public void smallBodyIsSentInline() throws IOException {
+        QueueExecutor executor = new QueueExecutor();
+        StaticResponse response = create(StaticResponse.INLINE_LIMIT, executor);
+        TestExchange exchange = new TestExchange("GET", "/");
+
+        response.handle(exchange);
+
+        assertTrue(executor.m_tasks.isEmpty());
+        assertEquals(200, exchange.getResponseCode());
+        assertEquals(StaticResponse.INLINE_LIMIT, exchange.getResponseBytes().length);
+    }
+
+    @Test
+    public void largeBodyIsSentByTheExecutor() throws IOException {
+        QueueExecutor executor = new QueueExecutor();
+        StaticResponse response = create(StaticResponse.INLINE_LIMIT + 1, executor);
+        TestExchange exchange = new TestExchange("GET", "/");
+
+        response.handle(exchange);
+        assertEquals(-1, exchange.getResponseCode());
+        assertEquals(1, executor.m_tasks.size());
+
+        executor.m_tasks.get(0).run();
+        assertEquals(200, exchange.getResponseCode());
+        assertEquals(StaticResponse.INLINE_LIMIT + 1, exchange.getResponseBytes().length);
+    }
+
+    @Test
+    public void rejectedLargeBodyIsAnswered503() throws IOException {
+        StaticResponse response = create(StaticResponse.INLINE_LIMIT + 1, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        });
+        TestExchange exchange = new TestExchange("GET", "/");
+
+        response.handle(exchange);
+        assertEquals(503, exchange.getResponseCode());
+
+        //The body is still available
+        response.setExecutor(null);
+        exchange = new TestExchange("GET", "/");
+        response.handle(exchange);
+        assertEquals(200, exchange.getResponseCode());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.implementation;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class WorkerPoolTest {
+
+    private WorkerPool m_pool;
+
+    private CountDownLatch m_gate;
+
+    @Before
+    public void setUp() {
+        m_pool = new WorkerPool(1, 3, 60, 2, Executors.defaultThreadFactory());
+        m_gate = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        m_gate.countDown();
+        m_pool.shutdownNow();
+    }
+
+    /**
+     * Task that blocks until the gate is opened
+     */
+    private Runnable blocking(final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    m_gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void threadsAreStartedBeforeQueuing() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 3; i++) {
+            m_pool.execute(blocking(done));
+        }
+        assertEquals(3, m_pool.getPoolSize());
+        assertEquals(0, m_pool.getQueue().size());
+
+        m_pool.execute(blocking(done));
+        m_pool.execute(blocking(done));
+        assertEquals(3, m_pool.getPoolSize());
+        assertEquals(2, m_pool.getQueue().size());
+
+        try {
+            m_pool.execute(blocking(done));
+            fail("The queue is full");
+        } catch (RejectedExecutionException ex) {
+        }
+
+        m_gate.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void idleThreadIsReused() throws InterruptedException {
+        final CountDownLatch first = new CountDownLatch(1);
+        m_pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                first.countDown();
+            }
+        });
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (m_pool.getActiveCount() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+
+        CountDownLatch done = new CountDownLatch(1);
+        m_pool.execute(blocking(done));
+        assertEquals(1, m_pool.getPoolSize());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.utils;
+
+import com.sun.net.httpserver.Headers;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.primesoft.simplehttpserver.api.IHeaders;
+import org.primesoft.simplehttpserver.implementation.HeadersWrapper;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class HttpConditionsTest {
+
+    private static final String ETAG = "\"abc\"";
+
+    private static final long MODIFIED = 1500000000123L;
+
+    private static IHeaders headers(String name, String value) {
+        IHeaders result = new HeadersWrapper(new Headers());
+        result.add(name, value);
+        return result;
+    }
+
+    @Test
+    public void noConditionsMeansModified() {
+        IHeaders headers = new HeadersWrapper(new Headers());
+        assertFalse(HttpConditions.isNotModified(headers, ETAG, MODIFIED));
+        assertTrue(HttpConditions.isRangeAllowed(headers, ETAG, MODIFIED));
+    }
+
+    @Test
+    public void ifNoneMatchUsesTheWeakComparison() {
+        assertTrue(HttpConditions.isNotModified(headers("If-None-Match", ETAG), ETAG, MODIFIED));
+        assertTrue(HttpConditions.isNotModified(headers("If-None-Match", "W/" + ETAG), ETAG, MODIFIED));
+        assertTrue(HttpConditions.isNotModified(headers("If-None-Match", "\"x\", " + ETAG), ETAG, MODIFIED));
+        assertTrue(HttpConditions.isNotModified(headers("If-None-Match", "*"), ETAG, MODIFIED));
+        assertFalse(HttpConditions.isNotModified(headers("If-None-Match", "\"x\""), ETAG, MODIFIED));
+    }
+
+    @Test
+    public void ifNoneMatchTakesPrecedence() {
+        IHeaders headers = headers("If-None-Match", "\"x\"");
+        headers.add("If-Modified-Since", HttpDates.format(MODIFIED));
+        assertFalse(HttpConditions.isNotModified(headers, ETAG, MODIFIED));
+    }
+
+    @Test
+    public void ifModifiedSinceUsesSeconds() {
+        assertTrue(HttpConditions.isNotModified(
+                headers("If-Modified-Since", HttpDates.format(MODIFIED)), ETAG, MODIFIED));
+        assertTrue(HttpConditions.isNotModified(
+                headers("If-Modified-Since", HttpDates.format(MODIFIED + 5000)), ETAG, MODIFIED));
+        assertFalse(HttpConditions.isNotModified(
+                headers("If-Modified-Since", HttpDates.format(MODIFIED - 1000)), ETAG, MODIFIED));
+        assertFalse(HttpConditions.isNotModified(
+                headers("If-Modified-Since", "not a date"), ETAG, MODIFIED));
+    }
+
+    @Test
+    public void unknownModificationTimeIsModified() {
+        assertFalse(HttpConditions.isNotModified(
+                headers("If-Modified-Since", HttpDates.format(MODIFIED)), ETAG, -1));
+    }
+
+    @Test
+    public void ifRangeUsesTheStrongComparison() {
+        assertTrue(HttpConditions.isRangeAllowed(headers("If-Range", ETAG), ETAG, MODIFIED));
+        assertFalse(HttpConditions.isRangeAllowed(headers("If-Range", "\"x\""), ETAG, MODIFIED));
+        assertFalse(HttpConditions.isRangeAllowed(headers("If-Range", "W/" + ETAG), ETAG, MODIFIED));
+    }
+
+    @Test
+    public void ifRangeDateMustMatch() {
+        assertTrue(HttpConditions.isRangeAllowed(
+                headers("If-Range", HttpDates.format(MODIFIED)), ETAG, MODIFIED));
+        assertFalse(HttpConditions.isRangeAllowed(
+                headers("If-Range", HttpDates.format(MODIFIED + 5000)), ETAG, MODIFIED));
+    }
+}
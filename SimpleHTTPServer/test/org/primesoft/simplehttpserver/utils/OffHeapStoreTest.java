@@ -0,0 +1,107 @@
+/*
+ * SimpleHTTPServer a plugin that allows you to run a simple HTTP server
+ * directly from Spigot.
+ * Copyright (c) 2015, SBPrime <https://github.com/SBPrime/>
+ * Copyright (c) SimpleHTTPServer contributors
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted free of charge provided that the following 
+ * conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution,
+ * 3. Redistributions of source code, with or without modification, in any form 
+ *    other then free of charge is not allowed,
+ * 4. Redistributions in binary form in any form other then free of charge is 
+ *    not allowed.
+ * 5. Any derived work based on or containing parts of this software must reproduce 
+ *    the above copyright notice, this list of conditions and the following 
+ *    disclaimer in the documentation and/or other materials provided with the 
+ *    derived work.
+ * 6. The original author of the software is allowed to change the license 
+ *    terms or the entire license of the software as he sees fit.
+ * 7. The original author of the software is allowed to sublicense the software 
+ *    or its parts using any license terms he sees fit.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.primesoft.simplehttpserver.utils;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author SBPrime
+ */
+public class OffHeapStoreTest {
+
+    @Test
+    public void smallClassesUseSmallSlabs() {
+        OffHeapStore store = new OffHeapStore(8 * 1024 * 1024);
+
+        OffHeapStore.Block block = store.allocate(1000);
+        assertTrue(block.isDirect());
+        assertEquals(1000, block.size());
+        assertEquals(64 * 1024, store.getReserved());
+
+        store.allocate(2000).release();
+        assertEquals(2 * 64 * 1024, store.getReserved());
+    }
+
+    @Test
+    public void largeClassesCarveTwoChunks() {
+        OffHeapStore store = new OffHeapStore(8 * 1024 * 1024);
+
+        store.allocate(1024 * 1024).release();
+        assertEquals(2 * 1024 * 1024, store.getReserved());
+    }
+
+    @Test
+    public void releasedChunksAreReused() {
+        OffHeapStore store = new OffHeapStore(8 * 1024 * 1024);
+
+        OffHeapStore.Block first = store.allocate(1024);
+        first.release();
+        for (int i = 0; i < 64; i++) {
+            store.allocate(1024);
+        }
+
+        assertEquals(64 * 1024, store.getReserved());
+    }
+
+    @Test
+    public void exhaustedBudgetFallsBackToHeap() {
+        OffHeapStore store = new OffHeapStore(1024 * 1024);
+
+        OffHeapStore.Block block = store.allocate(1024 * 1024);
+        assertFalse(block.isDirect());
+        assertEquals(0, store.getReserved());
+    }
+
+    @Test
+    public void lastReleaseReturnsTheBlock() {
+        OffHeapStore store = new OffHeapStore(1024 * 1024);
+
+        OffHeapStore.Block block = store.copyOf(new byte[]{1, 2, 3});
+        assertTrue(block.retain());
+        block.release();
+        block.release();
+        assertFalse(block.retain());
+        assertEquals(3, block.getBuffer().remaining());
+    }
+}